@@ -0,0 +1,195 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import static coffeescript.lang.CoffeeScriptTokenId.*;
+import coffeescript.lang.CoffeeScriptTokenId.Category;
+import java.io.IOException;
+
+/**
+ * Renders highlighted CoffeeScript as HTML spans or ANSI escapes while
+ * lexing. Tokens are written to the {@link Appendable} as they are read, and
+ * the code inside #{} interpolations is highlighted recursively.
+ *
+ * @author Denis Stepanov
+ */
+public class CoffeeScriptHighlighter {
+
+    public static enum Format {
+
+        HTML, ANSI
+    }
+    //
+    private static final String ANSI_RESET = "\u001B[0m";
+    private final Format format;
+    private final String[] styles = new String[Category.values().length];
+    private String embeddedStyle;
+
+    public CoffeeScriptHighlighter(Format format) {
+        this.format = format;
+        if (format == Format.HTML) {
+            for (Category category : Category.values()) {
+                styles[category.ordinal()] = category.getName();
+            }
+            styles[Category.WHITESPACE_CAT.ordinal()] = null;
+            embeddedStyle = "embedded";
+        } else {
+            styles[Category.COMMENT_CAT.ordinal()] = "90";
+            styles[Category.KEYWORD_CAT.ordinal()] = "1;34";
+            styles[Category.REGEXP_CAT.ordinal()] = "35";
+            styles[Category.STRING_CAT.ordinal()] = "32";
+            styles[Category.ERROR_CAT.ordinal()] = "4;31";
+            styles[Category.NUMBER_CAT.ordinal()] = "36";
+            styles[Category.FIELD_CAT.ordinal()] = "33";
+        }
+    }
+
+    /**
+     * Sets the CSS class or the ANSI SGR parameters used for the category, or
+     * null to write its tokens unstyled.
+     */
+    public void setStyle(Category category, String style) {
+        styles[category.ordinal()] = style;
+    }
+
+    /**
+     * Sets the style wrapping the code of an interpolation, or null for none.
+     */
+    public void setEmbeddedStyle(String style) {
+        embeddedStyle = style;
+    }
+
+    public String highlight(String code) {
+        StringBuilder out = new StringBuilder(code.length() * 2);
+        try {
+            highlight(code, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toString();
+    }
+
+    public void highlight(String code, Appendable out) throws IOException {
+        highlight(code, 0, code.length(), out);
+    }
+
+    private void highlight(String code, int start, int end, Appendable out) throws IOException {
+        CoffeeScriptLexerStringInput input = new CoffeeScriptLexerStringInput(code, start, end);
+        CoffeeScriptLexer lexer = new CoffeeScriptLexer(input);
+        CoffeeScriptTokenId id;
+        while ((id = lexer.nextToken()) != null) {
+            int offset = input.getOffset();
+            int tokenEnd = offset + input.readLength();
+            String style = styles[id.getCategory().ordinal()];
+            if ((id == STRING || id == HEREGEX) && CoffeeScriptLexerBase.hasInterpolation(code, offset, tokenEnd)) {
+                highlightInterpolated(code, offset, tokenEnd, id == STRING, style, out);
+            } else {
+                write(code, offset, tokenEnd, style, out);
+            }
+        }
+    }
+
+    private void highlightInterpolated(String code, int start, int end, boolean string, String style, Appendable out) throws IOException {
+        CoffeeScriptLexerStringInput input = new CoffeeScriptLexerStringInput(code, start, end);
+        String commentStyle = styles[Category.COMMENT_CAT.ordinal()];
+        if (string) {
+            CoffeeScriptStringLexer lexer = new CoffeeScriptStringLexer(input);
+            CoffeeScriptStringTokenId id;
+            while ((id = lexer.nextToken()) != null) {
+                int offset = input.getOffset();
+                if (id == CoffeeScriptStringTokenId.EMBEDDED) {
+                    embedded(code, offset, offset + input.readLength(), out);
+                } else {
+                    write(code, offset, offset + input.readLength(), style, out);
+                }
+            }
+        } else {
+            CoffeeScriptRegexpLexer lexer = new CoffeeScriptRegexpLexer(input);
+            CoffeeScriptRegexpTokenId id;
+            while ((id = lexer.nextToken()) != null) {
+                int offset = input.getOffset();
+                if (id == CoffeeScriptRegexpTokenId.EMBEDDED) {
+                    embedded(code, offset, offset + input.readLength(), out);
+                } else {
+                    write(code, offset, offset + input.readLength(), id == CoffeeScriptRegexpTokenId.COMMENT ? commentStyle : style, out);
+                }
+            }
+        }
+    }
+
+    private void embedded(String code, int start, int end, Appendable out) throws IOException {
+        if (embeddedStyle != null) {
+            open(embeddedStyle, out);
+        }
+        highlight(code, start, end, out);
+        if (embeddedStyle != null) {
+            close(out);
+        }
+    }
+
+    private void write(String code, int start, int end, String style, Appendable out) throws IOException {
+        if (start == end) {
+            return;
+        }
+        if (style == null) {
+            text(code, start, end, out);
+        } else {
+            open(style, out);
+            text(code, start, end, out);
+            close(out);
+        }
+    }
+
+    private void open(String style, Appendable out) throws IOException {
+        if (format == Format.HTML) {
+            out.append("<span class=\"").append(style).append("\">");
+        } else {
+            out.append("\u001B[").append(style).append('m');
+        }
+    }
+
+    private void close(Appendable out) throws IOException {
+        out.append(format == Format.HTML ? "</span>" : ANSI_RESET);
+    }
+
+    private void text(String code, int start, int end, Appendable out) throws IOException {
+        if (format != Format.HTML) {
+            out.append(code, start, end);
+            return;
+        }
+        int run = start;
+        for (int i = start; i < end; i++) {
+            String entity;
+            switch (code.charAt(i)) {
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '"':
+                    entity = "&quot;";
+                    break;
+                default:
+                    continue;
+            }
+            out.append(code, run, i).append(entity);
+            run = i + 1;
+        }
+        out.append(code, run, end);
+    }
+}
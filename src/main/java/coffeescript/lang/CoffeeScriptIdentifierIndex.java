@@ -0,0 +1,336 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inverted index from identifiers to the files and offsets where they occur,
+ * for finding usages across many files. Fields are indexed without their "@".
+ * <p>
+ * The postings of an identifier are one byte array holding a group per file:
+ * the file id, the number of offsets, the byte length of the offsets and the
+ * offsets as variable length deltas. Updating a file replaces its groups in
+ * the postings of the identifiers it contained and contains now, so an update
+ * costs time in proportion to those postings only.
+ *
+ * @author Denis Stepanov
+ */
+public class CoffeeScriptIdentifierIndex {
+
+    private static final int[] NO_TERMS = new int[0];
+    private final Map<String, Integer> fileIds = new HashMap<String, Integer>();
+    private String[] fileNames = new String[16];
+    // Identifiers of each file, by term id
+    private int[][] fileTerms = new int[16][];
+    private int freeFile = -1;
+    private final Map<String, Integer> termIds = new HashMap<String, Integer>();
+    private byte[][] postings = new byte[64][];
+    private int[] postingLengths = new int[64];
+    private int[] postingCounts = new int[64];
+    private int termCount;
+    private int fileCount;
+    private long postingCount;
+    // Occurrences of the file being updated
+    private long[] occurrences;
+    private int count;
+
+    /**
+     * Indexes the file with the given text, replacing its previous content.
+     */
+    public void update(String file, String code) {
+        update(file, code, CoffeeScriptTokenStream.lex(code));
+    }
+
+    public synchronized void update(String file, String code, CoffeeScriptTokenStream tokens) {
+        Integer id = fileIds.get(file);
+        int fileId;
+        if (id != null) {
+            fileId = id;
+            removePostings(fileId);
+        } else {
+            fileId = newFile(file);
+        }
+        // Occurrences as term id and offset, sorted into groups by term
+        occurrences = new long[64];
+        count = 0;
+        for (int i = 0, size = tokens.size(); i < size; i++) {
+            add(code, tokens.getId(i), tokens.getOffset(i), tokens.getEnd(i));
+        }
+        // Code of interpolations, each nested one is lexed on its own
+        CoffeeScriptStructureIndex structure = tokens.getStructureIndex();
+        for (int i = 0; i < structure.getInterpolationCount(); i++) {
+            int end = structure.getInterpolationEnd(i);
+            if (end < 0) {
+                continue;
+            }
+            CoffeeScriptLexerStringInput input = new CoffeeScriptLexerStringInput(code, structure.getInterpolationStart(i) + 2, end);
+            CoffeeScriptLexer lexer = new CoffeeScriptLexer(input);
+            CoffeeScriptTokenId token;
+            while ((token = lexer.nextToken()) != null) {
+                add(code, token, input.getOffset(), input.getOffset() + input.readLength());
+            }
+        }
+        long[] occurrences = this.occurrences;
+        int count = this.count;
+        this.occurrences = null;
+        Arrays.sort(occurrences, 0, count);
+        int[] terms = new int[16];
+        int termsInFile = 0;
+        byte[] group = new byte[64];
+        for (int i = 0; i < count;) {
+            int term = (int) (occurrences[i] >>> 32);
+            int end = i;
+            while (end < count && (int) (occurrences[end] >>> 32) == term) {
+                end++;
+            }
+            // Offsets as deltas, then the group header in front of them
+            int length = 0, previous = 0;
+            for (int j = i; j < end; j++) {
+                int offset = (int) occurrences[j];
+                if (length + 5 > group.length) {
+                    group = Arrays.copyOf(group, group.length * 2);
+                }
+                length = writeVarint(group, length, offset - previous);
+                previous = offset;
+            }
+            appendGroup(term, fileId, end - i, group, length);
+            if (termsInFile == terms.length) {
+                terms = Arrays.copyOf(terms, termsInFile * 2);
+            }
+            terms[termsInFile++] = term;
+            i = end;
+        }
+        fileTerms[fileId] = Arrays.copyOf(terms, termsInFile);
+    }
+
+    private void add(String code, CoffeeScriptTokenId token, int offset, int end) {
+        if (token != CoffeeScriptTokenId.IDENTIFIER && token != CoffeeScriptTokenId.FIELD) {
+            return;
+        }
+        String name = code.substring(token == CoffeeScriptTokenId.FIELD ? offset + 1 : offset, end);
+        Integer term = termIds.get(name);
+        if (term == null) {
+            term = newTerm(name);
+        }
+        if (count == occurrences.length) {
+            occurrences = Arrays.copyOf(occurrences, count * 2);
+        }
+        occurrences[count++] = (long) term << 32 | offset;
+    }
+
+    public synchronized void remove(String file) {
+        Integer id = fileIds.remove(file);
+        if (id != null) {
+            removePostings(id);
+            fileNames[id] = null;
+            // Reuse the id, linked through the empty term list
+            fileTerms[id] = new int[]{freeFile};
+            freeFile = id;
+            fileCount--;
+        }
+    }
+
+    /**
+     * Returns the occurrences of an identifier, grouped by file with offsets
+     * ascending within each file.
+     */
+    public synchronized Usages find(String identifier) {
+        Integer term = termIds.get(identifier);
+        if (term == null || postingCounts[term] == 0) {
+            return new Usages(new String[0], new int[0], 0);
+        }
+        int count = postingCounts[term];
+        String[] files = new String[count];
+        int[] offsets = new int[count];
+        byte[] data = postings[term];
+        int length = postingLengths[term];
+        int n = 0;
+        int[] position = new int[1];
+        while (position[0] < length) {
+            String file = fileNames[readVarint(data, position)];
+            int occurrences = readVarint(data, position);
+            readVarint(data, position);
+            int offset = 0;
+            for (int i = 0; i < occurrences; i++) {
+                offset += readVarint(data, position);
+                files[n] = file;
+                offsets[n++] = offset;
+            }
+        }
+        return new Usages(files, offsets, n);
+    }
+
+    public synchronized int getFileCount() {
+        return fileCount;
+    }
+
+    public synchronized int getIdentifierCount() {
+        return termCount;
+    }
+
+    public synchronized long getPostingCount() {
+        return postingCount;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the index in bytes.
+     */
+    public synchronized long getMemoryUsage() {
+        // Object headers and references are counted as 16 and 4 bytes
+        long bytes = 0;
+        for (int i = 0; i < termCount; i++) {
+            bytes += 16 + postings[i].length;
+        }
+        bytes += (long) postings.length * 4 + postingLengths.length * 4L + postingCounts.length * 4L;
+        for (String name : termIds.keySet()) {
+            // Map entry, boxed id, string and its characters
+            bytes += 32 + 16 + 24 + 16 + name.length() * 2;
+        }
+        for (int i = 0; i < fileNames.length; i++) {
+            if (fileNames[i] != null) {
+                bytes += 32 + 16 + 24 + 16 + fileNames[i].length() * 2 + 16 + fileTerms[i].length * 4;
+            }
+        }
+        return bytes + fileNames.length * 8L;
+    }
+
+    private int newFile(String file) {
+        int id;
+        if (freeFile >= 0) {
+            id = freeFile;
+            freeFile = fileTerms[id][0];
+        } else {
+            id = fileIds.size();
+            if (id == fileNames.length) {
+                fileNames = Arrays.copyOf(fileNames, id * 2);
+                fileTerms = Arrays.copyOf(fileTerms, id * 2);
+            }
+        }
+        fileIds.put(file, id);
+        fileNames[id] = file;
+        fileTerms[id] = NO_TERMS;
+        fileCount++;
+        return id;
+    }
+
+    private int newTerm(String name) {
+        int term = termCount++;
+        if (term == postings.length) {
+            postings = Arrays.copyOf(postings, term * 2);
+            postingLengths = Arrays.copyOf(postingLengths, term * 2);
+            postingCounts = Arrays.copyOf(postingCounts, term * 2);
+        }
+        postings[term] = new byte[16];
+        termIds.put(name, term);
+        return term;
+    }
+
+    private void appendGroup(int term, int fileId, int occurrences, byte[] offsets, int length) {
+        byte[] data = postings[term];
+        int position = postingLengths[term];
+        if (position + 15 + length > data.length) {
+            data = postings[term] = Arrays.copyOf(data, Math.max(data.length * 2, position + 15 + length));
+        }
+        position = writeVarint(data, position, fileId);
+        position = writeVarint(data, position, occurrences);
+        position = writeVarint(data, position, length);
+        System.arraycopy(offsets, 0, data, position, length);
+        postingLengths[term] = position + length;
+        postingCounts[term] += occurrences;
+        postingCount += occurrences;
+    }
+
+    private void removePostings(int fileId) {
+        int[] position = new int[1];
+        for (int term : fileTerms[fileId]) {
+            byte[] data = postings[term];
+            int length = postingLengths[term];
+            position[0] = 0;
+            while (position[0] < length) {
+                int start = position[0];
+                int file = readVarint(data, position);
+                int occurrences = readVarint(data, position);
+                int end = readVarint(data, position) + position[0];
+                if (file == fileId) {
+                    System.arraycopy(data, end, data, start, length - end);
+                    postingLengths[term] = length - (end - start);
+                    postingCounts[term] -= occurrences;
+                    postingCount -= occurrences;
+                    break;
+                }
+                position[0] = end;
+            }
+            if (postingLengths[term] < data.length / 4 && data.length > 64) {
+                postings[term] = Arrays.copyOf(data, data.length / 2);
+            }
+        }
+        fileTerms[fileId] = NO_TERMS;
+    }
+
+    private static int writeVarint(byte[] data, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte) value;
+        return position;
+    }
+
+    private static int readVarint(byte[] data, int[] position) {
+        int p = position[0];
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = data[p++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                position[0] = p;
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Occurrences of an identifier found in the index.
+     */
+    public static final class Usages {
+
+        private final String[] files;
+        private final int[] offsets;
+        private final int size;
+
+        Usages(String[] files, int[] offsets, int size) {
+            this.files = files;
+            this.offsets = offsets;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String getFile(int index) {
+            return files[index];
+        }
+
+        /**
+         * Returns the offset of the token, including the "@" of a field.
+         */
+        public int getOffset(int index) {
+            return offsets[index];
+        }
+    }
+}
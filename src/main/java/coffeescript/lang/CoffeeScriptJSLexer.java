@@ -0,0 +1,126 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import static coffeescript.lang.CoffeeScriptJSTokenId.*;
+import org.mozilla.nb.javascript.CompilerEnvirons;
+import org.mozilla.nb.javascript.ContextFactory;
+import org.mozilla.nb.javascript.ErrorReporter;
+import org.mozilla.nb.javascript.EvaluatorException;
+import org.mozilla.nb.javascript.Parser;
+import org.mozilla.nb.javascript.Token;
+import org.mozilla.nb.javascript.TokenStream;
+
+/**
+ * Lexes the JavaScript of backtick blocks with the syntax lexing mode of
+ * Rhino's scanner.
+ *
+ * @author Denis Stepanov
+ */
+public class CoffeeScriptJSLexer extends CoffeeScriptLexerBase<CoffeeScriptJSTokenId> {
+
+    private final TokenStream tokenStream;
+
+    public CoffeeScriptJSLexer(CoffeeScriptLexerInput input) {
+        super(input);
+        CompilerEnvirons compilerEnv = new CompilerEnvirons();
+        ErrorReporter errorReporter =
+                new ErrorReporter() {
+
+                    public void warning(String message, String sourceName, int line, String lineSource, int lineOffset, String id, Object params) {
+                    }
+
+                    public void error(String message, String sourceName, int line, String lineSource, int lineOffset, String id, Object params) {
+                    }
+
+                    public EvaluatorException runtimeError(String message, String sourceName, int line, String lineSource, int lineOffset) {
+                        return null;
+                    }
+                };
+        compilerEnv.initFromContext(new RhinoContext());
+        compilerEnv.setErrorReporter(errorReporter);
+        compilerEnv.setGeneratingSource(false);
+        compilerEnv.setGenerateDebugInfo(false);
+        // The scanner reports errors through the parser, it is not used for parsing
+        Parser parser = new Parser(compilerEnv, errorReporter);
+        tokenStream = new TokenStream(parser, input, null, "", 0);
+        parser.setTokenStream(tokenStream);
+    }
+
+    public void setState(Object state) {
+        tokenStream.fromState(state);
+    }
+
+    public Object state() {
+        return tokenStream.toState();
+    }
+
+    protected CoffeeScriptJSTokenId getNextToken() {
+        int token;
+        try {
+            token = tokenStream.getToken() & Parser.CLEAR_TI_MASK;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        if (token == Token.EOF) {
+            return input.readLength() > 0 ? token(WHITESPACE) : null;
+        }
+        return token(getTokenId(token));
+    }
+
+    private CoffeeScriptJSTokenId getTokenId(int token) {
+        switch (token) {
+            case Token.NAME:
+                return IDENTIFIER;
+            case Token.NUMBER:
+                return NUMBER;
+            case Token.STRING_BEGIN:
+            case Token.STRING:
+            case Token.STRING_END:
+                return STRING;
+            case Token.REGEXP_BEGIN:
+            case Token.REGEXP:
+            case Token.REGEXP_END:
+                return REGEXP;
+            case Token.LINE_COMMENT:
+            case Token.BLOCK_COMMENT:
+                return COMMENT;
+            case Token.WHITESPACE:
+            case Token.EOL:
+                return WHITESPACE;
+            case Token.ERROR:
+            case Token.STRING_ERROR:
+            case Token.REGEXP_ERROR:
+                return ERROR;
+            case Token.LP:
+            case Token.RP:
+            case Token.LB:
+            case Token.RB:
+            case Token.LC:
+            case Token.RC:
+            case Token.SEMI:
+            case Token.COMMA:
+                return SEPARATOR;
+        }
+        String text = input.readText();
+        return text.length() > 0 && Character.isJavaIdentifierStart(text.charAt(0)) ? KEYWORD : OPERATOR;
+    }
+
+    private static final class RhinoContext extends org.mozilla.nb.javascript.Context {
+
+        public RhinoContext() {
+            super(ContextFactory.getGlobal());
+        }
+    }
+}
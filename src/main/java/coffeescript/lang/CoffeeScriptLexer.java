@@ -16,16 +16,7 @@ package coffeescript.lang;
 import static coffeescript.lang.CoffeeScriptTokenId.*;
 import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.HashSet;
 import java.util.Set;
-import java.util.regex.Pattern;
-import org.mozilla.nb.javascript.CompilerEnvirons;
-import org.mozilla.nb.javascript.ContextFactory;
-import org.mozilla.nb.javascript.ErrorReporter;
-import org.mozilla.nb.javascript.EvaluatorException;
-import org.mozilla.nb.javascript.Parser;
-import org.mozilla.nb.javascript.Token;
-import org.mozilla.nb.javascript.TokenStream;
 
 /**
  *
@@ -33,76 +24,50 @@ import org.mozilla.nb.javascript.TokenStream;
  */
 public class CoffeeScriptLexer extends CoffeeScriptLexerBase<CoffeeScriptTokenId> {
 
-    private Parser parser;
-    private TokenStream tokenStream;
+    /**
+     * Maximum number of characters the lexer reads past the end of a token
+     * before backing up to it, bound by a keyword read after '@'. The only
+     * exception is a slash in a position where a regex may start: the
+     * candidate regex is read up to the end of its line before the lexer backs
+     * up to a division operator.
+     */
+    public static final int MAX_LOOKAHEAD = CoffeeScriptScanner.MAX_KEYWORD_LENGTH + 1;
     //
-    private final static Set<String> COFFEE_KEYWORDS = new HashSet<String>(Arrays.asList("undefined", "then", "unless", "until", "loop", "of", "by", "when"));
-    private final static Set<String> COFFEE_ALIASES = new HashSet<String>(Arrays.asList("and", "or", "is", "isnt", "not", "yes", "no", "on", "off"));
     private final static Set<CoffeeScriptTokenId> NOT_REGEX = EnumSet.of(NUMBER, REGEX, BOOL, INC, DEC, RBRACKET);
     private final static Set<CoffeeScriptTokenId> NOT_SPACED_REGEX = EnumSet.of(RPAREN, RBRACE, THIS, IDENTIFIER, STRING);
-    //
-    private final static Pattern REGEX_MATCH = Pattern.compile("^\\/(?![\\s=])[^\\/\\n\\\\]*(?:(?:\\\\[\\s\\S]|\\[[^\\]\\n\\\\]*(?:\\\\[\\s\\S][^\\]\\n\\\\]*)*])[^\\/\\n\\\\]*)*\\/[imgy]{0,4}(?!\\w)");
+    private final static Set<CoffeeScriptTokenId> PROPERTY_ACCESS = EnumSet.of(DOT, QDOT, DOUBLE_COLON);
+    // Tokens ending a value, after which a minus is a subtraction. After a
+    // space, "f -1" is an implicit call with a negative number, as it is for
+    // the CoffeeScript compiler, unless the value cannot be called.
+    private final static Set<CoffeeScriptTokenId> SPACED_VALUE_END = EnumSet.of(NUMBER, REGEX, HEREGEX, BOOL, INC, DEC, RBRACKET,
+            RBRACE, STRING, SIMPLE_STRING, JSTOKEN);
+    private final static Set<CoffeeScriptTokenId> VALUE_END = EnumSet.of(RPAREN, THIS, IDENTIFIER, FIELD, AT);
 
     static {
         NOT_SPACED_REGEX.addAll(NOT_REGEX);
+        VALUE_END.addAll(SPACED_VALUE_END);
     }
     // 
+    private final CoffeeScriptScanner scanner;
     private CoffeeScriptTokenId prevToken;
     private boolean prevSpaced;
-    private int indent;
+    private Indentation indentation;
+    private int pendingOutdents;
 
     public CoffeeScriptLexer(CoffeeScriptLexerInput input) {
         super(input);
-        // TODO Use Rhino's scanner and TokenStream classes.
-        // Unfortunately, they don't provide access... I'll need a hacked version of
-        // Rhino!
-        CompilerEnvirons compilerEnv = new CompilerEnvirons();
-        ErrorReporter errorReporter =
-                new ErrorReporter() {
-
-                    public void warning(String message, String sourceName, int line, String lineSource, int lineOffset, String id, Object params) {
-                    }
-
-                    public void error(String message, String sourceName, int line, String lineSource, int lineOffset, String id, Object params) {
-                    }
-
-                    public EvaluatorException runtimeError(String message, String sourceName, int line, String lineSource, int lineOffset) {
-                        return null;
-                    }
-                };
-
-        RhinoContext ctx = new RhinoContext();
-        compilerEnv.initFromContext(ctx);
-
-        compilerEnv.setErrorReporter(errorReporter);
-        compilerEnv.setGeneratingSource(false);
-        compilerEnv.setGenerateDebugInfo(false);
-
-        compilerEnv.setXmlAvailable(true);
-
-        // The parser is NOT used for parsing here, but the Rhino scanner
-        // calls into the parser for error messages. So we register our own error
-        // handler for the parser and pass it into the tokenizer to handle errors.
-
-        parser = new Parser(compilerEnv, errorReporter);
-        tokenStream = new TokenStream(parser, null, null, "", 0);
-        parser.setTokenStream(tokenStream);
-        tokenStream.setInput(input);
-
-        // Ensure that the parser instance is pointing to the same tokenstream instance
-        // such that its error handler etc. is synchronized
-        parser.setTokenStream(tokenStream);
+        scanner = new CoffeeScriptScanner(input);
     }
 
- 
     public void setState(State state) {
-        tokenStream.fromState(state.getTokenStreamState());
         prevToken = state.getPrevToken();
         prevSpaced = state.isPrevSpaced();
+        indentation = state.indentation;
+        pendingOutdents = state.pendingOutdents;
     }
 
     public State getState() {
-        return new State(tokenStream.toState(), prevToken, prevSpaced, indent);
+        return new State(prevToken, prevSpaced, indentation, pendingOutdents);
     }
 
     @Override
@@ -117,6 +82,10 @@ public class CoffeeScriptLexer extends CoffeeScriptLexerBase<CoffeeScriptTokenId
     }
 
     protected CoffeeScriptTokenId getNextToken() {
+        if (pendingOutdents > 0) {
+            pendingOutdents--;
+            return token(OUTDENT);
+        }
         int c;
         int lineAt = -1;
         while (true) {
@@ -126,6 +95,10 @@ public class CoffeeScriptLexer extends CoffeeScriptLexerBase<CoffeeScriptTokenId
                     input.backup(1);
                     return indentToken(0);
                 }
+                if (indentation != null) {
+                    // Close the blocks left open at the end of input
+                    return indentToken(0);
+                }
                 return null;
             } else if (c == '\n') {
                 lineAt = input.readLength();
@@ -160,15 +133,7 @@ public class CoffeeScriptLexer extends CoffeeScriptLexerBase<CoffeeScriptTokenId
             case '/': {
                 if (inputMatch("//")) {
                     if (balancedInterpolatedString("///")) {
-                        while (true) {
-                            c = input.read();
-                            if (c == 'i' || c == 'm' || c == 'g' || c == 'y') {
-                                continue;
-                            } else {
-                                input.backup(1);
-                                break;
-                            }
-                        }
+                        regexFlags();
                         return token(HEREGEX);
                     } else {
                         return token(ERROR);
@@ -176,19 +141,8 @@ public class CoffeeScriptLexer extends CoffeeScriptLexerBase<CoffeeScriptTokenId
                 } else if (prevToken != null) {
                     Set<CoffeeScriptTokenId> notRegex = prevSpaced ? NOT_REGEX : NOT_SPACED_REGEX;
                     if (!notRegex.contains(prevToken)) {
-                        if (balancedRegex()) {
-                            while (true) {
-                                c = input.read();
-                                if (c == 'i' || c == 'm' || c == 'g' || c == 'y') {
-                                    continue;
-                                } else {
-                                    input.backup(1);
-                                    break;
-                                }
-                            }
-                            if (REGEX_MATCH.matcher(input.readText()).matches()) {
-                                return token(REGEX);
-                            }
+                        if (balancedRegex() && regexFlags() <= 4) {
+                            return token(REGEX);
                         }
                         input.backup(input.readLength() - 1);
                     }
@@ -219,6 +173,10 @@ public class CoffeeScriptLexer extends CoffeeScriptLexerBase<CoffeeScriptTokenId
                 return balancedJSToken() ? token(JSTOKEN) : token(ERROR);
             }
             case '.': {
+                if (!(prevToken == DOT && !prevSpaced) && CoffeeScriptScanner.isDigit(peek())) {
+                    scanner.scanNumber(c);
+                    return token(NUMBER);
+                }
                 return token(DOT);
             }
             case '?': {
@@ -228,214 +186,112 @@ public class CoffeeScriptLexer extends CoffeeScriptLexerBase<CoffeeScriptTokenId
                 return inputMatch(':') ? token(DOUBLE_COLON) : token(COLON);
             }
             case '@': {
-                int read = input.readLength();
-                CoffeeScriptTokenId convertToken = convertToken(nextRhinoToken());
-                if (convertToken == IDENTIFIER) {
+                c = input.read();
+                if (!CoffeeScriptScanner.isIdentifierStart(c)) {
+                    input.backup(1);
+                    return token(AT);
+                }
+                CoffeeScriptScanner.Keyword keyword = scanner.scanWord(c);
+                if (keyword == null || keyword.kind != CoffeeScriptScanner.JS_KEYWORD) {
                     return token(FIELD);
                 }
-                input.backup(input.readLength() - read);
+                input.backup(input.readLength() - 1);
                 return token(AT);
             }
+            case '-': {
+                if (isValueExpected()) {
+                    int next = input.read();
+                    if (CoffeeScriptScanner.isDigit(next) || next == '.' && CoffeeScriptScanner.isDigit(peek())) {
+                        scanner.scanNumber(next);
+                        return token(NUMBER);
+                    }
+                    input.backup(1);
+                }
+                break;
+            }
+            case '\r':
+            case '\u2028':
+            case '\u2029':
+                return token(EOL);
         }
-        input.backup(1);
-        int token = nextRhinoToken();
-        CoffeeScriptTokenId tokenType = getTokenId(token);
-        if (input.readLength() < 1) {
-            if (token == Token.EOF) {
-                return null;
+        if (CoffeeScriptScanner.isIdentifierStart(c)) {
+            CoffeeScriptScanner.Keyword keyword = scanner.scanWord(c);
+            if (keyword == null) {
+                return token(IDENTIFIER);
             }
+            switch (keyword.kind) {
+                case CoffeeScriptScanner.COFFEE_ALIAS:
+                    return PROPERTY_ACCESS.contains(prevToken) ? token(IDENTIFIER) : token(ANY_KEYWORD);
+                case CoffeeScriptScanner.COFFEE_OWN:
+                    return prevToken == FOR ? token(ANY_KEYWORD) : token(IDENTIFIER);
+                default:
+                    return token(keyword.id);
+            }
+        }
+        if (CoffeeScriptScanner.isDigit(c)) {
+            scanner.scanNumber(c);
+            return token(NUMBER);
         }
-        return token(tokenType);
+        return token(scanner.scanOperator(c));
     }
 
-    private CoffeeScriptTokenId indentToken(int lineIndent) {
-        if (lineIndent < indent) {
-            indent = lineIndent;
-            return token(OUTDENT);
-        } else if (lineIndent > indent) {
-            indent = lineIndent;
-            return token(INDENT);
+    private int regexFlags() {
+        int flags = 0;
+        while (true) {
+            int c = input.read();
+            if (c == 'i' || c == 'm' || c == 'g' || c == 'y') {
+                flags++;
+            } else {
+                input.backup(1);
+                return flags;
+            }
         }
-        return token(WHITESPACE);
     }
 
-    private int nextRhinoToken() {
-        try {
-            return tokenStream.getToken() & Parser.CLEAR_TI_MASK;
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        }
+    private int peek() {
+        int c = input.read();
+        input.backup(1);
+        return c;
     }
 
-    private CoffeeScriptTokenId getTokenId(int token) {
-        String text = input.readText().toString();
-        if (COFFEE_KEYWORDS.contains(text)) {
-            return ANY_KEYWORD;
-        }
-        if (COFFEE_ALIASES.contains(text)) {
-            return EnumSet.of(DOT, QDOT, DOUBLE_COLON).contains(prevToken) ? IDENTIFIER : ANY_KEYWORD;
+    private boolean isValueExpected() {
+        if (prevToken == null) {
+            return true;
         }
-        if ("own".equals(text) && prevToken == CoffeeScriptTokenId.FOR) {
-            return ANY_KEYWORD;
-        }
-        return convertToken(token);
+        Set<CoffeeScriptTokenId> valueEnd = prevSpaced ? SPACED_VALUE_END : VALUE_END;
+        return !valueEnd.contains(prevToken);
     }
 
-    private CoffeeScriptTokenId convertToken(int token) {
-        switch (token) {
-            case 65535: // SIGN ERRORS! Why does this happen?
-                return ERROR; // Dont show errors
-            case Token.ERROR://          = -1, // well-known as the only code < EOF
-                return ERROR;
-            case Token.LINE_COMMENT:
-            case Token.BLOCK_COMMENT:
-                return COMMENT;
-            case Token.NEW:
-                return NEW;
-            case Token.DOT:
-                return DOT;
-            case Token.WHITESPACE://     = 153,
-            case Token.EOF://            = 0,  // end of file token - (not EOF_CHAR)
-                return WHITESPACE;
-            case Token.EOL://            = 1,  // end of line
-                return EOL;
-            case Token.FUNCTION:
-                return IDENTIFIER;
-            case Token.THIS:
-                return THIS;
-            case Token.FOR:
-                return FOR;
-            case Token.IF:
-                return IF;
-            case Token.WHILE:
-                return WHILE;
-            case Token.ELSE:
-                return ELSE;
-            case Token.CASE:
-                return CASE;
-            case Token.DEFAULT:
-                return DEFAULT;
-            case Token.BREAK:
-                return BREAK;
-            case Token.SWITCH:
-                return SWITCH;
-            case Token.TRUE:
-            case Token.FALSE:
-                return BOOL;
-            case Token.DO:
-            case Token.WITH:
-            case Token.CATCH:
-            case Token.CONST:
-            case Token.CONTINUE:
-            case Token.DELPROP:
-            case Token.EXPORT:
-
-            case Token.FINALLY:
-            case Token.IMPORT:
-            case Token.IN:
-            case Token.INSTANCEOF:
-            case Token.NULL:
-            case Token.RESERVED:
-            case Token.RETURN:
-            case Token.THROW:
-
-            case Token.TRY:
-            case Token.TYPEOF:
-            case Token.UNDEFINED:
-            case Token.VAR:
-            case Token.VOID:
-            case Token.GOTO:
-            case Token.YIELD:
-            case Token.LET:
-            case Token.DEBUGGER:
-                return ANY_KEYWORD;
-            case Token.NUMBER:
-                return NUMBER;
-            case Token.STRING_BEGIN:
-            case Token.STRING:
-            case Token.STRING_END:
-                return STRING;
-            case Token.DIV:
-                return DIV;
-            case Token.ASSIGN_DIV:
-                return ANY_OPERATOR;
-            case Token.REGEXP_BEGIN:
-            case Token.REGEXP:
-            case Token.REGEXP_END:
-                return REGEX;
-            case Token.IFEQ://           = 6,
-            case Token.IFNE://           = 7,
-            case Token.BITOR://          = 9,
-            case Token.BITXOR://         = 10,
-            case Token.BITAND://         = 11,
-            case Token.EQ://             = 12,
-            case Token.NE://             = 13,
-            case Token.LT://             = 14,
-            case Token.LE://             = 15,
-            case Token.GT://             = 16,
-            case Token.GE://             = 17,
-            case Token.LSH://            = 18,
-            case Token.RSH://            = 19,
-            case Token.URSH://           = 20,
-            case Token.ADD://            = 21,
-            case Token.SUB://            = 22,
-            case Token.MUL://            = 23,
-            case Token.MOD://            = 25,
-            case Token.NOT://            = 26,
-            case Token.BITNOT://         = 27,
-            case Token.POS://            = 28,
-            case Token.SHEQ://           = 45,   // shallow equality (===)
-            case Token.SHNE://           = 46,   // shallow inequality (!==)
-            case Token.ASSIGN://         = 86,  // simple assignment  (=)
-            case Token.ASSIGN_BITOR://   = 87,  // |=
-            case Token.ASSIGN_BITXOR://  = 88,  // ^=
-            case Token.ASSIGN_BITAND://  = 89,  // |=
-            case Token.ASSIGN_LSH://     = 90,  // <<=
-            case Token.ASSIGN_RSH://     = 91,  // >>=
-            case Token.ASSIGN_URSH://    = 92,  // >>>=
-            case Token.ASSIGN_ADD://     = 93,  // +=
-            case Token.ASSIGN_SUB://     = 94,  // -=
-            case Token.ASSIGN_MUL://     = 95,  // *=
-            case Token.ASSIGN_MOD://     = 97;  // %=
-            case Token.OR://             = 100, // logical or (||)
-            case Token.AND://            = 101, // logical and (&&)
-            case Token.HOOK://           = 98, // conditional (?:)
-                return NONUNARY_OP;
-            case Token.COLON://          = 99,
-                return COLON;
-            // I don't want to treat it as a nonunary operator since formatting doesn't
-            // handle it well yet
-            case Token.COMMA://          = 85,  // comma operator
-                return ANY_OPERATOR;
-
-            case Token.NAME://           = 38,
-                return IDENTIFIER;
-            case Token.NEG://            = 29,
-            case Token.INC://            = 102, // increment/decrement (++ --)
-                return INC;
-            case Token.DEC://            = 103,
-                return DEC;
-            case Token.ARRAYLIT://       = 63, // array literal
-            case Token.OBJECTLIT://      = 64, // object literal
-                // XXX What do I do about these?
-                return IDENTIFIER;
-            case Token.SEMI:
-                return SEMI;
-            case Token.LB:
-                return LBRACKET;
-            case Token.RB:
-                return RBRACKET;
-            case Token.LC:
-                return LBRACE;
-            case Token.RC:
-                return RBRACE;
-            case Token.LP:
-                return LPAREN;
-            case Token.RP:
-                return RPAREN;
-            default:
-                return IDENTIFIER;
+    /**
+     * Emits the token for the indentation of a new line. A dedent closing
+     * several blocks yields one OUTDENT for the line's whitespace followed by
+     * an empty OUTDENT per additional closed block. A dedent to a column
+     * between two open blocks moves the inner block out to that column
+     * instead of closing it, so INDENT and OUTDENT tokens always balance.
+     */
+    private CoffeeScriptTokenId indentToken(int lineIndent) {
+        int indent = indentation == null ? 0 : indentation.column;
+        if (lineIndent > indent) {
+            indentation = new Indentation(lineIndent, indentation);
+            return token(INDENT);
+        } else if (lineIndent < indent) {
+            int closed = 0;
+            Indentation top = indentation;
+            while (top != null && top.column > lineIndent) {
+                top = top.outer;
+                closed++;
+            }
+            if ((top == null ? 0 : top.column) < lineIndent) {
+                top = new Indentation(lineIndent, top);
+                closed--;
+            }
+            indentation = top;
+            if (closed > 0) {
+                pendingOutdents = closed - 1;
+                return token(OUTDENT);
+            }
         }
+        return token(WHITESPACE);
     }
 
     private boolean isSpaceCharacter(int c) {
@@ -446,22 +302,39 @@ public class CoffeeScriptLexer extends CoffeeScriptLexerBase<CoffeeScriptTokenId
         }
     }
 
+    /**
+     * Open block, linked to the enclosing one. Nodes are never modified, so
+     * a {@link State} shares the stack instead of copying it.
+     */
+    static final class Indentation {
+
+        final int column;
+        final Indentation outer;
+        final int depth;
+
+        Indentation(int column, Indentation outer) {
+            this.column = column;
+            this.outer = outer;
+            this.depth = outer == null ? 1 : outer.depth + 1;
+        }
+    }
+
     public static class State {
 
-        final Object tokenStreamState;
         final CoffeeScriptTokenId prevToken;
         final boolean prevSpaced;
-        int indent;
+        final Indentation indentation;
+        final int pendingOutdents;
 
-        public State(Object tokenStreamState, CoffeeScriptTokenId prevToken, boolean prevSpaced, int indent) {
-            this.tokenStreamState = tokenStreamState;
-            this.prevToken = prevToken;
-            this.prevSpaced = prevSpaced;
-            this.indent = indent;
+        public State(CoffeeScriptTokenId prevToken, boolean prevSpaced, int indent) {
+            this(prevToken, prevSpaced, indent > 0 ? new Indentation(indent, null) : null, 0);
         }
 
-        public Object getTokenStreamState() {
-            return tokenStreamState;
+        State(CoffeeScriptTokenId prevToken, boolean prevSpaced, Indentation indentation, int pendingOutdents) {
+            this.prevToken = prevToken;
+            this.prevSpaced = prevSpaced;
+            this.indentation = indentation;
+            this.pendingOutdents = pendingOutdents;
         }
 
         public CoffeeScriptTokenId getPrevToken() {
@@ -473,15 +346,41 @@ public class CoffeeScriptLexer extends CoffeeScriptLexerBase<CoffeeScriptTokenId
         }
 
         public int getIndent() {
-            return indent;
+            return indentation == null ? 0 : indentation.column;
         }
-    }
 
-    private static final class RhinoContext extends org.mozilla.nb.javascript.Context {
+        /**
+         * Returns the number of open blocks.
+         */
+        public int getIndentDepth() {
+            return indentation == null ? 0 : indentation.depth;
+        }
 
-        public RhinoContext() {
-            super(ContextFactory.getGlobal());
+        /**
+         * Returns the columns of the open blocks, outermost first.
+         */
+        public int[] getIndents() {
+            int[] indents = new int[getIndentDepth()];
+            for (Indentation i = indentation; i != null; i = i.outer) {
+                indents[i.depth - 1] = i.column;
+            }
+            return indents;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof State)) {
+                return false;
+            }
+            State other = (State) obj;
+            return prevToken == other.prevToken && prevSpaced == other.prevSpaced
+                    && pendingOutdents == other.pendingOutdents
+                    && Arrays.equals(getIndents(), other.getIndents());
         }
-    }
 
+        @Override
+        public int hashCode() {
+            return (prevToken == null ? 0 : prevToken.hashCode()) * 31 + getIndent();
+        }
+    }
 }
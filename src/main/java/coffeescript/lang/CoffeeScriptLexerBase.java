@@ -14,8 +14,7 @@
 
 package coffeescript.lang;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Arrays;
 
 /**
  * 
@@ -24,6 +23,11 @@ import java.util.Deque;
 public abstract class CoffeeScriptLexerBase<T> {
 
 	protected CoffeeScriptLexerInput input;
+	// Delimiter stack shared by the balanced scanners
+	private char[] stack = new char[16];
+	private int depth;
+	// Characters from the token start to the end of the last failed regex scan
+	private int regexFailed;
 
 	public CoffeeScriptLexerBase(CoffeeScriptLexerInput input) {
 		this.input = input;
@@ -32,6 +36,9 @@ public abstract class CoffeeScriptLexerBase<T> {
 	public final T nextToken() {
           input.setTokenOffset();
 		T token = getNextToken();
+		if (regexFailed > 0) {
+			regexFailed -= input.readLength();
+		}
 		return token;
 	}
 
@@ -52,20 +59,22 @@ public abstract class CoffeeScriptLexerBase<T> {
     }
 
     protected boolean balancedInterpolatedString(String last) {
-        Deque<Character> stack = new ArrayDeque<Character>();
+        depth = 0;
+        boolean interpolation = last.charAt(last.length() - 1) == '}';
         while (true) {
-            if (stack.isEmpty() && inputMatch(last)) {
+            if (depth == 0 && inputMatch(last)) {
                 return true;
             }
-            boolean canBeInterpolated = stack.isEmpty() || !stack.isEmpty() && stack.element() == '"';
-            boolean inInterpolation = stack.isEmpty() && last.endsWith("}") || !stack.isEmpty() && stack.element() == '}';
+            char top = depth == 0 ? 0 : stack[depth - 1];
+            boolean canBeInterpolated = depth == 0 || top == '"';
+            boolean inInterpolation = depth == 0 ? interpolation : top == '}';
             int c = input.read();
-            if (!stack.isEmpty() && stack.element() == c) {
-                stack.poll();
-            } else if (canBeInterpolated && c == '#' && inputMatch("{")) {
-                stack.push('}');
+            if (depth > 0 && top == c) {
+                depth--;
+            } else if (canBeInterpolated && c == '#' && inputMatch('{')) {
+                push('}');
             } else if (inInterpolation && (c == '"' || c == '\'' || c == '{')) {
-                stack.push(c == '{' ? '}' : (char) c);
+                push(c == '{' ? '}' : (char) c);
             } else if (c == '\\') {
                 c = input.read();
             } else if (c == CoffeeScriptLexerInput.EOF) {
@@ -74,40 +83,67 @@ public abstract class CoffeeScriptLexerBase<T> {
         }
     }
 
+    /**
+     * Reads the body of a regex literal after the opening slash up to and
+     * including the closing one. A single pass enforces the literal rules:
+     * the body does not start with a space or '=', cannot span lines, and
+     * slashes are allowed only when escaped or inside a character class.
+     * <p>
+     * A candidate starting inside the range of a failed scan reads the same
+     * characters as that scan, only its class state may differ. Both agree
+     * after the next bracket, so the scan fails there instead of reading to
+     * the end of the line again, which kept lines full of "/[" quadratic.
+     */
     protected boolean balancedRegex() {
-        Deque<Character> stack = new ArrayDeque<Character>();
+        int c = input.read();
+        if (c == ' ' || c == '=' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0xB) {
+            input.backup(1);
+            return false;
+        }
+        boolean inFailed = regexFailed > 0;
+        boolean inClass = false;
         while (true) {
-            int c = input.read();
-            if (stack.isEmpty() && c == '/') {
-                return true;
-            }
-            if (!stack.isEmpty() && stack.element() == c) {
-                stack.poll();
-            } else if (c == '[') {
-                stack.push(']');
-            } else if (stack.isEmpty() && c == '\\') {
-                // We don't need to escape things in square braces
-                c = input.read();
-            } else if (c == '\n') {
-                input.backup(1);
-                return false;
-            } else if (c == CoffeeScriptLexerInput.EOF) {
-                return false;
+            switch (c) {
+                case '/':
+                    if (!inClass) {
+                        return true;
+                    }
+                    break;
+                case '[':
+                case ']':
+                    if (inFailed) {
+                        return false;
+                    }
+                    inClass = c == '[';
+                    break;
+                case '\\':
+                    if (input.read() == CoffeeScriptLexerInput.EOF) {
+                        input.backup(1);
+                        regexFailed = input.readLength();
+                        return false;
+                    }
+                    break;
+                case '\n':
+                case CoffeeScriptLexerInput.EOF:
+                    input.backup(1);
+                    regexFailed = input.readLength();
+                    return false;
             }
+            c = input.read();
         }
     }
 
     protected boolean balancedJSToken() {
-        Deque<Character> stack = new ArrayDeque<Character>();
+        depth = 0;
         while (true) {
             int c = input.read();
-            if (stack.isEmpty() && c == '`') {
+            if (depth == 0 && c == '`') {
                 return true;
             }
-            if (!stack.isEmpty() && stack.element() == c) {
-                stack.poll();
+            if (depth > 0 && stack[depth - 1] == c) {
+                depth--;
             } else if (c == '"' || c == '\'') {
-                stack.push((char) c);
+                push((char) c);
             } else if (c == '\\') {
                 c = input.read();
             } else if (c == CoffeeScriptLexerInput.EOF) {
@@ -116,29 +152,34 @@ public abstract class CoffeeScriptLexerBase<T> {
         }
     }
 
+    private void push(char c) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = c;
+    }
+
     protected T token(T token) {
 	return token;
     }
 
     protected boolean inputNotMatch(String string) {
-        int readChars = 0;
-        for (char c : string.toCharArray()) {
-            readChars++;
-            if (input.read() != c) {
-                input.backup(readChars);
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            if (input.read() != string.charAt(i)) {
+                input.backup(i + 1);
                 return true;
             }
         }
-        input.backup(readChars);
+        input.backup(length);
         return false;
     }
 
     protected boolean inputMatch(String string) {
-        int readChars = 0;
-        for (char c : string.toCharArray()) {
-            readChars++;
-            if (input.read() != c) {
-                input.backup(readChars);
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            if (input.read() != string.charAt(i)) {
+                input.backup(i + 1);
                 return false;
             }
         }
@@ -153,4 +194,17 @@ public abstract class CoffeeScriptLexerBase<T> {
         return true;
     }
 
+    /**
+     * Returns true when the string or heregex token between start and end
+     * contains an interpolation, looking inside its delimiters.
+     */
+    static boolean hasInterpolation(CharSequence code, int start, int end) {
+        for (int i = start + 1; i < end - 1; i++) {
+            if (code.charAt(i) == '#' && code.charAt(i + 1) == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
\ No newline at end of file
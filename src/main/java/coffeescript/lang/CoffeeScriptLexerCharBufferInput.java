@@ -0,0 +1,99 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.nio.CharBuffer;
+
+/**
+ * Input over the remaining characters of a {@link CharBuffer}, read in place.
+ * Offsets are absolute indexes into the buffer, so a buffer positioned in the
+ * middle of a text reports the same offsets as the whole text would.
+ *
+ * @author Denis Stepanov
+ */
+public class CoffeeScriptLexerCharBufferInput implements CoffeeScriptLexerInput {
+
+    private final CharBuffer buffer;
+    private final char[] array;
+    private final int arrayOffset, limit;
+    private int index, offset, eofMiss;
+
+    public CoffeeScriptLexerCharBufferInput(char[] chars) {
+        this(CharBuffer.wrap(chars));
+    }
+
+    public CoffeeScriptLexerCharBufferInput(char[] chars, int start, int length) {
+        this(CharBuffer.wrap(chars, start, length));
+    }
+
+    public CoffeeScriptLexerCharBufferInput(CharBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.hasArray()) {
+            this.array = buffer.array();
+            this.arrayOffset = buffer.arrayOffset();
+        } else {
+            this.array = null;
+            this.arrayOffset = 0;
+        }
+        this.index = this.offset = buffer.position();
+        this.limit = buffer.limit();
+    }
+
+    public int read() {
+        if (index >= limit) {
+            eofMiss++;
+            return CoffeeScriptLexerInput.EOF;
+        }
+        if (array != null) {
+            return array[arrayOffset + index++];
+        }
+        return buffer.get(index++);
+    }
+
+    public void backup(int count) {
+        if (eofMiss > 0) {
+            eofMiss -= count;
+            count = eofMiss < 0 ? -eofMiss : 0;
+            if (eofMiss < 0) {
+                eofMiss = 0;
+            }
+        }
+        if (count > 0) {
+            index -= count;
+        }
+    }
+
+    public String readText() {
+        if (array != null) {
+            return new String(array, arrayOffset + offset, index - offset);
+        }
+        char[] chars = new char[index - offset];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = buffer.get(offset + i);
+        }
+        return new String(chars);
+    }
+
+    public int readLength() {
+        return index - offset;
+    }
+
+    public void setTokenOffset() {
+        offset = index;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+}
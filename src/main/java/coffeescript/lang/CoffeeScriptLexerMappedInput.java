@@ -0,0 +1,215 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Input over UTF-8 encoded bytes, decoded on the fly. Lengths and offsets are
+ * counted in UTF-16 units like the other inputs, so characters outside the BMP
+ * are read as surrogate pairs. Malformed sequences read as U+FFFD, one per byte.
+ *
+ * @author Denis Stepanov
+ */
+public class CoffeeScriptLexerMappedInput implements CoffeeScriptLexerInput {
+
+    private static final int REPLACEMENT = 0xFFFD | 1 << 24;
+    //
+    private final ByteBuffer bytes;
+    private final int start, limit;
+    // Next byte to decode and the low surrogate still to be read from the previous one
+    private int position;
+    private char low;
+    private int index, eofMiss;
+    private int tokenPosition, offset;
+    private char tokenLow;
+
+    public CoffeeScriptLexerMappedInput(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.limit = bytes.limit();
+        int begin = bytes.position();
+        if (limit - begin >= 3 && (bytes.get(begin) & 0xFF) == 0xEF && (bytes.get(begin + 1) & 0xFF) == 0xBB && (bytes.get(begin + 2) & 0xFF) == 0xBF) {
+            begin += 3;
+        }
+        this.start = this.position = this.tokenPosition = begin;
+    }
+
+    /**
+     * Maps the whole file read-only. The mapping is limited to 2GB and is
+     * released when the input is garbage collected.
+     */
+    public static CoffeeScriptLexerMappedInput map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return new CoffeeScriptLexerMappedInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public int read() {
+        if (low != 0) {
+            char c = low;
+            low = 0;
+            index++;
+            return c;
+        }
+        if (position >= limit) {
+            eofMiss++;
+            return CoffeeScriptLexerInput.EOF;
+        }
+        int b = bytes.get(position);
+        if (b >= 0) {
+            position++;
+            index++;
+            return b;
+        }
+        int decoded = decode(position);
+        position += decoded >>> 24;
+        index++;
+        int c = decoded & 0xFFFFFF;
+        if (c >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            low = Character.lowSurrogate(c);
+            return Character.highSurrogate(c);
+        }
+        return c;
+    }
+
+    public void backup(int count) {
+        if (eofMiss > 0) {
+            eofMiss -= count;
+            count = eofMiss < 0 ? -eofMiss : 0;
+            if (eofMiss < 0) {
+                eofMiss = 0;
+            }
+        }
+        while (count-- > 0) {
+            index--;
+            if (low != 0) {
+                // Back to the high surrogate, before the whole sequence
+                low = 0;
+                position -= 4;
+                continue;
+            }
+            int previous = previous(position);
+            int c = decode(previous) & 0xFFFFFF;
+            if (c >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                low = Character.lowSurrogate(c);
+            } else {
+                position = previous;
+            }
+        }
+    }
+
+    public String readText() {
+        char[] chars = new char[index - offset];
+        int p = tokenPosition;
+        int i = 0;
+        if (tokenLow != 0 && chars.length > 0) {
+            chars[i++] = tokenLow;
+        }
+        while (i < chars.length) {
+            int decoded = decode(p);
+            p += decoded >>> 24;
+            int c = decoded & 0xFFFFFF;
+            if (c >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                chars[i++] = Character.highSurrogate(c);
+                if (i < chars.length) {
+                    chars[i++] = Character.lowSurrogate(c);
+                }
+            } else {
+                chars[i++] = (char) c;
+            }
+        }
+        return new String(chars);
+    }
+
+    public int readLength() {
+        return index - offset;
+    }
+
+    public void setTokenOffset() {
+        tokenPosition = position;
+        tokenLow = low;
+        offset = index;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Start of the sequence which ends right before the given byte. Consistent
+     * with {@link #decode(int)}: a byte which is not a part of a well-formed
+     * sequence is a sequence of its own.
+     */
+    private int previous(int end) {
+        int p = end - 1;
+        int lead = p;
+        while (lead > start && end - lead < 4 && (bytes.get(lead) & 0xC0) == 0x80) {
+            lead--;
+        }
+        if (lead != p && decode(lead) >>> 24 == end - lead) {
+            return lead;
+        }
+        return p;
+    }
+
+    /**
+     * Decodes the sequence at the given byte.
+     *
+     * @return code point in the lower bits and the sequence length in the top byte
+     */
+    private int decode(int p) {
+        int b = bytes.get(p) & 0xFF;
+        if (b < 0x80) {
+            return b | 1 << 24;
+        }
+        int length, c, min;
+        if (b >= 0xC2 && b <= 0xDF) {
+            length = 2;
+            c = b & 0x1F;
+            min = 0x80;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            length = 3;
+            c = b & 0x0F;
+            min = 0x800;
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            length = 4;
+            c = b & 0x07;
+            min = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+        } else {
+            return REPLACEMENT;
+        }
+        if (p + length > limit) {
+            return REPLACEMENT;
+        }
+        for (int i = 1; i < length; i++) {
+            int next = bytes.get(p + i) & 0xFF;
+            if ((next & 0xC0) != 0x80) {
+                return REPLACEMENT;
+            }
+            c = c << 6 | next & 0x3F;
+        }
+        if (c < min || c > Character.MAX_CODE_POINT || c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            return REPLACEMENT;
+        }
+        return c | length << 24;
+    }
+}
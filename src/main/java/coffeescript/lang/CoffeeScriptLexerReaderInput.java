@@ -0,0 +1,119 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming input over a {@link Reader}. Only the current token and the
+ * characters read ahead of it are kept; everything before the token offset is
+ * dropped when the window needs room, so memory is bounded by the window size
+ * or by the longest token plus {@link CoffeeScriptLexer#MAX_LOOKAHEAD},
+ * whichever is larger.
+ *
+ * @author Denis Stepanov
+ */
+public class CoffeeScriptLexerReaderInput implements CoffeeScriptLexerInput {
+
+    public static final int DEFAULT_WINDOW = 8192;
+    //
+    private final Reader reader;
+    private char[] buffer;
+    // Absolute offset of the first buffered character
+    private int start;
+    private int index, offset, filled, eofMiss;
+    private boolean eof;
+
+    public CoffeeScriptLexerReaderInput(Reader reader) {
+        this(reader, DEFAULT_WINDOW);
+    }
+
+    public CoffeeScriptLexerReaderInput(Reader reader, int window) {
+        this.reader = reader;
+        this.buffer = new char[Math.max(window, 2 * (CoffeeScriptLexer.MAX_LOOKAHEAD + 1))];
+    }
+
+    public int read() {
+        if (index == filled && !fill()) {
+            eofMiss++;
+            return CoffeeScriptLexerInput.EOF;
+        }
+        return buffer[index++];
+    }
+
+    public void backup(int count) {
+        if (eofMiss > 0) {
+            eofMiss -= count;
+            count = eofMiss < 0 ? -eofMiss : 0;
+            if (eofMiss < 0) {
+                eofMiss = 0;
+            }
+        }
+        if (count > index - offset) {
+            throw new IllegalStateException("Cannot backup before the token offset");
+        }
+        index -= count;
+    }
+
+    public String readText() {
+        return new String(buffer, offset, index - offset);
+    }
+
+    public int readLength() {
+        return index - offset;
+    }
+
+    public void setTokenOffset() {
+        offset = index;
+    }
+
+    public int getOffset() {
+        return start + offset;
+    }
+
+    private boolean fill() {
+        if (eof) {
+            return false;
+        }
+        if (filled == buffer.length) {
+            if (offset > 0) {
+                // Drop everything before the current token
+                System.arraycopy(buffer, offset, buffer, 0, filled - offset);
+                start += offset;
+                index -= offset;
+                filled -= offset;
+                offset = 0;
+            } else {
+                char[] grown = new char[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, filled);
+                buffer = grown;
+            }
+        }
+        try {
+            int read;
+            do {
+                read = reader.read(buffer, filled, buffer.length - filled);
+            } while (read == 0);
+            if (read < 0) {
+                eof = true;
+                return false;
+            }
+            filled += read;
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -13,19 +13,31 @@ public class CoffeeScriptLexerStringInput implements CoffeeScriptLexerInput {
         this.limit = text.length();
     }
 
+    /**
+     * Reads the text between start and end. Offsets stay relative to the
+     * whole text.
+     */
+    public CoffeeScriptLexerStringInput(String text, int start, int end) {
+        this.text = text;
+        this.index = this.offset = start;
+        this.limit = end;
+    }
+
     public int read() {
         if (index >= limit) {
             eofMiss++;
             return CoffeeScriptLexerInput.EOF;
         }
-        int c = text.codePointAt(index++);
-        return c;
+        return text.charAt(index++);
     }
 
     public void backup(int count) {
         if (eofMiss > 0) {
             eofMiss -= count;
             count = eofMiss < 0 ? -eofMiss : 0;
+            if (eofMiss < 0) {
+                eofMiss = 0;
+            }
         }
         if (count > 0) {
             index -= count;
@@ -72,6 +84,9 @@ public class CoffeeScriptLexerStringInput implements CoffeeScriptLexerInput {
                 if (eof > 0) {
                     eof -= count;
                     count = eof < 0 ? -eof : 0;
+                    if (eof < 0) {
+                        eof = 0;
+                    }
                 }
                 if (count > 0) {
                     index -= count;
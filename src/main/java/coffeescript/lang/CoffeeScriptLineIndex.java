@@ -0,0 +1,160 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Start offsets of the lines of a lexed text. Lines and columns are zero
+ * based; a line ends after "\n", after "\r\n" or after a lone "\r".
+ *
+ * @author Denis Stepanov
+ */
+public final class CoffeeScriptLineIndex {
+
+    private final int[] starts;
+    private final int count;
+
+    CoffeeScriptLineIndex(int[] starts, int count) {
+        this.starts = starts;
+        this.count = count;
+    }
+
+    public int getLineCount() {
+        return count;
+    }
+
+    public int getLineStart(int line) {
+        return starts[line];
+    }
+
+    /**
+     * Returns the line containing the offset. Offsets past the end of the
+     * text are on the last line.
+     */
+    public int getLine(int offset) {
+        int low = 0, high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public int getColumn(int offset) {
+        return offset - starts[getLine(offset)];
+    }
+
+    int serializedSize() {
+        return 4 + count * 4;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(count);
+        buffer.asIntBuffer().put(starts, 0, count);
+        buffer.position(buffer.position() + count * 4);
+    }
+
+    static CoffeeScriptLineIndex readFrom(ByteBuffer buffer) {
+        int count = CoffeeScriptTokenStream.readCount(buffer, 4);
+        int[] starts = new int[count];
+        buffer.asIntBuffer().get(starts);
+        buffer.position(buffer.position() + count * 4);
+        return new CoffeeScriptLineIndex(starts, count);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CoffeeScriptLineIndex)) {
+            return false;
+        }
+        CoffeeScriptLineIndex other = (CoffeeScriptLineIndex) obj;
+        if (count != other.count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (starts[i] != other.starts[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return count;
+    }
+
+    static final class Builder {
+
+        private int[] starts = new int[64];
+        private int count = 1;
+
+        Builder() {
+        }
+
+        /**
+         * Creates a builder keeping the lines of an index which start at or
+         * before the given offset.
+         */
+        Builder(CoffeeScriptLineIndex index, int offset) {
+            count = index.getLine(offset) + 1;
+            starts = Arrays.copyOf(index.starts, Math.max(64, count * 2));
+        }
+
+        /**
+         * Records the lines starting inside the given range of the text.
+         */
+        void scan(String code, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = code.charAt(i);
+                if (c == '\n' || c == '\r' && (i + 1 == code.length() || code.charAt(i + 1) != '\n')) {
+                    add(i + 1);
+                }
+            }
+        }
+
+        void add(int start) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            starts[count++] = start;
+        }
+
+        void append(Builder other) {
+            for (int i = 1; i < other.count; i++) {
+                add(other.starts[i]);
+            }
+        }
+
+        /**
+         * Adds the lines of an index which start after the given offset,
+         * moved by delta.
+         */
+        void append(CoffeeScriptLineIndex index, int offset, int delta) {
+            for (int i = index.getLine(offset) + 1; i < index.count; i++) {
+                add(index.starts[i] + delta);
+            }
+        }
+
+        CoffeeScriptLineIndex build() {
+            return new CoffeeScriptLineIndex(starts, count);
+        }
+    }
+}
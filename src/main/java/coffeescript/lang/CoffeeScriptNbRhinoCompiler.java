@@ -0,0 +1,176 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.mozilla.nb.javascript.Context;
+import org.mozilla.nb.javascript.ContextFactory;
+import org.mozilla.nb.javascript.Function;
+import org.mozilla.nb.javascript.IdScriptableObject;
+import org.mozilla.nb.javascript.JavaScriptException;
+import org.mozilla.nb.javascript.Script;
+import org.mozilla.nb.javascript.Scriptable;
+import org.mozilla.nb.javascript.ScriptableObject;
+
+/**
+ * Compiler running coffee-script.js on the Rhino fork the lexer uses, so the
+ * external Rhino jar is not needed. The compiler is loaded once into a scope
+ * shared by all compilations, which are therefore serialized.
+ * <p>
+ * The fork predates ES5, the functions newer compilers call are defined by
+ * a prelude when missing.
+ *
+ * @author Denis Stepanov
+ */
+public class CoffeeScriptNbRhinoCompiler implements CoffeeScriptCompiler {
+
+    private final static String COFFEESCRIPT_JS_PATH = "coffeescript/lang/resources/coffee-script.js";
+    private final static String PRELUDE =
+            "if (!Object.create) Object.create = function (o) {\n"
+            + "  function F() {}\n"
+            + "  F.prototype = o;\n"
+            + "  return new F();\n"
+            + "};\n"
+            + "if (!Object.getPrototypeOf) Object.getPrototypeOf = function (o) {\n"
+            + "  return o.__proto__;\n"
+            + "};\n"
+            + "if (!Object.keys) Object.keys = function (o) {\n"
+            + "  var keys = [];\n"
+            + "  for (var key in o) if (Object.prototype.hasOwnProperty.call(o, key)) keys.push(key);\n"
+            + "  return keys;\n"
+            + "};\n"
+            + "if (!String.prototype.trim) String.prototype.trim = function () {\n"
+            + "  return this.replace(/^\\s+|\\s+$/g, '');\n"
+            + "};\n";
+    // Instructions between checks for interruption
+    private final static int INSTRUCTION_THRESHOLD = 10000;
+    private final ContextFactory contextFactory = new StoppableContextFactory();
+    private Scriptable coffeeScript;
+    private static CoffeeScriptNbRhinoCompiler INSTANCE;
+
+    private CoffeeScriptNbRhinoCompiler() {
+    }
+
+    public static synchronized CoffeeScriptNbRhinoCompiler get() {
+        if (INSTANCE == null) {
+            return (INSTANCE = new CoffeeScriptNbRhinoCompiler());
+        }
+        return INSTANCE;
+    }
+
+    public CompilerResult compile(String code, boolean bare) {
+        try {
+            return new CompilerResult(compileCode(code, bare));
+        } catch (StoppedContextException e) {
+            return null; // Canceled
+        } catch (JavaScriptException e) {
+            if (e.getValue() instanceof IdScriptableObject) {
+                IdScriptableObject error = (IdScriptableObject) e.getValue();
+                String message = Context.toString(ScriptableObject.getProperty(error, "message"));
+                Pattern pattern = Pattern.compile("(.*) on line (\\d*)(.*)");
+                Matcher matcher = pattern.matcher(message);
+                if (matcher.matches()) {
+                    return new CompilerResult(new Error(Integer.valueOf(matcher.group(2)), matcher.group(1) + matcher.group(3), message));
+                }
+                // Newer compilers keep the position apart, lines from 0
+                Object location = ScriptableObject.getProperty(error, "location");
+                if (location instanceof Scriptable) {
+                    int line = (int) Context.toNumber(ScriptableObject.getProperty((Scriptable) location, "first_line"));
+                    return new CompilerResult(new Error(line + 1, message, message));
+                }
+                return new CompilerResult(new Error(-1, "", message));
+            }
+            return new CompilerResult(new Error(-1, "", e.getMessage()));
+        }
+    }
+
+    private synchronized String compileCode(String code, boolean bare) {
+        Context ctx = contextFactory.enterContext();
+        try {
+            ctx.setInstructionObserverThreshold(INSTRUCTION_THRESHOLD);
+            ctx.setOptimizationLevel(-1);
+            Scriptable coffeeScript = getCoffeeScript(ctx);
+            Scriptable options = ctx.newObject(coffeeScript);
+            options.put("bare", options, bare);
+            Function compile = (Function) ScriptableObject.getProperty(coffeeScript, "compile");
+            return Context.toString(compile.call(ctx, ScriptableObject.getTopLevelScope(coffeeScript), coffeeScript, new Object[]{code, options}));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private Scriptable getCoffeeScript(Context ctx) {
+        if (coffeeScript == null) {
+            try {
+                // Parsed from a string, the offsets of nodes parsed from a reader
+                // fail the parser's assertions
+                Script script = ctx.compileString(readCoffeeScript(), COFFEESCRIPT_JS_PATH, 1, null);
+                Scriptable scope = ctx.initStandardObjects();
+                ctx.evaluateString(scope, PRELUDE, "prelude", 1, null);
+                script.exec(ctx, scope);
+                coffeeScript = (Scriptable) ScriptableObject.getProperty(scope, "CoffeeScript");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return coffeeScript;
+    }
+
+    private String readCoffeeScript() throws IOException {
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream(COFFEESCRIPT_JS_PATH);
+        Reader reader = new InputStreamReader(inputStream, "UTF-8");
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static class StoppableContextFactory extends ContextFactory {
+
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            // Compilers use reserved words as property names, like "t.double"
+            if (featureIndex == Context.FEATURE_RESERVED_KEYWORD_AS_IDENTIFIER) {
+                return true;
+            }
+            // The compiler creates many small nodes with the same properties
+            if (featureIndex == Context.FEATURE_OBJECT_SHAPES) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+
+        @Override
+        protected void observeInstructionCount(Context cx, int instructionCount) {
+            if (Thread.interrupted()) {
+                throw new StoppedContextException();
+            }
+        }
+    }
+
+    public static class StoppedContextException extends RuntimeException {
+    }
+}
@@ -0,0 +1,445 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static coffeescript.lang.CoffeeScriptTokenId.*;
+
+/**
+ * Symbols of a file read from its tokens, without compiling it: classes,
+ * methods of classes and object literals, fields assigned through "@",
+ * top-level functions and variables, and CommonJS exports. Symbols are kept in
+ * primitive arrays in text order; the parent of a symbol is the class, method
+ * or assignment owning the block it is declared in.
+ *
+ * @author Denis Stepanov
+ */
+public final class CoffeeScriptOutline {
+
+    public enum Kind {
+
+        CLASS, METHOD, FUNCTION, FIELD, VARIABLE, EXPORT
+    }
+    private static final Kind[] KINDS = Kind.values();
+    private final String code;
+    private final byte[] kinds;
+    private final int[] offsets;
+    private final int[] nameOffsets;
+    private final int[] nameLengths;
+    private final int[] parents;
+    private final int count;
+
+    private CoffeeScriptOutline(String code, Extractor extractor) {
+        this.code = code;
+        this.kinds = extractor.kinds;
+        this.offsets = extractor.offsets;
+        this.nameOffsets = extractor.nameOffsets;
+        this.nameLengths = extractor.nameLengths;
+        this.parents = extractor.parents;
+        this.count = extractor.count;
+    }
+
+    public static CoffeeScriptOutline extract(String code) {
+        return extract(code, CoffeeScriptTokenStream.lex(code));
+    }
+
+    public static CoffeeScriptOutline extract(String code, CoffeeScriptTokenStream tokens) {
+        Extractor extractor = new Extractor(code, tokens);
+        extractor.run();
+        return new CoffeeScriptOutline(code, extractor);
+    }
+
+    public int getSymbolCount() {
+        return count;
+    }
+
+    public Kind getKind(int symbol) {
+        return KINDS[kinds[symbol]];
+    }
+
+    public String getName(int symbol) {
+        return code.substring(nameOffsets[symbol], nameOffsets[symbol] + nameLengths[symbol]);
+    }
+
+    /**
+     * Returns the offset of the first token of the declaration.
+     */
+    public int getOffset(int symbol) {
+        return offsets[symbol];
+    }
+
+    public int getNameOffset(int symbol) {
+        return nameOffsets[symbol];
+    }
+
+    public int getNameLength(int symbol) {
+        return nameLengths[symbol];
+    }
+
+    /**
+     * Returns the index of the enclosing symbol, or -1.
+     */
+    public int getParent(int symbol) {
+        return parents[symbol];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            for (int p = parents[i]; p >= 0; p = parents[p]) {
+                sb.append("  ");
+            }
+            sb.append(getKind(i)).append(' ').append(getName(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static final class Extractor {
+
+        private final String code;
+        private final CoffeeScriptTokenStream tokens;
+        private final CoffeeScriptStructureIndex structure;
+        private final int size;
+        private byte[] kinds = new byte[16];
+        private int[] offsets = new int[16];
+        private int[] nameOffsets = new int[16];
+        private int[] nameLengths = new int[16];
+        private int[] parents = new int[16];
+        private int count;
+        // Open blocks: the symbol owning each and the index of its OUTDENT
+        private int[] owners = new int[16];
+        private int[] ends = new int[16];
+        private int depth;
+        // Symbol declared on the current line, owner of a block starting there
+        private int pending = -1;
+        // Target of an assignment whose value starts on the current line
+        private int assignedStart = -1, assignedEnd = -1, assignedOffset;
+        private final Set<String> fields = new HashSet<String>();
+
+        Extractor(String code, CoffeeScriptTokenStream tokens) {
+            this.code = code;
+            this.tokens = tokens;
+            this.structure = tokens.getStructureIndex();
+            this.size = tokens.size();
+        }
+
+        void run() {
+            boolean start = true;
+            int i = 0;
+            while (i < size) {
+                CoffeeScriptTokenId id = tokens.getId(i);
+                switch (id) {
+                    case INDENT:
+                        push(pending, structure.getPartner(i));
+                        newLine();
+                        start = true;
+                        i++;
+                        continue;
+                    case OUTDENT:
+                        while (depth > 0 && ends[depth - 1] == i) {
+                            depth--;
+                        }
+                        newLine();
+                        start = true;
+                        i++;
+                        continue;
+                    case WHITESPACE:
+                    case EOL:
+                        if (id == EOL || isMultiline(i)) {
+                            newLine();
+                            start = true;
+                        }
+                        i++;
+                        continue;
+                    case COMMENT:
+                        i++;
+                        continue;
+                    case SEMI:
+                        start = true;
+                        i++;
+                        continue;
+                }
+                if (id == ANY_KEYWORD && is(i, "class")) {
+                    i = declareClass(i);
+                } else if (start) {
+                    i = statement(i);
+                } else {
+                    i++;
+                }
+                start = false;
+            }
+        }
+
+        private void newLine() {
+            pending = -1;
+            assignedStart = -1;
+        }
+
+        /**
+         * Reads the target and operator of an assignment or object property
+         * starting at the token, and returns the index of the token after it.
+         */
+        private int statement(int first) {
+            CoffeeScriptTokenId id = tokens.getId(first);
+            int last = first;
+            if (id == IDENTIFIER || id == FIELD || id == THIS) {
+                // Property chain such as a.b, a::b or @a.b
+                int next = next(last);
+                while (next >= 0 && (tokens.getId(next) == DOT || tokens.getId(next) == DOUBLE_COLON)
+                        && next(next) >= 0 && tokens.getId(next(next)) == IDENTIFIER) {
+                    last = next(next);
+                    next = next(last);
+                }
+            } else if (id != STRING && id != SIMPLE_STRING && id != NUMBER) {
+                return first + 1;
+            }
+            int operator = next(last);
+            if (operator < 0) {
+                return first + 1;
+            }
+            int value = next(operator);
+            if (tokens.getId(operator) == COLON && last == first) {
+                property(first, value);
+            } else if (tokens.getId(operator) == NONUNARY_OP && is(operator, "=") && id != STRING
+                    && id != SIMPLE_STRING && id != NUMBER) {
+                assignment(first, last, value);
+            } else {
+                return first + 1;
+            }
+            return operator + 1;
+        }
+
+        private void property(int name, int value) {
+            int owner = depth > 0 ? owners[depth - 1] : -1;
+            if (owner < 0 ? depth > 0 : kinds[owner] != Kind.CLASS.ordinal()
+                    && kinds[owner] != Kind.VARIABLE.ordinal() && kinds[owner] != Kind.EXPORT.ordinal()) {
+                return;
+            }
+            int nameOffset = tokens.getOffset(name), nameLength = tokens.getLength(name);
+            CoffeeScriptTokenId id = tokens.getId(name);
+            if (id == STRING || id == SIMPLE_STRING) {
+                nameOffset++;
+                nameLength -= 2;
+            } else if (id == FIELD) {
+                // Class side property
+                nameOffset++;
+                nameLength--;
+            }
+            if (isFunction(value)) {
+                pending = add(Kind.METHOD, tokens.getOffset(name), nameOffset, nameLength, owner);
+                if (owner >= 0 && kinds[owner] == Kind.CLASS.ordinal() && tokens.getId(value) == LPAREN) {
+                    // Constructor and method parameters such as (@name)
+                    parameterFields(value, owner);
+                }
+            } else if (owner >= 0 && kinds[owner] == Kind.CLASS.ordinal()) {
+                add(Kind.FIELD, tokens.getOffset(name), nameOffset, nameLength, owner);
+            }
+        }
+
+        private void assignment(int first, int last, int value) {
+            int offset = tokens.getOffset(first);
+            int end = tokens.getEnd(last);
+            CoffeeScriptTokenId id = tokens.getId(first);
+            if (id == FIELD || id == THIS) {
+                // @name or this.name
+                if (id == FIELD ? last == first : last != first && next(next(first)) == last) {
+                    int nameOffset = id == FIELD ? offset + 1 : tokens.getOffset(last);
+                    field(offset, nameOffset, end - nameOffset, parentClass());
+                }
+                return;
+            }
+            if (isExport(first, last)) {
+                pending = add(Kind.EXPORT, offset, offset, end - offset, innermostOwner());
+                return;
+            }
+            if (value >= 0 && tokens.getId(value) == ANY_KEYWORD && is(value, "class")) {
+                // Named after the target unless the class has a name of its own
+                assignedStart = offset;
+                assignedEnd = end;
+                assignedOffset = offset;
+                return;
+            }
+            boolean function = isFunction(value);
+            if (last != first) {
+                if (function && isPrototype(first, last)) {
+                    pending = add(Kind.METHOD, offset, offset, end - offset, innermostOwner());
+                }
+            } else if (depth == 0) {
+                pending = add(function ? Kind.FUNCTION : Kind.VARIABLE, offset, offset, end - offset, -1);
+            }
+        }
+
+        private void parameterFields(int lparen, int owner) {
+            int rparen = structure.getPartner(lparen);
+            for (int i = lparen + 1; i < rparen; i++) {
+                if (tokens.getId(i) == FIELD) {
+                    field(tokens.getOffset(i), tokens.getOffset(i) + 1, tokens.getLength(i) - 1, owner);
+                }
+            }
+        }
+
+        private void field(int offset, int nameOffset, int nameLength, int owner) {
+            if (owner >= 0 && fields.add(owner + ":" + code.substring(nameOffset, nameOffset + nameLength))) {
+                add(Kind.FIELD, offset, nameOffset, nameLength, owner);
+            }
+        }
+
+        private int declareClass(int keyword) {
+            int name = next(keyword);
+            int owner = innermostOwner();
+            if (name >= 0 && (tokens.getId(name) == IDENTIFIER || tokens.getId(name) == FIELD)) {
+                int last = name;
+                int next = next(last);
+                while (next >= 0 && tokens.getId(next) == DOT && next(next) >= 0 && tokens.getId(next(next)) == IDENTIFIER) {
+                    last = next(next);
+                    next = next(last);
+                }
+                int offset = assignedStart >= 0 ? assignedOffset : tokens.getOffset(keyword);
+                pending = add(Kind.CLASS, offset, tokens.getOffset(name), tokens.getEnd(last) - tokens.getOffset(name), owner);
+                assignedStart = -1;
+                return last + 1;
+            }
+            if (assignedStart >= 0) {
+                pending = add(Kind.CLASS, assignedOffset, assignedStart, assignedEnd - assignedStart, owner);
+                assignedStart = -1;
+            }
+            return keyword + 1;
+        }
+
+        /**
+         * Returns whether the tokens from the index are an optional parameter
+         * list followed by "->" or "=>".
+         */
+        private boolean isFunction(int i) {
+            if (i < 0) {
+                return false;
+            }
+            if (tokens.getId(i) == LPAREN) {
+                int rparen = structure.getPartner(i);
+                if (rparen < 0) {
+                    return false;
+                }
+                i = next(rparen);
+                if (i < 0) {
+                    return false;
+                }
+            }
+            // The lexer splits arrows into two operators
+            int offset = tokens.getOffset(i);
+            return tokens.getId(i) == NONUNARY_OP && tokens.getLength(i) == 1
+                    && (code.charAt(offset) == '-' || code.charAt(offset) == '=')
+                    && i + 1 < size && tokens.getOffset(i + 1) == offset + 1 && is(i + 1, ">");
+        }
+
+        private boolean isExport(int first, int last) {
+            if (last == first) {
+                return false;
+            }
+            int dot = next(first);
+            if (is(first, "exports")) {
+                return true;
+            }
+            return is(first, "module") && tokens.getId(dot) == DOT && is(next(dot), "exports");
+        }
+
+        private boolean isPrototype(int first, int last) {
+            for (int i = first; i < last; i++) {
+                if (tokens.getId(i) == DOUBLE_COLON || tokens.getId(i) == IDENTIFIER && is(i, "prototype")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int innermostOwner() {
+            for (int i = depth - 1; i >= 0; i--) {
+                if (owners[i] >= 0) {
+                    return owners[i];
+                }
+            }
+            return -1;
+        }
+
+        private int parentClass() {
+            for (int i = depth - 1; i >= 0; i--) {
+                if (owners[i] >= 0 && kinds[owners[i]] == Kind.CLASS.ordinal()) {
+                    return owners[i];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the next token on the same line which is not whitespace or a
+         * comment, or -1.
+         */
+        private int next(int i) {
+            for (i++; i < size; i++) {
+                CoffeeScriptTokenId id = tokens.getId(i);
+                if (id == WHITESPACE && !isMultiline(i) || id == COMMENT && !isMultiline(i)) {
+                    continue;
+                }
+                if (id == WHITESPACE || id == COMMENT || id == EOL || id == INDENT || id == OUTDENT || id == SEMI) {
+                    return -1;
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private boolean isMultiline(int i) {
+            int end = tokens.getEnd(i);
+            for (int j = tokens.getOffset(i); j < end; j++) {
+                if (code.charAt(j) == '\n') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean is(int i, String text) {
+            return i >= 0 && tokens.getLength(i) == text.length() && code.startsWith(text, tokens.getOffset(i));
+        }
+
+        private void push(int owner, int end) {
+            if (depth == owners.length) {
+                owners = Arrays.copyOf(owners, depth * 2);
+                ends = Arrays.copyOf(ends, depth * 2);
+            }
+            owners[depth] = owner;
+            ends[depth++] = end;
+        }
+
+        private int add(Kind kind, int offset, int nameOffset, int nameLength, int parent) {
+            if (count == kinds.length) {
+                int capacity = count * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+                nameLengths = Arrays.copyOf(nameLengths, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+            }
+            kinds[count] = (byte) kind.ordinal();
+            offsets[count] = offset;
+            nameOffsets[count] = nameOffset;
+            nameLengths[count] = nameLength;
+            parents[count] = parent;
+            return count++;
+        }
+    }
+}
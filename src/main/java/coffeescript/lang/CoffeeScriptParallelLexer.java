@@ -0,0 +1,210 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Lexes a large text in chunks on several threads.
+ * <p>
+ * Chunks start at lines beginning in column 0. The indentation there closes
+ * every block, so a lexer starting on such a line with the initial state
+ * produces the same tokens as the sequential lexer, unless the first token
+ * depends on the previous one. Lines starting with '/', '-', '.', an alias
+ * keyword or "own" are therefore never used. A chunk is lexed past its end up
+ * to the first token starting at or after it. The boundary holds when that
+ * token starts exactly at the next chunk, meaning the split point was not
+ * inside a string, heredoc, regex or block comment. Otherwise lexing goes on
+ * sequentially from the last good chunk up to the next split point that lines
+ * up.
+ *
+ * @author Denis Stepanov
+ */
+public class CoffeeScriptParallelLexer {
+
+    public static final int MIN_CHUNK_LENGTH = 1 << 16;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    public CoffeeScriptParallelLexer(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    public CoffeeScriptTokenStream lex(String code) {
+        int[] splits = splitPoints(code);
+        int chunks = splits.length - 1;
+        if (chunks < 2) {
+            return CoffeeScriptTokenStream.lex(code);
+        }
+        List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            futures.add(executor.submit(new Chunk(code, splits[i], splits[i + 1])));
+        }
+        CoffeeScriptTokenStream.Builder builder = new CoffeeScriptTokenStream.Builder(code, Math.max(16, code.length() / 4));
+        int i = 0;
+        while (i < chunks) {
+            Chunk chunk = get(futures.get(i));
+            chunk.appendTo(builder);
+            if (chunk.aligned) {
+                i++;
+            } else {
+                i = chunk.continueTo(splits, builder);
+            }
+            if (i < chunks) {
+                // Lets a relexed stream restart at the boundary
+                builder.checkpoint(chunk.boundary);
+            }
+        }
+        for (; i < chunks; i++) {
+            futures.get(i).cancel(false);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the chunk boundaries, including 0 and the text length.
+     */
+    int[] splitPoints(String code) {
+        int length = code.length();
+        int chunks = Math.min(parallelism * 4, length / MIN_CHUNK_LENGTH);
+        int[] splits = new int[Math.max(chunks, 1) + 1];
+        int count = 1;
+        for (int i = 1; i < chunks; i++) {
+            int split = nextSplitPoint(code, Math.max(i * (length / chunks), splits[count - 1] + 1));
+            if (split < 0) {
+                break;
+            }
+            if (split > splits[count - 1] && split < length) {
+                splits[count++] = split;
+            }
+        }
+        splits[count++] = length;
+        int[] result = new int[count];
+        System.arraycopy(splits, 0, result, 0, count);
+        return result;
+    }
+
+    private static int nextSplitPoint(String code, int from) {
+        int length = code.length();
+        for (int i = code.indexOf('\n', from - 1); i >= 0 && i + 1 < length; i = code.indexOf('\n', i + 1)) {
+            if (isSplitLine(code, i + 1)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSplitLine(String code, int start) {
+        char c = code.charAt(start);
+        if (CoffeeScriptScanner.isIdentifierStart(c)) {
+            // The kind of alias keywords and "own" depends on the previous token
+            CoffeeScriptScanner scanner = new CoffeeScriptScanner(new CoffeeScriptLexerStringInput(code, start + 1, code.length()));
+            CoffeeScriptScanner.Keyword keyword = scanner.scanWord(c);
+            return keyword == null || keyword.kind != CoffeeScriptScanner.COFFEE_ALIAS && keyword.kind != CoffeeScriptScanner.COFFEE_OWN;
+        }
+        // Slashes, minus and dots depend on the previous token; quotes, hashes
+        // and closing brackets at column 0 usually end a literal or comment
+        return CoffeeScriptScanner.isDigit(c) || c == '@' || c == '(' || c == '[' || c == '{';
+    }
+
+    private static Chunk get(Future<Chunk> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static final class Chunk implements Callable<Chunk> {
+
+        private final String code;
+        private final int start, end;
+        private final CoffeeScriptTokenStream.Builder tokens;
+        private CoffeeScriptLexerStringInput input;
+        private CoffeeScriptLexer lexer;
+        // First non-empty token at or after the end, null at the end of input
+        private CoffeeScriptTokenId next;
+        // Lexer state before the next token
+        private CoffeeScriptLexer.State boundary;
+        private boolean aligned;
+
+        Chunk(String code, int start, int end) {
+            this.code = code;
+            this.start = start;
+            this.end = end;
+            this.tokens = new CoffeeScriptTokenStream.Builder(code, Math.max(16, (end - start) / 4));
+        }
+
+        public Chunk call() {
+            input = new CoffeeScriptLexerStringInput(code, start, code.length());
+            lexer = new CoffeeScriptLexer(input);
+            while ((next = lexer.nextToken()) != null) {
+                if (input.getOffset() >= end && input.readLength() > 0) {
+                    break;
+                }
+                tokens.add(next, input.getOffset(), input.readLength());
+                if (tokens.size() % CoffeeScriptTokenStream.CHECKPOINT_INTERVAL == 0) {
+                    tokens.checkpoint(lexer.getState());
+                }
+                if (input.getOffset() + input.readLength() >= end) {
+                    boundary = lexer.getState();
+                }
+            }
+            aligned = next == null ? end == code.length() : isClean(end);
+            return this;
+        }
+
+        void appendTo(CoffeeScriptTokenStream.Builder builder) {
+            builder.append(tokens);
+        }
+
+        /**
+         * Lexes sequentially past a boundary that did not line up until a
+         * later one does, and returns the index of the chunk starting there.
+         */
+        int continueTo(int[] splits, CoffeeScriptTokenStream.Builder builder) {
+            int split = 0;
+            while (next != null) {
+                int offset = input.getOffset();
+                while (splits[split] < offset) {
+                    split++;
+                }
+                if (splits[split] == offset && input.readLength() > 0 && isClean(offset)) {
+                    return split;
+                }
+                builder.add(next, offset, input.readLength());
+                if (builder.size() % CoffeeScriptTokenStream.CHECKPOINT_INTERVAL == 0) {
+                    builder.checkpoint(lexer.getState());
+                }
+                if (offset + input.readLength() >= splits[split]) {
+                    boundary = lexer.getState();
+                }
+                next = lexer.nextToken();
+            }
+            return splits.length - 1;
+        }
+
+        private boolean isClean(int offset) {
+            return input.getOffset() == offset && lexer.getState().getIndentDepth() == 0;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import static coffeescript.lang.CoffeeScriptTokenId.*;
+import java.util.Arrays;
+
+/**
+ * Table driven scanner for identifiers, keywords, numbers and operators.
+ * Keywords are resolved through a perfect hash computed while the word is read,
+ * so no text is materialized for the lookup.
+ *
+ * @author Denis Stepanov
+ */
+final class CoffeeScriptScanner {
+
+    /** Always a keyword */
+    static final int COFFEE_KEYWORD = 0;
+    /** Keyword unless used as a property name */
+    static final int COFFEE_ALIAS = 1;
+    /** Keyword only after <code>for</code> */
+    static final int COFFEE_OWN = 2;
+    /** JavaScript keyword or reserved word */
+    static final int JS_KEYWORD = 3;
+    //
+    private static final byte IDENTIFIER_START = 1;
+    private static final byte IDENTIFIER_PART = 2;
+    private static final byte DIGIT = 4;
+    private static final byte HEX_DIGIT = 8;
+    private static final byte[] CHARS = new byte[128];
+
+    static {
+        for (int c = 'a'; c <= 'z'; c++) {
+            CHARS[c] = IDENTIFIER_START | IDENTIFIER_PART;
+            CHARS[Character.toUpperCase(c)] = IDENTIFIER_START | IDENTIFIER_PART;
+        }
+        for (int c = '0'; c <= '9'; c++) {
+            CHARS[c] = IDENTIFIER_PART | DIGIT | HEX_DIGIT;
+        }
+        for (int c = 'a'; c <= 'f'; c++) {
+            CHARS[c] |= HEX_DIGIT;
+            CHARS[Character.toUpperCase(c)] |= HEX_DIGIT;
+        }
+        CHARS['$'] = IDENTIFIER_START | IDENTIFIER_PART;
+        CHARS['_'] = IDENTIFIER_START | IDENTIFIER_PART;
+    }
+    //
+    private static final Keyword[] KEYWORDS = {
+        new Keyword("undefined", ANY_KEYWORD, COFFEE_KEYWORD),
+        new Keyword("then", ANY_KEYWORD, COFFEE_KEYWORD),
+        new Keyword("unless", ANY_KEYWORD, COFFEE_KEYWORD),
+        new Keyword("until", ANY_KEYWORD, COFFEE_KEYWORD),
+        new Keyword("loop", ANY_KEYWORD, COFFEE_KEYWORD),
+        new Keyword("of", ANY_KEYWORD, COFFEE_KEYWORD),
+        new Keyword("by", ANY_KEYWORD, COFFEE_KEYWORD),
+        new Keyword("when", ANY_KEYWORD, COFFEE_KEYWORD),
+        new Keyword("and", ANY_KEYWORD, COFFEE_ALIAS),
+        new Keyword("or", ANY_KEYWORD, COFFEE_ALIAS),
+        new Keyword("is", ANY_KEYWORD, COFFEE_ALIAS),
+        new Keyword("isnt", ANY_KEYWORD, COFFEE_ALIAS),
+        new Keyword("not", ANY_KEYWORD, COFFEE_ALIAS),
+        new Keyword("yes", ANY_KEYWORD, COFFEE_ALIAS),
+        new Keyword("no", ANY_KEYWORD, COFFEE_ALIAS),
+        new Keyword("on", ANY_KEYWORD, COFFEE_ALIAS),
+        new Keyword("off", ANY_KEYWORD, COFFEE_ALIAS),
+        new Keyword("own", ANY_KEYWORD, COFFEE_OWN),
+        new Keyword("new", NEW, JS_KEYWORD),
+        new Keyword("this", THIS, JS_KEYWORD),
+        new Keyword("for", FOR, JS_KEYWORD),
+        new Keyword("if", IF, JS_KEYWORD),
+        new Keyword("else", ELSE, JS_KEYWORD),
+        new Keyword("while", WHILE, JS_KEYWORD),
+        new Keyword("case", CASE, JS_KEYWORD),
+        new Keyword("default", DEFAULT, JS_KEYWORD),
+        new Keyword("break", BREAK, JS_KEYWORD),
+        new Keyword("switch", SWITCH, JS_KEYWORD),
+        new Keyword("true", BOOL, JS_KEYWORD),
+        new Keyword("false", BOOL, JS_KEYWORD),
+        new Keyword("continue", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("delete", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("do", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("export", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("in", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("null", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("return", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("typeof", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("var", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("void", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("with", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("catch", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("const", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("debugger", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("finally", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("import", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("instanceof", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("throw", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("try", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("abstract", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("boolean", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("byte", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("char", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("class", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("double", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("enum", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("extends", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("final", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("float", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("goto", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("implements", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("int", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("interface", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("long", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("native", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("package", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("private", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("protected", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("public", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("short", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("static", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("super", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("synchronized", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("throws", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("transient", ANY_KEYWORD, JS_KEYWORD),
+        new Keyword("volatile", ANY_KEYWORD, JS_KEYWORD)
+    };
+    static final int MAX_KEYWORD_LENGTH;
+    private static final int HASH_BITS = 10;
+    private static final int HASH_MULTIPLIER;
+    private static final Keyword[] HASH_TABLE = new Keyword[1 << HASH_BITS];
+
+    static {
+        int maxLength = 0;
+        for (Keyword keyword : KEYWORDS) {
+            maxLength = Math.max(maxLength, keyword.name.length());
+        }
+        MAX_KEYWORD_LENGTH = maxLength;
+        // Search for a multiplier which maps every keyword to its own slot
+        int multiplier = 0x9E3779B1;
+        search:
+        while (true) {
+            Arrays.fill(HASH_TABLE, null);
+            for (Keyword keyword : KEYWORDS) {
+                int slot = slot(keyword.name.hashCode(), multiplier);
+                if (HASH_TABLE[slot] != null) {
+                    multiplier += 2;
+                    continue search;
+                }
+                HASH_TABLE[slot] = keyword;
+            }
+            break;
+        }
+        HASH_MULTIPLIER = multiplier;
+    }
+    //
+    private final CoffeeScriptLexerInput input;
+    private final char[] word = new char[MAX_KEYWORD_LENGTH];
+    private int wordLength;
+    private int wordHash;
+
+    CoffeeScriptScanner(CoffeeScriptLexerInput input) {
+        this.input = input;
+    }
+
+    static boolean isIdentifierStart(int c) {
+        if (c < 128) {
+            return c >= 0 && (CHARS[c] & IDENTIFIER_START) != 0;
+        }
+        return Character.isJavaIdentifierStart((char) c);
+    }
+
+    static boolean isIdentifierPart(int c) {
+        if (c < 128) {
+            return c >= 0 && (CHARS[c] & IDENTIFIER_PART) != 0;
+        }
+        return Character.isJavaIdentifierPart((char) c);
+    }
+
+    static boolean isDigit(int c) {
+        return c >= 0 && c < 128 && (CHARS[c] & DIGIT) != 0;
+    }
+
+    private static boolean isDigit(int c, int radix) {
+        if (radix == 16) {
+            return c >= 0 && c < 128 && (CHARS[c] & HEX_DIGIT) != 0;
+        }
+        return c >= '0' && c < '0' + radix;
+    }
+
+    private static int slot(int hash, int multiplier) {
+        return (hash * multiplier) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * Reads the rest of a word which starts with the already read character.
+     *
+     * @return keyword matching the word or null
+     */
+    Keyword scanWord(int first) {
+        wordLength = 0;
+        wordHash = 0;
+        int c = first;
+        do {
+            if (wordLength < word.length) {
+                word[wordLength] = (char) c;
+            }
+            wordLength++;
+            wordHash = 31 * wordHash + c;
+            c = input.read();
+        } while (isIdentifierPart(c));
+        input.backup(1);
+        if (wordLength > MAX_KEYWORD_LENGTH) {
+            return null;
+        }
+        Keyword keyword = HASH_TABLE[slot(wordHash, HASH_MULTIPLIER)];
+        if (keyword == null || keyword.name.length() != wordLength) {
+            return null;
+        }
+        for (int i = 0; i < wordLength; i++) {
+            if (keyword.name.charAt(i) != word[i]) {
+                return null;
+            }
+        }
+        return keyword;
+    }
+
+    /**
+     * Reads the rest of a number literal which starts with the already read
+     * digit or with a dot followed by a digit.
+     */
+    void scanNumber(int first) {
+        int c;
+        if (first == '0') {
+            c = input.read();
+            if ((c == 'x' || c == 'X') && scanDigits(16)) {
+                return;
+            } else if ((c == 'b' || c == 'B') && scanDigits(2)) {
+                return;
+            } else if ((c == 'o' || c == 'O') && scanDigits(8)) {
+                return;
+            }
+            input.backup(1);
+        }
+        if (first != '.') {
+            do {
+                c = input.read();
+            } while (isDigit(c));
+            if (c != '.' || !isDigit(input.read())) {
+                input.backup(c == '.' ? 2 : 1);
+                scanExponent();
+                return;
+            }
+        }
+        do {
+            c = input.read();
+        } while (isDigit(c));
+        input.backup(1);
+        scanExponent();
+    }
+
+    private boolean scanDigits(int radix) {
+        int c = input.read();
+        if (!isDigit(c, radix)) {
+            input.backup(1);
+            return false;
+        }
+        do {
+            c = input.read();
+        } while (isDigit(c, radix));
+        input.backup(1);
+        return true;
+    }
+
+    private void scanExponent() {
+        int c = input.read();
+        if (c != 'e' && c != 'E') {
+            input.backup(1);
+            return;
+        }
+        int read = 1;
+        c = input.read();
+        if (c == '+' || c == '-') {
+            read++;
+            c = input.read();
+        }
+        if (!isDigit(c)) {
+            input.backup(read + 1);
+            return;
+        }
+        do {
+            c = input.read();
+        } while (isDigit(c));
+        input.backup(1);
+    }
+
+    /**
+     * Reads the rest of an operator or separator which starts with the already
+     * read character.
+     */
+    CoffeeScriptTokenId scanOperator(int c) {
+        switch (c) {
+            case '(':
+                return LPAREN;
+            case ')':
+                return RPAREN;
+            case '[':
+                return LBRACKET;
+            case ']':
+                return RBRACKET;
+            case '{':
+                return LBRACE;
+            case '}':
+                return RBRACE;
+            case ';':
+                return SEMI;
+            case ',':
+                return ANY_OPERATOR;
+            case '~':
+                return NONUNARY_OP;
+            case '+':
+                if (match('+')) {
+                    return INC;
+                }
+                match('=');
+                return NONUNARY_OP;
+            case '-':
+                if (match('-')) {
+                    return DEC;
+                }
+                match('=');
+                return NONUNARY_OP;
+            case '*':
+            case '%':
+            case '^':
+                match('=');
+                return NONUNARY_OP;
+            case '|':
+            case '&':
+                if (!match(c)) {
+                    match('=');
+                }
+                return NONUNARY_OP;
+            case '=':
+            case '!':
+                if (match('=')) {
+                    match('=');
+                }
+                return NONUNARY_OP;
+            case '<':
+                match('<');
+                match('=');
+                return NONUNARY_OP;
+            case '>':
+                if (match('>')) {
+                    match('>');
+                }
+                match('=');
+                return NONUNARY_OP;
+        }
+        return ERROR;
+    }
+
+    private boolean match(int c) {
+        if (input.read() != c) {
+            input.backup(1);
+            return false;
+        }
+        return true;
+    }
+
+    static final class Keyword {
+
+        final String name;
+        final CoffeeScriptTokenId id;
+        final int kind;
+
+        Keyword(String name, CoffeeScriptTokenId id, int kind) {
+            this.name = name;
+            this.id = id;
+            this.kind = kind;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Matching pairs of a token stream: parentheses, brackets, braces and
+ * INDENT/OUTDENT by token index, and the #{ } boundaries of interpolations by
+ * offset. Each kind of pair is matched on its own, so a stray closing token of
+ * one kind does not break the pairs of the others.
+ *
+ * @author Denis Stepanov
+ */
+public final class CoffeeScriptStructureIndex {
+
+    private static final int KINDS = 4;
+    // Pair kind of each token id, or -1
+    private static final byte[] KIND = new byte[CoffeeScriptTokenId.values().length];
+    private static final boolean[] OPENING = new boolean[KIND.length];
+
+    static {
+        Arrays.fill(KIND, (byte) -1);
+        CoffeeScriptTokenId[][] pairs = {
+            {CoffeeScriptTokenId.LPAREN, CoffeeScriptTokenId.RPAREN},
+            {CoffeeScriptTokenId.LBRACKET, CoffeeScriptTokenId.RBRACKET},
+            {CoffeeScriptTokenId.LBRACE, CoffeeScriptTokenId.RBRACE},
+            {CoffeeScriptTokenId.INDENT, CoffeeScriptTokenId.OUTDENT}
+        };
+        for (int kind = 0; kind < KINDS; kind++) {
+            KIND[pairs[kind][0].ordinal()] = KIND[pairs[kind][1].ordinal()] = (byte) kind;
+            OPENING[pairs[kind][0].ordinal()] = true;
+        }
+    }
+    private final int[] partners;
+    private final int[] parents;
+    private final int[] opens;
+    private final int[] closes;
+    private final int[] byClose;
+    private final int interpolations;
+
+    CoffeeScriptStructureIndex(int[] partners, int[] parents, int[] opens, int[] closes, int interpolations) {
+        this.partners = partners;
+        this.parents = parents;
+        this.opens = opens;
+        this.closes = closes;
+        this.interpolations = interpolations;
+        // Nested interpolations close before the enclosing ones
+        long[] order = new long[interpolations];
+        for (int i = 0; i < interpolations; i++) {
+            order[i] = (long) closes[i] << 32 | i;
+        }
+        Arrays.sort(order);
+        byClose = new int[interpolations];
+        for (int i = 0; i < interpolations; i++) {
+            byClose[i] = (int) order[i];
+        }
+    }
+
+    /**
+     * Returns the index of the token matching an opening or closing token, or
+     * -1 when it has no partner.
+     */
+    public int getPartner(int token) {
+        return partners[token];
+    }
+
+    /**
+     * Returns the index of the innermost unclosed opening token before the
+     * given one, or -1 at the top level. For a matched closing token this is
+     * the token enclosing its pair.
+     */
+    public int getEnclosing(int token) {
+        int partner = partners[token];
+        if (partner >= 0 && partner < token) {
+            return parents[partner];
+        }
+        return parents[token];
+    }
+
+    public int getInterpolationCount() {
+        return interpolations;
+    }
+
+    /**
+     * Returns the offset of the "#{" opening the interpolation.
+     */
+    public int getInterpolationStart(int index) {
+        return opens[index];
+    }
+
+    /**
+     * Returns the offset of the "}" closing the interpolation.
+     */
+    public int getInterpolationEnd(int index) {
+        return closes[index];
+    }
+
+    /**
+     * Returns the offset of the boundary matching the "#{" or "}" of an
+     * interpolation at the given offset, or -1.
+     */
+    public int getInterpolationPartner(int offset) {
+        int i = Arrays.binarySearch(opens, 0, interpolations, offset);
+        if (i >= 0) {
+            return closes[i];
+        }
+        int low = 0, high = interpolations - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int close = closes[byClose[mid]];
+            if (close < offset) {
+                low = mid + 1;
+            } else if (close > offset) {
+                high = mid - 1;
+            } else {
+                return opens[byClose[mid]];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Pairs of tokens are not stored, they are matched again from the token
+     * ids when reading.
+     */
+    int serializedSize() {
+        return 4 + interpolations * 8;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(interpolations);
+        buffer.asIntBuffer().put(opens, 0, interpolations);
+        buffer.position(buffer.position() + interpolations * 4);
+        buffer.asIntBuffer().put(closes, 0, interpolations);
+        buffer.position(buffer.position() + interpolations * 4);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CoffeeScriptStructureIndex)) {
+            return false;
+        }
+        CoffeeScriptStructureIndex other = (CoffeeScriptStructureIndex) obj;
+        if (interpolations != other.interpolations) {
+            return false;
+        }
+        for (int i = 0; i < interpolations; i++) {
+            if (opens[i] != other.opens[i] || closes[i] != other.closes[i]) {
+                return false;
+            }
+        }
+        // Pairs are equal whenever the token ids are
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return interpolations;
+    }
+
+    static final class Builder {
+
+        private int[] partners;
+        private int[] parents;
+        private int size;
+        private final int[][] stacks = new int[KINDS][16];
+        private final int[] depths = new int[KINDS];
+        // Innermost unclosed opening token, linked through parents
+        private int top = -1;
+        private int[] opens = new int[16];
+        private int[] closes = new int[16];
+        private int interpolations;
+
+        Builder(int capacity) {
+            partners = new int[capacity];
+            parents = new int[capacity];
+        }
+
+        /**
+         * Creates a builder continuing after the first tokens of an index, which
+         * must have more tokens than that.
+         */
+        Builder(CoffeeScriptStructureIndex index, byte[] ids, int tokens, int capacity, int interpolationsBefore) {
+            partners = Arrays.copyOf(index.partners, Math.max(tokens + 16, capacity));
+            parents = Arrays.copyOf(index.parents, partners.length);
+            size = tokens;
+            if (tokens > 0) {
+                // Openers closed at or after the first token are open again
+                int open = index.parents[tokens];
+                int[] chain = new int[16];
+                int length = 0;
+                for (int i = open; i >= 0; i = parents[i]) {
+                    if (partners[i] < 0 || partners[i] >= tokens) {
+                        if (length == chain.length) {
+                            chain = Arrays.copyOf(chain, length * 2);
+                        }
+                        chain[length++] = i;
+                    }
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    int opener = chain[i];
+                    partners[opener] = -1;
+                    push(KIND[ids[opener]], opener);
+                }
+                top = length > 0 ? chain[0] : -1;
+            }
+            opens = Arrays.copyOf(index.opens, Math.max(16, interpolationsBefore * 2));
+            closes = Arrays.copyOf(index.closes, opens.length);
+            interpolations = interpolationsBefore;
+        }
+
+        void add(byte id) {
+            if (size == partners.length) {
+                partners = Arrays.copyOf(partners, size * 2);
+                parents = Arrays.copyOf(parents, size * 2);
+            }
+            int token = size++;
+            partners[token] = -1;
+            parents[token] = top;
+            int kind = KIND[id];
+            if (kind < 0) {
+                return;
+            }
+            if (OPENING[id]) {
+                push(kind, token);
+                top = token;
+            } else if (depths[kind] > 0) {
+                int opener = stacks[kind][--depths[kind]];
+                partners[opener] = token;
+                partners[token] = opener;
+                // Drop the closed openers from the top of the chain
+                while (top >= 0 && partners[top] >= 0) {
+                    top = parents[top];
+                }
+            }
+        }
+
+        private void push(int kind, int token) {
+            int[] stack = stacks[kind];
+            if (depths[kind] == stack.length) {
+                stacks[kind] = stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[depths[kind]++] = token;
+        }
+
+        void addInterpolation(int open, int close) {
+            if (interpolations == opens.length) {
+                opens = Arrays.copyOf(opens, interpolations * 2);
+                closes = Arrays.copyOf(closes, interpolations * 2);
+            }
+            // Keep the starts sorted, nested interpolations are found last
+            int i = interpolations++;
+            while (i > 0 && opens[i - 1] > open) {
+                opens[i] = opens[i - 1];
+                closes[i] = closes[i - 1];
+                i--;
+            }
+            opens[i] = open;
+            closes[i] = close;
+        }
+
+        void appendInterpolations(Builder other, int delta) {
+            for (int i = 0; i < other.interpolations; i++) {
+                addInterpolation(other.opens[i] + delta, other.closes[i] < 0 ? -1 : other.closes[i] + delta);
+            }
+        }
+
+        void appendInterpolations(CoffeeScriptStructureIndex other, int from, int delta) {
+            for (int i = from; i < other.interpolations; i++) {
+                addInterpolation(other.opens[i] + delta, other.closes[i] < 0 ? -1 : other.closes[i] + delta);
+            }
+        }
+
+        void readInterpolations(ByteBuffer buffer) {
+            interpolations = CoffeeScriptTokenStream.readCount(buffer, 8);
+            opens = new int[Math.max(16, interpolations)];
+            closes = new int[opens.length];
+            buffer.asIntBuffer().get(opens, 0, interpolations);
+            buffer.position(buffer.position() + interpolations * 4);
+            buffer.asIntBuffer().get(closes, 0, interpolations);
+            buffer.position(buffer.position() + interpolations * 4);
+        }
+
+        CoffeeScriptStructureIndex build() {
+            return new CoffeeScriptStructureIndex(partners, parents, opens, closes, interpolations);
+        }
+    }
+
+    /**
+     * Returns the number of interpolations starting before the offset.
+     */
+    int countInterpolationsBefore(int offset) {
+        int low = 0, high = interpolations;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (opens[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
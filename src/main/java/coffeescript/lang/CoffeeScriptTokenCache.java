@@ -0,0 +1,205 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of token streams keyed by a 128-bit hash and the length of the
+ * lexed text. The memory cache is bounded by the serialized size of the
+ * cached streams and evicts the least recently used ones. An optional directory keeps the
+ * streams on disk; they are read back through a memory-mapped file.
+ *
+ * @author Denis Stepanov
+ */
+public class CoffeeScriptTokenCache {
+
+    // Bump when the lexer output or the file layout changes
+    private static final int VERSION = 3;
+    private static final int MAGIC = 0xC0FFEE00 | VERSION;
+    private final Map<String, CoffeeScriptTokenStream> streams = new LinkedHashMap<String, CoffeeScriptTokenStream>(16, 0.75f, true);
+    private final long maxSize;
+    private final File directory;
+    private long size;
+
+    public CoffeeScriptTokenCache(long maxSize) {
+        this(maxSize, null);
+    }
+
+    public CoffeeScriptTokenCache(long maxSize, File directory) {
+        this.maxSize = maxSize;
+        this.directory = directory;
+        if (directory != null) {
+            directory.mkdirs();
+        }
+    }
+
+    /**
+     * Returns the token stream of the given text, lexing it only when neither
+     * the memory nor the disk cache has it.
+     */
+    public CoffeeScriptTokenStream get(String code) {
+        String key = key(code);
+        CoffeeScriptTokenStream stream;
+        synchronized (this) {
+            stream = streams.get(key);
+        }
+        if (stream != null) {
+            return stream;
+        }
+        if (directory != null) {
+            stream = load(new File(directory, key));
+        }
+        if (stream == null) {
+            stream = CoffeeScriptTokenStream.lex(code);
+            if (directory != null) {
+                store(new File(directory, key), stream);
+            }
+        }
+        put(key, stream);
+        return stream;
+    }
+
+    public synchronized int size() {
+        return streams.size();
+    }
+
+    public synchronized void clear() {
+        streams.clear();
+        size = 0;
+    }
+
+    private synchronized void put(String key, CoffeeScriptTokenStream stream) {
+        CoffeeScriptTokenStream old = streams.put(key, stream);
+        if (old != null) {
+            size -= old.serializedSize();
+        }
+        size += stream.serializedSize();
+        Iterator<CoffeeScriptTokenStream> iterator = streams.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().serializedSize();
+            iterator.remove();
+        }
+    }
+
+    private CoffeeScriptTokenStream load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+                    return null;
+                }
+                return CoffeeScriptTokenStream.readFrom(buffer);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return null; // Lex again
+        } catch (RuntimeException e) {
+            return null; // Truncated or corrupted file
+        }
+    }
+
+    private void store(File file, CoffeeScriptTokenStream stream) {
+        File temp = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(4 + stream.serializedSize());
+            buffer.putInt(MAGIC);
+            stream.writeTo(buffer);
+            buffer.flip();
+            RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                raf.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete(); // The disk cache is best effort
+        }
+    }
+
+    /**
+     * Returns a 128-bit MurmurHash3 of the text, four chars per block. It is
+     * several times faster than a cryptographic digest, which would otherwise
+     * dominate the cost of a cache hit.
+     */
+    static String key(String code) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        int length = code.length();
+        long h1 = length, h2 = length;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long k1 = block(code, i);
+            long k2 = block(code, i + 4);
+            k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+            k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+        long k1 = 0, k2 = 0;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            if (shift < 64) {
+                k1 |= (long) code.charAt(i) << shift;
+            } else {
+                k2 |= (long) code.charAt(i) << (shift - 64);
+            }
+        }
+        k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+        k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+        h1 ^= length; h2 ^= length;
+        h1 += h2; h2 += h1;
+        h1 = mix(h1); h2 = mix(h2);
+        h1 += h2; h2 += h1;
+        return hex(h1) + hex(h2) + Integer.toHexString(length);
+    }
+
+    private static long block(String code, int i) {
+        return code.charAt(i) | (long) code.charAt(i + 1) << 16
+                | (long) code.charAt(i + 2) << 32 | (long) code.charAt(i + 3) << 48;
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static String hex(long value) {
+        String hex = Long.toHexString(value);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+}
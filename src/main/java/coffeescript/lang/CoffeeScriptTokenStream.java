@@ -0,0 +1,459 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact token stream of a lexed text: token ids, offsets and lengths kept
+ * in primitive arrays.
+ *
+ * @author Denis Stepanov
+ */
+public final class CoffeeScriptTokenStream {
+
+    private static final CoffeeScriptTokenId[] IDS = CoffeeScriptTokenId.values();
+    // Tokens which may span lines, the others are never scanned for line breaks
+    private static final boolean[] MULTILINE = new boolean[IDS.length];
+
+    static {
+        for (CoffeeScriptTokenId id : IDS) {
+            CoffeeScriptTokenId.Category category = id.getCategory();
+            MULTILINE[id.ordinal()] = category == CoffeeScriptTokenId.Category.WHITESPACE_CAT
+                    || category == CoffeeScriptTokenId.Category.STRING_CAT
+                    || category == CoffeeScriptTokenId.Category.REGEXP_CAT
+                    || category == CoffeeScriptTokenId.Category.COMMENT_CAT
+                    || category == CoffeeScriptTokenId.Category.ERROR_CAT;
+        }
+    }
+    // Tokens between two recorded lexer states
+    static final int CHECKPOINT_INTERVAL = 512;
+    private final byte[] ids;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int size;
+    private final CoffeeScriptLineIndex lines;
+    private final CoffeeScriptStructureIndex structure;
+    // Lexer states before the tokens at the given indexes
+    private final int[] checkpoints;
+    private final CoffeeScriptLexer.State[] states;
+    private final int checkpointCount;
+
+    CoffeeScriptTokenStream(Builder builder) {
+        this.ids = builder.ids;
+        this.offsets = builder.offsets;
+        this.lengths = builder.lengths;
+        this.size = builder.size;
+        this.lines = builder.lines.build();
+        this.structure = builder.structure.build();
+        this.checkpoints = builder.checkpoints;
+        this.states = builder.states;
+        this.checkpointCount = builder.checkpointCount;
+    }
+
+    public static CoffeeScriptTokenStream lex(String code) {
+        CoffeeScriptLexerStringInput input = new CoffeeScriptLexerStringInput(code);
+        CoffeeScriptLexer lexer = new CoffeeScriptLexer(input);
+        Builder builder = new Builder(code, Math.max(16, code.length() / 4));
+        CoffeeScriptTokenId id;
+        while ((id = lexer.nextToken()) != null) {
+            builder.add(id, input.getOffset(), input.readLength());
+            if (builder.size % CHECKPOINT_INTERVAL == 0) {
+                builder.checkpoint(lexer.getState());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the token stream of the text after an edit. Lexing restarts at
+     * the last recorded lexer state safely before the edit and stops as soon
+     * as it reaches a recorded state after the edit; the tokens, lines and
+     * pairs beyond it are reused. Streams read by {@link #readFrom(ByteBuffer)}
+     * carry no lexer states, so the whole text is lexed again.
+     *
+     * @param code the text after the edit
+     * @param offset start of the edit
+     * @param removedLength number of characters removed at the offset
+     * @param insertedLength number of characters inserted at the offset
+     */
+    public CoffeeScriptTokenStream relex(String code, int offset, int removedLength, int insertedLength) {
+        int delta = insertedLength - removedLength;
+        int editEnd = offset + removedLength;
+        // Tokens before the restart point never read past the end of their
+        // line or MAX_LOOKAHEAD characters
+        int lineStart = lines.getLineStart(lines.getLine(offset));
+        int checkpoint = checkpointCount - 1;
+        while (checkpoint >= 0 && (checkpoints[checkpoint] >= size
+                || offsets[checkpoints[checkpoint]] > lineStart
+                || offsets[checkpoints[checkpoint]] + CoffeeScriptLexer.MAX_LOOKAHEAD >= offset)) {
+            checkpoint--;
+        }
+        int first = checkpoint >= 0 ? checkpoints[checkpoint] : 0;
+        int start = checkpoint >= 0 ? offsets[first] : 0;
+        Builder builder = new Builder(code, this, first, checkpoint + 1);
+        CoffeeScriptLexerStringInput input = new CoffeeScriptLexerStringInput(code, start, code.length());
+        CoffeeScriptLexer lexer = new CoffeeScriptLexer(input);
+        if (checkpoint >= 0) {
+            lexer.setState(states[checkpoint]);
+        }
+        int next = checkpoint + 1;
+        int position = start;
+        while (true) {
+            // Tokens after a recorded state past the edit do not change
+            while (next < checkpointCount && checkpoints[next] < size
+                    && (offsets[checkpoints[next]] < editEnd || offsets[checkpoints[next]] + delta < position)) {
+                next++;
+            }
+            if (next < checkpointCount && checkpoints[next] < size
+                    && offsets[checkpoints[next]] + delta == position && lexer.getState().equals(states[next])) {
+                builder.append(this, checkpoints[next], next, delta);
+                break;
+            }
+            CoffeeScriptTokenId id = lexer.nextToken();
+            if (id == null) {
+                break;
+            }
+            builder.add(id, input.getOffset(), input.readLength());
+            if (builder.size % CHECKPOINT_INTERVAL == 0) {
+                builder.checkpoint(lexer.getState());
+            }
+            position = input.getOffset() + input.readLength();
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public CoffeeScriptTokenId getId(int index) {
+        return IDS[ids[index]];
+    }
+
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public int getEnd(int index) {
+        return offsets[index] + lengths[index];
+    }
+
+    /**
+     * Returns the line index recorded while lexing.
+     */
+    public CoffeeScriptLineIndex getLineIndex() {
+        return lines;
+    }
+
+    /**
+     * Returns the matching pairs recorded while lexing.
+     */
+    public CoffeeScriptStructureIndex getStructureIndex() {
+        return structure;
+    }
+
+    /**
+     * Returns the index of the first token of the line, which is the first
+     * token ending after the line start, or {@link #size()} when there is
+     * none. The tokens of the line end before the first token of the next
+     * line.
+     */
+    public int getFirstToken(int line) {
+        int lineStart = lines.getLineStart(line);
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] + lengths[mid] <= lineStart && offsets[mid] < lineStart) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the non-empty token containing the given offset,
+     * or -1 when the offset is outside the stream.
+     */
+    public int tokenAt(int offset) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] + lengths[mid] <= offset) {
+                low = mid + 1;
+            } else if (offsets[mid] > offset) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of bytes written by {@link #writeTo(ByteBuffer)}.
+     */
+    public int serializedSize() {
+        return 4 + size * 9 + lines.serializedSize() + structure.serializedSize();
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(size);
+        buffer.put(ids, 0, size);
+        buffer.asIntBuffer().put(offsets, 0, size);
+        buffer.position(buffer.position() + size * 4);
+        buffer.asIntBuffer().put(lengths, 0, size);
+        buffer.position(buffer.position() + size * 4);
+        lines.writeTo(buffer);
+        structure.writeTo(buffer);
+    }
+
+    public static CoffeeScriptTokenStream readFrom(ByteBuffer buffer) {
+        int size = readCount(buffer, 9);
+        Builder builder = new Builder(null, size);
+        buffer.get(builder.ids, 0, size);
+        buffer.asIntBuffer().get(builder.offsets, 0, size);
+        buffer.position(buffer.position() + size * 4);
+        buffer.asIntBuffer().get(builder.lengths, 0, size);
+        buffer.position(buffer.position() + size * 4);
+        builder.lines = new CoffeeScriptLineIndex.Builder(CoffeeScriptLineIndex.readFrom(buffer), Integer.MAX_VALUE);
+        for (int i = 0; i < size; i++) {
+            byte id = builder.ids[i];
+            if (id < 0 || id >= IDS.length) {
+                throw new IllegalArgumentException("Unknown token id " + id);
+            }
+            builder.structure.add(id);
+        }
+        builder.structure.readInterpolations(buffer);
+        builder.size = size;
+        return builder.build();
+    }
+
+    /**
+     * Reads the count of a serialized array, checking that the buffer holds
+     * its items before they are allocated, so corrupted counts fail instead
+     * of running out of memory.
+     */
+    static int readCount(ByteBuffer buffer, int itemSize) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / itemSize) {
+            throw new IllegalArgumentException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CoffeeScriptTokenStream)) {
+            return false;
+        }
+        CoffeeScriptTokenStream other = (CoffeeScriptTokenStream) obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (ids[i] != other.ids[i] || offsets[i] != other.offsets[i] || lengths[i] != other.lengths[i]) {
+                return false;
+            }
+        }
+        return lines.equals(other.lines) && structure.equals(other.structure);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = size;
+        for (int i = 0; i < size; i++) {
+            hash = hash * 31 + ids[i];
+            hash = hash * 31 + offsets[i];
+        }
+        return hash;
+    }
+
+    public static final class Builder {
+
+        private final String code;
+        private CoffeeScriptLineIndex.Builder lines;
+        private final CoffeeScriptStructureIndex.Builder structure;
+        private byte[] ids;
+        private int[] offsets;
+        private int[] lengths;
+        private int size;
+        private int[] checkpoints = new int[16];
+        private CoffeeScriptLexer.State[] states = new CoffeeScriptLexer.State[16];
+        private int checkpointCount;
+
+        /**
+         * Creates a builder recording the lines and pairs of the tokens added
+         * from the given text.
+         */
+        public Builder(String code) {
+            this(code, 64);
+        }
+
+        public Builder(String code, int capacity) {
+            this.code = code;
+            ids = new byte[capacity];
+            offsets = new int[capacity];
+            lengths = new int[capacity];
+            lines = new CoffeeScriptLineIndex.Builder();
+            structure = new CoffeeScriptStructureIndex.Builder(capacity);
+        }
+
+        /**
+         * Creates a builder over an edited text, starting with the tokens and
+         * lexer states of a stream before the given token.
+         */
+        Builder(String code, CoffeeScriptTokenStream stream, int tokens, int checkpointCount) {
+            this.code = code;
+            int capacity = Math.max(stream.size + 16, 64);
+            ids = Arrays.copyOf(stream.ids, capacity);
+            offsets = Arrays.copyOf(stream.offsets, capacity);
+            lengths = Arrays.copyOf(stream.lengths, capacity);
+            size = tokens;
+            int start = tokens < stream.size ? stream.offsets[tokens] : Integer.MAX_VALUE;
+            lines = new CoffeeScriptLineIndex.Builder(stream.lines, start);
+            structure = new CoffeeScriptStructureIndex.Builder(stream.structure, stream.ids, tokens, capacity,
+                    stream.structure.countInterpolationsBefore(start));
+            checkpoints = Arrays.copyOf(stream.checkpoints, Math.max(16, stream.checkpointCount));
+            states = Arrays.copyOf(stream.states, checkpoints.length);
+            this.checkpointCount = checkpointCount;
+        }
+
+        public Builder add(CoffeeScriptTokenId id, int offset, int length) {
+            int ordinal = id.ordinal();
+            if (MULTILINE[ordinal]) {
+                lines.scan(code, offset, offset + length);
+            }
+            if ((id == CoffeeScriptTokenId.STRING || id == CoffeeScriptTokenId.HEREGEX)
+                    && CoffeeScriptLexerBase.hasInterpolation(code, offset, offset + length)) {
+                interpolations(offset, offset + length, id == CoffeeScriptTokenId.HEREGEX);
+            }
+            put((byte) ordinal, offset, length);
+            return this;
+        }
+
+        private void put(byte id, int offset, int length) {
+            if (size == ids.length) {
+                int capacity = size + (size >> 1) + 1;
+                ids = Arrays.copyOf(ids, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            ids[size] = id;
+            offsets[size] = offset;
+            lengths[size] = length;
+            size++;
+            structure.add(id);
+        }
+
+        /**
+         * Records the lexer state before the next token.
+         */
+        void checkpoint(CoffeeScriptLexer.State state) {
+            checkpoint(size, state);
+        }
+
+        private void checkpoint(int token, CoffeeScriptLexer.State state) {
+            if (checkpointCount == checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+                states = Arrays.copyOf(states, checkpointCount * 2);
+            }
+            checkpoints[checkpointCount] = token;
+            states[checkpointCount++] = state;
+        }
+
+        /**
+         * Records the interpolations of a string or heregex token, including
+         * those of strings nested in them.
+         */
+        private void interpolations(int start, int end, boolean regex) {
+            CoffeeScriptLexerStringInput input = new CoffeeScriptLexerStringInput(code, start, end);
+            CoffeeScriptLexerBase<?> lexer = regex ? new CoffeeScriptRegexpLexer(input) : new CoffeeScriptStringLexer(input);
+            int open = -1;
+            Object id;
+            while ((id = lexer.nextToken()) != null) {
+                int offset = input.getOffset(), tokenEnd = offset + input.readLength();
+                if (id == CoffeeScriptStringTokenId.EMBEDDED || id == CoffeeScriptRegexpTokenId.EMBEDDED) {
+                    CoffeeScriptLexerStringInput embedded = new CoffeeScriptLexerStringInput(code, offset, tokenEnd);
+                    CoffeeScriptLexer embeddedLexer = new CoffeeScriptLexer(embedded);
+                    CoffeeScriptTokenId token;
+                    while ((token = embeddedLexer.nextToken()) != null) {
+                        int nested = embedded.getOffset(), nestedEnd = nested + embedded.readLength();
+                        if ((token == CoffeeScriptTokenId.STRING || token == CoffeeScriptTokenId.HEREGEX)
+                                && CoffeeScriptLexerBase.hasInterpolation(code, nested, nestedEnd)) {
+                            interpolations(nested, nestedEnd, token == CoffeeScriptTokenId.HEREGEX);
+                        }
+                    }
+                    continue;
+                }
+                if (open >= 0 && code.charAt(offset) == '}') {
+                    structure.addInterpolation(open, offset);
+                    open = -1;
+                }
+                if (tokenEnd - offset >= 2 && code.charAt(tokenEnd - 2) == '#' && code.charAt(tokenEnd - 1) == '{') {
+                    open = tokenEnd - 2;
+                }
+            }
+        }
+
+        /**
+         * Adds the tokens, lines, pairs and lexer states of a builder over the
+         * following part of the same text.
+         */
+        public Builder append(Builder other) {
+            int tokenDelta = size;
+            for (int i = 0; i < other.size; i++) {
+                put(other.ids[i], other.offsets[i], other.lengths[i]);
+            }
+            lines.append(other.lines);
+            structure.appendInterpolations(other.structure, 0);
+            for (int i = 0; i < other.checkpointCount; i++) {
+                checkpoint(other.checkpoints[i] + tokenDelta, other.states[i]);
+            }
+            return this;
+        }
+
+        /**
+         * Adds the tokens of a stream from the given token and lexer state on,
+         * moved by delta.
+         */
+        void append(CoffeeScriptTokenStream stream, int token, int checkpoint, int delta) {
+            int tokenDelta = size - token;
+            int start = stream.offsets[token];
+            for (int i = token; i < stream.size; i++) {
+                put(stream.ids[i], stream.offsets[i] + delta, stream.lengths[i]);
+            }
+            lines.append(stream.lines, start, delta);
+            structure.appendInterpolations(stream.structure, stream.structure.countInterpolationsBefore(start), delta);
+            for (int i = checkpoint; i < stream.checkpointCount; i++) {
+                checkpoint(stream.checkpoints[i] + tokenDelta, stream.states[i]);
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public CoffeeScriptTokenStream build() {
+            return new CoffeeScriptTokenStream(this);
+        }
+    }
+}
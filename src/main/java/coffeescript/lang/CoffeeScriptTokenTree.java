@@ -0,0 +1,205 @@
+// Copyright 2011 Denis Stepanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package coffeescript.lang;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Token tree of a CoffeeScript text covering its embedded languages:
+ * interpolated strings, heregexes and the JavaScript of backtick blocks.
+ * Embedded regions are lexed only when their children are first requested.
+ *
+ * @author Denis Stepanov
+ */
+public class CoffeeScriptTokenTree {
+
+    private final String code;
+    private final List<Node> tokens;
+
+    public CoffeeScriptTokenTree(String code) {
+        this.code = code;
+        this.tokens = lex(code, 0, code.length(), null);
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the top level CoffeeScript tokens.
+     */
+    public List<Node> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Returns the leaves of the tree in text order. The parts of an embedding
+     * token not covered by its children, such as string quotes or the
+     * backticks of a JavaScript block, are returned with the id of the
+     * embedding token.
+     */
+    public List<Node> flatten() {
+        List<Node> leaves = new ArrayList<Node>(tokens.size());
+        for (Node token : tokens) {
+            flatten(token, leaves);
+        }
+        return leaves;
+    }
+
+    private void flatten(Node node, List<Node> leaves) {
+        if (!node.isEmbedding()) {
+            leaves.add(node);
+            return;
+        }
+        int offset = node.offset;
+        for (Node child : node.getChildren()) {
+            if (child.offset > offset) {
+                leaves.add(new Node(node.id, offset, child.offset - offset, node.parent));
+            }
+            flatten(child, leaves);
+            offset = child.getEnd();
+        }
+        if (node.getEnd() > offset) {
+            leaves.add(new Node(node.id, offset, node.getEnd() - offset, node.parent));
+        }
+    }
+
+    private List<Node> lex(String code, int start, int end, Node parent) {
+        CoffeeScriptLexerStringInput input = new CoffeeScriptLexerStringInput(code, start, end);
+        CoffeeScriptLexer lexer = new CoffeeScriptLexer(input);
+        List<Node> nodes = new ArrayList<Node>();
+        CoffeeScriptTokenId id;
+        while ((id = lexer.nextToken()) != null) {
+            nodes.add(new Node(id, input.getOffset(), input.readLength(), parent));
+        }
+        return nodes;
+    }
+
+    private List<Node> lexEmbedded(Node node) {
+        int start = node.offset, end = node.getEnd();
+        List<Node> nodes = new ArrayList<Node>();
+        if (node.id == CoffeeScriptTokenId.JSTOKEN) {
+            CoffeeScriptLexerStringInput input = new CoffeeScriptLexerStringInput(code, start + 1, end - 1);
+            CoffeeScriptJSLexer lexer = new CoffeeScriptJSLexer(input);
+            CoffeeScriptJSTokenId id;
+            while ((id = lexer.nextToken()) != null) {
+                nodes.add(new Node(id, input.getOffset(), input.readLength(), node));
+            }
+        } else if (node.id == CoffeeScriptTokenId.STRING) {
+            CoffeeScriptLexerStringInput input = new CoffeeScriptLexerStringInput(code, start, end);
+            CoffeeScriptStringLexer lexer = new CoffeeScriptStringLexer(input);
+            CoffeeScriptStringTokenId id;
+            while ((id = lexer.nextToken()) != null) {
+                nodes.add(new Node(id, input.getOffset(), input.readLength(), node));
+            }
+        } else if (node.id == CoffeeScriptTokenId.HEREGEX) {
+            CoffeeScriptLexerStringInput input = new CoffeeScriptLexerStringInput(code, start, end);
+            CoffeeScriptRegexpLexer lexer = new CoffeeScriptRegexpLexer(input);
+            CoffeeScriptRegexpTokenId id;
+            while ((id = lexer.nextToken()) != null) {
+                nodes.add(new Node(id, input.getOffset(), input.readLength(), node));
+            }
+        } else {
+            // Interpolated code
+            return lex(code, start, end, node);
+        }
+        return nodes;
+    }
+
+    private boolean isEmbedding(Enum<?> id, int offset, int length) {
+        if (id == CoffeeScriptTokenId.STRING) {
+            return CoffeeScriptLexerBase.hasInterpolation(code, offset, offset + length);
+        }
+        return id == CoffeeScriptTokenId.HEREGEX
+                || id == CoffeeScriptTokenId.JSTOKEN && length >= 2
+                || id == CoffeeScriptStringTokenId.EMBEDDED
+                || id == CoffeeScriptRegexpTokenId.EMBEDDED;
+    }
+
+    public final class Node {
+
+        private final Enum<?> id;
+        private final int offset, length;
+        private final Node parent;
+        private List<Node> children;
+
+        Node(Enum<?> id, int offset, int length, Node parent) {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+            this.parent = parent;
+        }
+
+        /**
+         * Returns a {@link CoffeeScriptTokenId}, {@link CoffeeScriptStringTokenId},
+         * {@link CoffeeScriptRegexpTokenId} or {@link CoffeeScriptJSTokenId}.
+         */
+        public Enum<?> getId() {
+            return id;
+        }
+
+        public String getCategory() {
+            if (id instanceof CoffeeScriptTokenId) {
+                return ((CoffeeScriptTokenId) id).getCategory().getName();
+            } else if (id instanceof CoffeeScriptStringTokenId) {
+                return ((CoffeeScriptStringTokenId) id).primaryCategory();
+            } else if (id instanceof CoffeeScriptRegexpTokenId) {
+                return ((CoffeeScriptRegexpTokenId) id).primaryCategory();
+            }
+            return ((CoffeeScriptJSTokenId) id).primaryCategory();
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getEnd() {
+            return offset + length;
+        }
+
+        public String getText() {
+            return code.substring(offset, offset + length);
+        }
+
+        public Node getParent() {
+            return parent;
+        }
+
+        public boolean isEmbedding() {
+            return CoffeeScriptTokenTree.this.isEmbedding(id, offset, length);
+        }
+
+        /**
+         * Returns the tokens of the embedded region, lexing it on the first
+         * call.
+         */
+        public List<Node> getChildren() {
+            if (children == null) {
+                children = isEmbedding() ? Collections.unmodifiableList(lexEmbedded(this)) : Collections.<Node>emptyList();
+            }
+            return children;
+        }
+
+        @Override
+        public String toString() {
+            return id + "[" + offset + "," + getEnd() + "]";
+        }
+    }
+}
@@ -369,7 +369,7 @@ public class BaseFunction extends IdScriptableObject implements Function
      */
     public Scriptable createObject(Context cx, Scriptable scope)
     {
-        Scriptable newInstance = new NativeObject();
+        Scriptable newInstance = NativeObject.create(cx);
         newInstance.setPrototype(getClassPrototype());
         newInstance.setParentScope(getParentScope());
         return newInstance;
@@ -0,0 +1,338 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *   Norris Boyd
+ *   Igor Bukanov
+ *   Bob Jervis
+ *   Roger Lawrence
+ *   Mike McCabe
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.mozilla.nb.javascript;
+
+/**
+ * This class transforms the tree built by the IDE parser of this fork back
+ * into the tree the code generators were written for. The IDE tree keeps
+ * functions, their parameter names and the property names of object literals
+ * in place and does not lower switch and try statements, see the netbeans
+ * sections of Parser and IRFactory.
+ *
+ * @see NodeTransformer
+ */
+final class CodegenTransformer
+{
+    public void transform(ScriptOrFnNode tree)
+    {
+        transformChildren(tree, tree);
+    }
+
+    private void transformChildren(ScriptOrFnNode tree, Node parent)
+    {
+        for (Node node = parent.getFirstChild(); node != null;
+             node = node.getNext())
+        {
+            node = transformNode(tree, parent, node);
+        }
+    }
+
+    /**
+     * Returns the node that took the place of the given one.
+     */
+    private Node transformNode(ScriptOrFnNode tree, Node parent, Node node)
+    {
+        switch (node.getType()) {
+          case Token.FUNCTION:
+            if (node instanceof FunctionNode) {
+                Node result = transformFunction(tree, (FunctionNode)node);
+                parent.replaceChild(node, result);
+                return result;
+            }
+            break;
+
+          case Token.OBJECTLIT:
+            // Values follow their OBJLITNAME, the names are in OBJECT_IDS_PROP
+            for (Node child = node.getFirstChild(); child != null;) {
+                Node next = child.getNext();
+                if (child.getType() == Token.OBJLITNAME) {
+                    node.removeChild(child);
+                }
+                child = next;
+            }
+            break;
+
+          case Token.SWITCH:
+            transformChildren(tree, node);
+            return transformSwitch(parent, (Node.Jump)node);
+
+          case Token.TRY:
+            transformChildren(tree, node);
+            return transformTry(tree, parent, (Node.Jump)node);
+        }
+        transformChildren(tree, node);
+        return node;
+    }
+
+    private Node transformFunction(ScriptOrFnNode tree, FunctionNode fnNode)
+    {
+        // Drop the FUNCNAME and PARAMETER nodes in front of the body
+        Node body = fnNode.getLastChild();
+        while (fnNode.getFirstChild() != body) {
+            fnNode.removeChild(fnNode.getFirstChild());
+        }
+        String name = fnNode.getFunctionName();
+        if (fnNode.getFunctionType() == FunctionNode.FUNCTION_EXPRESSION
+            && name != null && name.length() != 0)
+        {
+            // A function expression initializes a local variable of its name
+            // to the function value, see ECMA Ch. 13.
+            Node setFn = new Node(Token.EXPR_VOID,
+                             new Node(Token.SETNAME,
+                                 Node.newString(Token.BINDNAME, name),
+                                 new Node(Token.THISFN)));
+            body.addChildrenToFront(setFn);
+        }
+        transform(fnNode);
+
+        int functionIndex = -1;
+        for (int i = 0; i != tree.getFunctionCount(); ++i) {
+            if (tree.getFunctionNode(i) == fnNode) {
+                functionIndex = i;
+                break;
+            }
+        }
+        if (functionIndex < 0) throw Kit.codeBug();
+        Node result = Node.newString(Token.FUNCTION, name);
+        result.putIntProp(Node.FUNCTION_PROP, functionIndex);
+        return result;
+    }
+
+    /**
+     * Moves the statements of the CASE and DEFAULT children into a block
+     * after the switch, as IRFactory.addSwitchCase did originally.
+     */
+    private Node transformSwitch(Node parent, Node.Jump switchNode)
+    {
+        Node switchBreakTarget = switchNode.target;
+        switchNode.removeChild(switchBreakTarget);
+        Node defaultTarget = switchNode.getDefault();
+        Node.Jump defaultJump = makeJump(Token.GOTO, defaultTarget != null
+                                                ? defaultTarget
+                                                : switchBreakTarget);
+        Node switchBlock = new Node(Token.BLOCK, switchNode.getLineno());
+        parent.replaceChild(switchNode, switchBlock);
+        Node cases = new Node(Token.BLOCK);
+        Node child = switchNode.getFirstChild().getNext();
+        while (child != null) {
+            Node next = child.getNext();
+            Node statements;
+            if (child.getType() == Token.CASE) {
+                statements = child.getLastChild();
+                child.removeChild(statements);
+                cases.addChildToBack(((Node.Jump)child).target);
+            } else {
+                statements = child.getFirstChild();
+                switchNode.removeChild(child);
+                cases.addChildToBack(defaultTarget);
+            }
+            cases.addChildToBack(statements);
+            child = next;
+        }
+
+        switchBlock.addChildToBack(switchNode);
+        switchBlock.addChildToBack(defaultJump);
+        if (cases.hasChildren()) {
+            switchBlock.addChildrenToBack(cases.getFirstChild());
+        }
+        switchBlock.addChildToBack(switchBreakTarget);
+        return switchBlock;
+    }
+
+    /**
+     * Rewrites a TRY node with the try block, the CATCH nodes and the FINALLY
+     * node as children the way IRFactory.createTryCatchFinally did
+     * originally.
+     */
+    private Node transformTry(ScriptOrFnNode tree, Node parent, Node.Jump tryNode)
+    {
+        Node tryBlock = tryNode.getFirstChild();
+        Node finallyNode = tryNode.getLastChild();
+        if (finallyNode.getType() != Token.FINALLY) {
+            finallyNode = null;
+        }
+        Node finallyBlock = finallyNode != null ? finallyNode.getFirstChild() : null;
+        boolean hasFinally = finallyBlock != null
+                             && (finallyBlock.getType() != Token.BLOCK
+                                 || finallyBlock.hasChildren());
+        boolean hasCatch = tryBlock.getNext() != finallyNode;
+
+        if (!hasFinally && !hasCatch) {
+            tryNode.removeChild(tryBlock);
+            parent.replaceChild(tryNode, tryBlock);
+            return tryBlock;
+        }
+
+        Node handlerBlock = new Node(Token.LOCAL_BLOCK);
+        parent.replaceChild(tryNode, handlerBlock);
+        Node.Jump pn = new Node.Jump(Token.TRY, tryNode.getLineno());
+        pn.putProp(Node.LOCAL_BLOCK_PROP, handlerBlock);
+        Node catchBlocks = tryBlock.getNext();
+        tryNode.removeChild(tryBlock);
+        pn.addChildToBack(tryBlock);
+
+        if (hasCatch) {
+            // jump around catch code
+            Node endCatch = Node.newTarget();
+            pn.addChildToBack(makeJump(Token.GOTO, endCatch));
+
+            // make a TARGET for the catch that the tcf node knows about
+            Node catchTarget = Node.newTarget();
+            pn.target = catchTarget;
+            pn.addChildToBack(catchTarget);
+
+            // Each catch becomes
+            //   with (newCatchScope(e, x)) {
+            //       if (condition) {
+            //           something;
+            //           goto after_catch;
+            //       }
+            //   }
+            // followed by a rethrow if there is no default catch.
+            Node catchScopeBlock = new Node(Token.LOCAL_BLOCK);
+            boolean hasDefault = false;
+            int scopeIndex = 0;
+            Node cb = catchBlocks;
+            while (cb != finallyNode) {
+                Node nextCatch = cb.getNext();
+                int catchLineNo = cb.getLineno();
+
+                Node name = cb.getFirstChild();
+                Node cond = name.getNext();
+                Node catchStatement = cond.getNext();
+                cb.removeChild(name);
+                cb.removeChild(cond);
+                cb.removeChild(catchStatement);
+
+                catchStatement.addChildToBack(new Node(Token.LEAVEWITH));
+                catchStatement.addChildToBack(makeJump(Token.GOTO, endCatch));
+
+                Node condStmt;
+                if (cond.getType() == Token.EMPTY) {
+                    condStmt = catchStatement;
+                    hasDefault = true;
+                } else {
+                    condStmt = new Node(Token.BLOCK, catchLineNo);
+                    Node ifNotTarget = Node.newTarget();
+                    Node.Jump IFNE = new Node.Jump(Token.IFNE, cond);
+                    IFNE.target = ifNotTarget;
+                    condStmt.addChildToBack(IFNE);
+                    condStmt.addChildrenToBack(catchStatement);
+                    condStmt.addChildToBack(ifNotTarget);
+                }
+
+                Node catchScope = new Node(Token.CATCH_SCOPE, name,
+                                           createUseLocal(handlerBlock));
+                catchScope.putProp(Node.LOCAL_BLOCK_PROP, catchScopeBlock);
+                catchScope.putIntProp(Node.CATCH_SCOPE_PROP, scopeIndex);
+                catchScopeBlock.addChildToBack(catchScope);
+
+                catchScopeBlock.addChildToBack(
+                    createWith(tree, createUseLocal(catchScopeBlock), condStmt,
+                               catchLineNo));
+
+                cb = nextCatch;
+                ++scopeIndex;
+            }
+            pn.addChildToBack(catchScopeBlock);
+            if (!hasDefault) {
+                // Generate code to rethrow if no catch clause was executed
+                Node rethrow = new Node(Token.RETHROW);
+                rethrow.putProp(Node.LOCAL_BLOCK_PROP, handlerBlock);
+                pn.addChildToBack(rethrow);
+            }
+
+            pn.addChildToBack(endCatch);
+        }
+
+        if (hasFinally) {
+            Node finallyTarget = Node.newTarget();
+            pn.setFinally(finallyTarget);
+
+            // add jsr finally to the try block
+            pn.addChildToBack(makeJump(Token.JSR, finallyTarget));
+
+            // jump around finally code
+            Node finallyEnd = Node.newTarget();
+            pn.addChildToBack(makeJump(Token.GOTO, finallyEnd));
+
+            pn.addChildToBack(finallyTarget);
+            tryNode.removeChild(finallyNode);
+            finallyNode.putProp(Node.LOCAL_BLOCK_PROP, handlerBlock);
+            pn.addChildToBack(finallyNode);
+
+            pn.addChildToBack(finallyEnd);
+        }
+        handlerBlock.addChildToBack(pn);
+        return handlerBlock;
+    }
+
+    private static Node createWith(ScriptOrFnNode tree, Node obj, Node body,
+                                   int lineno)
+    {
+        if (tree.getType() == Token.FUNCTION) {
+            ((FunctionNode)tree).itsNeedsActivation = true;
+        }
+        Node result = new Node(Token.BLOCK, lineno);
+        result.addChildToBack(new Node(Token.ENTERWITH, obj));
+        Node bodyNode = new Node(Token.WITH, body, lineno);
+        result.addChildrenToBack(bodyNode);
+        result.addChildToBack(new Node(Token.LEAVEWITH));
+        return result;
+    }
+
+    private static Node createUseLocal(Node localBlock)
+    {
+        Node result = new Node(Token.LOCAL_LOAD);
+        result.putProp(Node.LOCAL_BLOCK_PROP, localBlock);
+        return result;
+    }
+
+    private static Node.Jump makeJump(int type, Node target)
+    {
+        Node.Jump n = new Node.Jump(type);
+        n.target = target;
+        return n;
+    }
+}
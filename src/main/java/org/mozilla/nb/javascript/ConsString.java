@@ -0,0 +1,167 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *   Norris Boyd
+ *   Igor Bukanov
+ *   Bob Jervis
+ *   Roger Lawrence
+ *   Mike McCabe
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package org.mozilla.nb.javascript;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * String value made by concatenating two strings, which copies their
+ * characters only when the value is first used as a {@link String}. Building
+ * a string by repeated concatenation, as in <code>s += part</code>, then
+ * copies each part once instead of once per concatenation.
+ * <p>
+ * Values of scripts may be instances of this class wherever they may be
+ * strings, ScriptRuntime.toString returns the flat string.
+ */
+final class ConsString implements CharSequence, Serializable
+{
+    static final long serialVersionUID = 7640232366089404512L;
+
+    // Shorter concatenations are copied at once, short strings are often
+    // used as property names and compared
+    private static final int MIN_LENGTH = 64;
+
+    private final int length;
+    // Parts of the string, null once it is flat
+    private CharSequence left;
+    private CharSequence right;
+    private volatile String flat;
+
+    private ConsString(CharSequence left, CharSequence right, int length)
+    {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    /**
+     * Returns the concatenation of two strings or ConsStrings.
+     */
+    static CharSequence concat(CharSequence left, CharSequence right)
+    {
+        int leftLength = left.length();
+        int rightLength = right.length();
+        if (rightLength == 0) {
+            return left;
+        } else if (leftLength == 0) {
+            return right;
+        }
+        int length = leftLength + rightLength;
+        if (length < MIN_LENGTH || length < 0) {
+            // Too long strings fail when concatenated, like without ropes
+            return left.toString().concat(right.toString());
+        }
+        return new ConsString(left, right, length);
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public char charAt(int index)
+    {
+        return toString().charAt(index);
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString()
+    {
+        String s = flat;
+        return s != null ? s : flatten();
+    }
+
+    private synchronized String flatten()
+    {
+        if (flat != null) {
+            return flat;
+        }
+        // Parts are copied from the end, the stack holds the parts before
+        // the copied ones so nested concatenations need no recursion
+        char[] chars = new char[length];
+        int end = length;
+        ArrayList<CharSequence> stack = new ArrayList<CharSequence>();
+        stack.add(left);
+        stack.add(right);
+        while (!stack.isEmpty()) {
+            CharSequence part = stack.remove(stack.size() - 1);
+            if (part instanceof ConsString) {
+                ConsString cons = (ConsString)part;
+                String s = cons.flat;
+                if (s == null) {
+                    CharSequence consLeft = cons.left;
+                    CharSequence consRight = cons.right;
+                    if (consLeft != null && consRight != null) {
+                        stack.add(consLeft);
+                        stack.add(consRight);
+                        continue;
+                    }
+                    // Flattened by another thread meanwhile
+                    s = cons.toString();
+                }
+                part = s;
+            }
+            String s = (String)part;
+            end -= s.length();
+            s.getChars(0, s.length(), chars, end);
+        }
+        String s = new String(chars);
+        flat = s;
+        left = null;
+        right = null;
+        return s;
+    }
+
+    private Object writeReplace()
+    {
+        return toString();
+    }
+}
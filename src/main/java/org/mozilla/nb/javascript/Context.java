@@ -312,6 +312,16 @@ public class Context
      */
     public static final int FEATURE_ENHANCED_JAVA_ACCESS = 13;
 
+    /**
+     * Controls whether objects created by scripts keep their properties in
+     * arrays laid out by shapes shared between objects with the same
+     * properties, instead of a hash table of slots per object. Saves memory
+     * for many small objects with the same layout.
+     * <p>
+     * By default {@link #hasFeature(int)} returns false.
+     */
+    public static final int FEATURE_OBJECT_SHAPES = 14;
+
 
     public static final String languageVersionProperty = "language version";
     public static final String errorReporterProperty   = "error reporter";
@@ -1736,7 +1746,8 @@ public class Context
     public static Object javaToJS(Object value, Scriptable scope)
     {
         if (value instanceof String || value instanceof Number
-            || value instanceof Boolean || value instanceof Scriptable)
+            || value instanceof Boolean || value instanceof Scriptable
+            || value instanceof ConsString)
         {
             return value;
         } else if (value instanceof Character) {
@@ -2201,6 +2212,7 @@ public class Context
      * @see #FEATURE_STRICT_MODE
      * @see #FEATURE_WARNING_AS_ERROR
      * @see #FEATURE_ENHANCED_JAVA_ACCESS
+     * @see #FEATURE_OBJECT_SHAPES
      */
     public boolean hasFeature(int featureIndex)
     {
@@ -2417,6 +2429,8 @@ public class Context
         } else {
             tree = p.parse(sourceReader, sourceName, lineno);
         }
+        // The parser builds the IDE tree, restore the one codegen expects
+        new CodegenTransformer().transform(tree);
         if (returnFunction) {
             if (!(tree.getFunctionCount() == 1
                   && tree.getFirstChild() != null
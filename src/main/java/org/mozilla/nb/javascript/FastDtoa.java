@@ -0,0 +1,325 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *   Norris Boyd
+ *   Igor Bukanov
+ *   Bob Jervis
+ *   Roger Lawrence
+ *   Mike McCabe
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.mozilla.nb.javascript;
+
+import java.math.BigInteger;
+
+/**
+ * Conversion of doubles to their shortest decimal strings with 64 bit
+ * integers, by the Grisu3 algorithm of Florian Loitsch ("Printing
+ * Floating-Point Numbers Quickly and Accurately with Integers", PLDI 2010).
+ * <p>
+ * The algorithm detects the few numbers it cannot convert exactly, for which
+ * {@link #numberToString(double)} returns null and callers use
+ * {@link DToA} instead.
+ */
+final class FastDtoa
+{
+    private FastDtoa() {}
+
+    // Doubles from which on not all integers are exact
+    private static final double TWO_TO_53 = 9007199254740992.0;
+
+    // Range of the binary exponents of the scaled numbers, so their integral
+    // parts fit 32 bits and their fractional parts leave room for a digit
+    private static final int MIN_TARGET_EXPONENT = -60;
+    private static final int MAX_TARGET_EXPONENT = -32;
+
+    // Powers of ten 10^k as normalized 64 bit significands and binary
+    // exponents, for k from FIRST_POWER to LAST_POWER by POWER_STEP
+    private static final int FIRST_POWER = -348;
+    private static final int LAST_POWER = 340;
+    private static final int POWER_STEP = 8;
+    private static final long[] powerSignificands;
+    private static final int[] powerExponents;
+
+    static {
+        int count = (LAST_POWER - FIRST_POWER) / POWER_STEP + 1;
+        powerSignificands = new long[count];
+        powerExponents = new int[count];
+        for (int i = 0; i != count; ++i) {
+            int k = FIRST_POWER + i * POWER_STEP;
+            BigInteger significand;
+            int exponent;
+            if (k >= 0) {
+                BigInteger power = BigInteger.TEN.pow(k);
+                exponent = power.bitLength() - 64;
+                if (exponent <= 0) {
+                    significand = power.shiftLeft(-exponent);
+                } else {
+                    significand = power.add(BigInteger.ONE.shiftLeft(exponent - 1))
+                                       .shiftRight(exponent);
+                }
+            } else {
+                BigInteger power = BigInteger.TEN.pow(-k);
+                exponent = -(power.bitLength() + 63);
+                BigInteger[] qr = BigInteger.ONE.shiftLeft(-exponent)
+                                                .divideAndRemainder(power);
+                significand = qr[0];
+                if (qr[1].shiftLeft(1).compareTo(power) >= 0) {
+                    significand = significand.add(BigInteger.ONE);
+                }
+            }
+            if (significand.bitLength() > 64) {
+                significand = significand.shiftRight(1);
+                ++exponent;
+            }
+            powerSignificands[i] = significand.longValue();
+            powerExponents[i] = exponent;
+        }
+    }
+
+    /**
+     * Returns the string of a finite non-zero number as ECMA 9.8.1 formats
+     * it, or null when the number needs the exact algorithm.
+     */
+    static String numberToString(double d)
+    {
+        if (d == (long) d && -TWO_TO_53 < d && d < TWO_TO_53) {
+            return Long.toString((long) d);
+        }
+        boolean negative = d < 0;
+        long bits = Double.doubleToRawLongBits(negative ? -d : d);
+        int biasedExponent = (int) (bits >>> 52);
+        long fraction = bits & 0xFFFFFFFFFFFFFL;
+        long f;
+        int e;
+        if (biasedExponent == 0) {
+            f = fraction;
+            e = -1074;
+        } else {
+            f = fraction | (1L << 52);
+            e = biasedExponent - 1075;
+        }
+
+        // The number and the bounds halfway to its neighbours, normalized to
+        // the same binary exponent
+        int shift = Long.numberOfLeadingZeros(f);
+        long w = f << shift;
+        int wExponent = e - shift;
+        long plus = ((f << 1) + 1) << (shift - 1);
+        long minus;
+        if (fraction == 0 && biasedExponent > 1) {
+            // The lower neighbour is closer
+            minus = ((f << 2) - 1) << (shift - 2);
+        } else {
+            minus = ((f << 1) - 1) << (shift - 1);
+        }
+
+        // Scale by a cached power 10^-k to the target exponents
+        int minExponent = MIN_TARGET_EXPONENT - (wExponent + 64);
+        int k = (int) Math.ceil((minExponent + 63) * 0.30102999566398114);
+        int index = (k - FIRST_POWER - 1) / POWER_STEP + 1;
+        int decimalExponent = -(FIRST_POWER + index * POWER_STEP);
+        long power = powerSignificands[index];
+        int exponent = wExponent + powerExponents[index] + 64;
+        if (exponent < MIN_TARGET_EXPONENT || exponent > MAX_TARGET_EXPONENT) {
+            return null;
+        }
+
+        char[] digits = new char[20];
+        int[] result = new int[2];
+        if (!digitGen(multiply(minus, power), multiply(w, power),
+                      multiply(plus, power), -exponent, digits, result))
+        {
+            return null;
+        }
+        return format(negative, digits, result[0],
+                      result[1] + decimalExponent);
+    }
+
+    /**
+     * Generates the shortest digits of w in the interval from low to high,
+     * all scaled by 2^-shift. Stores the number of digits and the decimal
+     * exponent of the last one into result, returns false when the digits
+     * may not be the shortest or closest.
+     */
+    private static boolean digitGen(long low, long w, long high, int shift,
+                                    char[] digits, int[] result)
+    {
+        // The multiplications are off by up to one unit, the interval is
+        // made wider by it and narrower by it when checking the result
+        long unit = 1;
+        long tooLow = low - unit;
+        long tooHigh = high + unit;
+        long unsafeInterval = tooHigh - tooLow;
+        long one = 1L << shift;
+        long integrals = tooHigh >>> shift;
+        long fractionals = tooHigh & (one - 1);
+
+        long divisor = 1;
+        int kappa = 0;
+        if (integrals != 0) {
+            kappa = 1;
+            while (integrals / divisor >= 10) {
+                divisor *= 10;
+                ++kappa;
+            }
+        }
+        int length = 0;
+        while (kappa > 0) {
+            digits[length++] = (char) ('0' + integrals / divisor);
+            integrals %= divisor;
+            --kappa;
+            long rest = (integrals << shift) + fractionals;
+            if (lessUnsigned(rest, unsafeInterval)) {
+                result[0] = length;
+                result[1] = kappa;
+                return roundWeed(digits, length, tooHigh - w, unsafeInterval,
+                                 rest, divisor << shift, unit);
+            }
+            divisor /= 10;
+        }
+        for (;;) {
+            fractionals *= 10;
+            unit *= 10;
+            unsafeInterval *= 10;
+            digits[length++] = (char) ('0' + (fractionals >>> shift));
+            fractionals &= one - 1;
+            --kappa;
+            if (lessUnsigned(fractionals, unsafeInterval)) {
+                result[0] = length;
+                result[1] = kappa;
+                return roundWeed(digits, length, (tooHigh - w) * unit,
+                                 unsafeInterval, fractionals, one, unit);
+            }
+        }
+    }
+
+    /**
+     * Moves the last digit towards w while that gets closer to it, and checks
+     * that the digits are the closest ones within the error of the unit.
+     */
+    private static boolean roundWeed(char[] digits, int length,
+                                     long distanceTooHighW,
+                                     long unsafeInterval, long rest,
+                                     long tenKappa, long unit)
+    {
+        long smallDistance = distanceTooHighW - unit;
+        long bigDistance = distanceTooHighW + unit;
+        while (lessUnsigned(rest, smallDistance)
+               && !lessUnsigned(unsafeInterval - rest, tenKappa)
+               && (lessUnsigned(rest + tenKappa, smallDistance)
+                   || !lessUnsigned(smallDistance - rest,
+                                    rest + tenKappa - smallDistance)))
+        {
+            --digits[length - 1];
+            rest += tenKappa;
+        }
+        if (lessUnsigned(rest, bigDistance)
+            && !lessUnsigned(unsafeInterval - rest, tenKappa)
+            && (lessUnsigned(rest + tenKappa, bigDistance)
+                || lessUnsigned(rest + tenKappa - bigDistance,
+                                bigDistance - rest)))
+        {
+            return false;
+        }
+        return !lessUnsigned(rest, 2 * unit)
+               && !lessUnsigned(unsafeInterval - 4 * unit, rest);
+    }
+
+    /**
+     * Formats the digits times 10^exponent like DToA.JS_dtostr in
+     * DTOSTR_STANDARD mode.
+     */
+    private static String format(boolean negative, char[] digits, int length,
+                                 int exponent)
+    {
+        while (length > 1 && digits[length - 1] == '0') {
+            --length;
+            ++exponent;
+        }
+        int decPt = length + exponent;
+        StringBuilder sb = new StringBuilder(length + 8);
+        if (negative) {
+            sb.append('-');
+        }
+        if (decPt < -5 || decPt > 21) {
+            sb.append(digits[0]);
+            if (length != 1) {
+                sb.append('.');
+                sb.append(digits, 1, length - 1);
+            }
+            sb.append('e');
+            if (decPt - 1 >= 0) {
+                sb.append('+');
+            }
+            sb.append(decPt - 1);
+        } else if (decPt <= 0) {
+            sb.append("0.");
+            for (int i = decPt; i != 0; ++i) {
+                sb.append('0');
+            }
+            sb.append(digits, 0, length);
+        } else if (decPt >= length) {
+            sb.append(digits, 0, length);
+            for (int i = length; i != decPt; ++i) {
+                sb.append('0');
+            }
+        } else {
+            sb.append(digits, 0, decPt);
+            sb.append('.');
+            sb.append(digits, decPt, length - decPt);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the upper 64 bits of the unsigned 128 bit product, rounded.
+     */
+    private static long multiply(long x, long y)
+    {
+        long a = x >>> 32, b = x & 0xFFFFFFFFL;
+        long c = y >>> 32, d = y & 0xFFFFFFFFL;
+        long ac = a * c, bc = b * c, ad = a * d, bd = b * d;
+        long tmp = (bd >>> 32) + (ad & 0xFFFFFFFFL) + (bc & 0xFFFFFFFFL)
+                   + (1L << 31);
+        return ac + (ad >>> 32) + (bc >>> 32) + (tmp >>> 32);
+    }
+
+    private static boolean lessUnsigned(long x, long y)
+    {
+        return x + Long.MIN_VALUE < y + Long.MIN_VALUE;
+    }
+}
@@ -219,13 +219,18 @@ final class IRFactory
         // to detect switch end
         switchNode.target = switchBreakTarget;
 
-        Node defaultTarget = switchNode.getDefault();
-        if (defaultTarget == null) {
-            defaultTarget = switchBreakTarget;
-        }
-
-        switchBlock.addChildAfter(makeJump(Token.GOTO, defaultTarget),
-                                  switchNode);
+        // <netbeans>
+        // The switch node is the block here, a jump after it would end up
+        // as a sibling of the switch statement. CodegenTransformer adds the
+        // jump to the default when lowering the switch for execution.
+        //Node defaultTarget = switchNode.getDefault();
+        //if (defaultTarget == null) {
+        //    defaultTarget = switchBreakTarget;
+        //}
+        //
+        //switchBlock.addChildAfter(makeJump(Token.GOTO, defaultTarget),
+        //                          switchNode);
+        // </netbeans>
         switchBlock.addChildToBack(switchBreakTarget);
     }
 
@@ -176,7 +176,9 @@ public abstract class IdScriptableObject extends ScriptableObject
                 return id;
             }
             id = obj.findPrototypeId(name);
-            if (id != 0) {
+            // Threads sharing a sealed object would keep overwriting the
+            // cache
+            if (id != 0 && !obj.isSealed()) {
                 int nameSlot = (id - 1) * SLOT_SPAN + NAME_SLOT;
                 // Make cache to work!
                 array[nameSlot] = name;
@@ -618,6 +620,22 @@ public abstract class IdScriptableObject extends ScriptableObject
         return ctor;
     }
 
+    /**
+     * Seals the object with the values of its prototype map initialized, so
+     * reading them does not lock the map.
+     */
+    @Override
+    public synchronized void sealObject()
+    {
+        super.sealObject();
+        PrototypeValues values = prototypeValues;
+        if (values != null) {
+            for (int id = 1; id <= values.getMaxId(); ++id) {
+                values.ensureId(id);
+            }
+        }
+    }
+
     public final boolean hasPrototypeMap()
     {
         return prototypeValues != null;
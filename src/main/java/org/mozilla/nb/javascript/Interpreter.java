@@ -219,6 +219,10 @@ public class Interpreter implements Evaluator
     //            exception local and scope local
     private static final int EXCEPTION_SLOT_SIZE       = 6;
 
+    // Operand of property access and name instructions past the maximal number
+    // of inline caches in one function
+    private static final int NO_CACHE = 0xFFFF;
+
 // ECF_ or Expression Context Flags constants: for now only TAIL is available
     private static final int ECF_TAIL = 1 << 0;
 
@@ -1082,7 +1086,7 @@ public class Interpreter implements Evaluator
           case Token.GETPROPNOWARN:
             visitExpression(child, 0);
             child = child.getNext();
-            addStringOp(type, child.getString());
+            addPropertyOp(type, child.getString());
             break;
 
           case Token.GETELEM:
@@ -1146,12 +1150,12 @@ public class Interpreter implements Evaluator
                 if (type == Token.SETPROP_OP) {
                     addIcode(Icode_DUP);
                     stackChange(1);
-                    addStringOp(Token.GETPROP, property);
+                    addPropertyOp(Token.GETPROP, property);
                     // Compensate for the following USE_STACK
                     stackChange(-1);
                 }
                 visitExpression(child, 0);
-                addStringOp(Token.SETPROP, property);
+                addPropertyOp(Token.SETPROP, property);
                 stackChange(-1);
             }
             break;
@@ -1231,8 +1235,12 @@ public class Interpreter implements Evaluator
             }
             break;
 
-          case Token.BINDNAME:
           case Token.NAME:
+            addNameOp(type, node.getString());
+            stackChange(1);
+            break;
+
+          case Token.BINDNAME:
           case Token.STRING:
             addStringOp(type, node.getString());
             stackChange(1);
@@ -1414,7 +1422,7 @@ public class Interpreter implements Evaluator
           case Token.NAME: {
             String name = left.getString();
             // stack: ... -> ... function thisObj
-            addStringOp(Icode_NAME_AND_THIS, name);
+            addNameOp(Icode_NAME_AND_THIS, name);
             stackChange(2);
             break;
           }
@@ -1426,7 +1434,7 @@ public class Interpreter implements Evaluator
             if (type == Token.GETPROP) {
                 String property = id.getString();
                 // stack: ... target -> ... function thisObj
-                addStringOp(Icode_PROP_AND_THIS, property);
+                addPropertyOp(Icode_PROP_AND_THIS, property);
                 stackChange(1);
             } else {
                 visitExpression(id, 0);
@@ -1787,6 +1795,38 @@ public class Interpreter implements Evaluator
         }
     }
 
+    /**
+     * Adds a property access instruction followed by the index of its inline
+     * cache, see PropertyCache.
+     */
+    private void addPropertyOp(int op, String property)
+    {
+        addStringOp(op, property);
+        int index = itsData.itsPropertyCacheCount;
+        if (index == NO_CACHE) {
+            addUint16(NO_CACHE);
+        } else {
+            addUint16(index);
+            itsData.itsPropertyCacheCount = index + 1;
+        }
+    }
+
+    /**
+     * Adds a name lookup instruction followed by the index of its inline
+     * cache, see NameCache.
+     */
+    private void addNameOp(int op, String name)
+    {
+        addStringOp(op, name);
+        int index = itsData.itsNameCacheCount;
+        if (index == NO_CACHE) {
+            addUint16(NO_CACHE);
+        } else {
+            addUint16(index);
+            itsData.itsNameCacheCount = index + 1;
+        }
+    }
+
     private void addIndexOp(int op, int index)
     {
         addIndexPrefix(index);
@@ -1904,6 +1944,225 @@ public class Interpreter implements Evaluator
         if (localSlot != itsLocalTop) Kit.codeBug();
     }
 
+    // The property access and name instructions call out to keep
+    // interpretLoop below the size up to which the JVM compiles methods
+
+    private static Object getObjectProp(CallFrame frame, byte[] iCode,
+                                        Object obj, String property,
+                                        Context cx, boolean warn)
+    {
+        Object value = getPropertyCache(frame, iCode).get(obj, property);
+        if (value != Scriptable.NOT_FOUND) {
+            return value;
+        }
+        return warn ? ScriptRuntime.getObjectProp(obj, property, cx)
+                    : ScriptRuntime.getObjectPropNoWarn(obj, property, cx);
+    }
+
+    private static Object setObjectProp(CallFrame frame, byte[] iCode,
+                                        Object obj, String property,
+                                        Object value, Context cx)
+    {
+        if (getPropertyCache(frame, iCode).put(obj, property, value)) {
+            return value;
+        }
+        return ScriptRuntime.setObjectProp(obj, property, value, cx);
+    }
+
+    private static Callable getPropFunctionAndThis(CallFrame frame,
+                                                   byte[] iCode, Object obj,
+                                                   String property,
+                                                   Context cx)
+    {
+        Object value = getPropertyCache(frame, iCode).get(obj, property);
+        if (value instanceof Callable) {
+            // Only script objects are cached, they are their own thisObj
+            cx.scratchScriptable = (Scriptable)obj;
+            return (Callable)value;
+        }
+        return ScriptRuntime.getPropFunctionAndThis(obj, property, cx);
+    }
+
+    /**
+     * Returns the inline cache of the property access instruction at
+     * frame.pc and moves past its operand.
+     */
+    private static PropertyCache getPropertyCache(CallFrame frame,
+                                                  byte[] iCode)
+    {
+        int index = getIndex(iCode, frame.pc);
+        frame.pc += 2;
+        if (index == NO_CACHE) {
+            return PropertyCache.UNCACHED;
+        }
+        InterpreterData idata = frame.idata;
+        PropertyCache[] caches = idata.itsPropertyCaches;
+        if (caches == null) {
+            // Racing threads may each create caches, only one set is kept
+            caches = new PropertyCache[idata.itsPropertyCacheCount];
+            idata.itsPropertyCaches = caches;
+        }
+        PropertyCache cache = caches[index];
+        if (cache == null) {
+            cache = new PropertyCache();
+            caches[index] = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * Returns 1 if the function only returns its first argument minus the
+     * second, -1 if it returns the second minus the first and 0 otherwise.
+     * Sorting numbers by such a function needs no calls.
+     */
+    static int getSubtractionOrder(InterpretedFunction function)
+    {
+        InterpreterData idata = function.idata;
+        if (idata.argCount != 2 || idata.itsNeedsActivation) {
+            return 0;
+        }
+        byte[] iCode = idata.itsICode;
+        int pc = 0;
+        while (pc < iCode.length && iCode[pc] == Icode_LINE) {
+            pc += bytecodeSpan(Icode_LINE);
+        }
+        if (iCode.length - pc != 6 || iCode[pc] != Icode_GETVAR1 ||
+            iCode[pc + 2] != Icode_GETVAR1 || iCode[pc + 4] != Token.SUB ||
+            iCode[pc + 5] != Token.RETURN)
+        {
+            return 0;
+        }
+        int first = iCode[pc + 1], second = iCode[pc + 3];
+        if (first == 0 && second == 1) {
+            return 1;
+        } else if (first == 1 && second == 0) {
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Replaces the object and id at i with the element, which is left
+     * unboxed when it comes from an array of numbers.
+     */
+    private static void getElem(Object[] stack, double[] sDbl, int i,
+                                Context cx)
+    {
+        Object lhs = stack[i];
+        Object id = stack[i + 1];
+        final Object DBL_MRK = UniqueTag.DOUBLE_MARK;
+        if (id == DBL_MRK && lhs instanceof NativeArray) {
+            double d = sDbl[i + 1];
+            int index = (int)d;
+            if (index == d) {
+                double value = ((NativeArray)lhs).getNumber(index);
+                if (!NativeArray.isHole(value)) {
+                    stack[i] = DBL_MRK;
+                    sDbl[i] = value;
+                    return;
+                }
+            }
+        }
+        if (lhs == DBL_MRK) {
+            lhs = ScriptRuntime.wrapNumber(sDbl[i]);
+        }
+        Object value;
+        if (id != DBL_MRK) {
+            value = ScriptRuntime.getObjectElem(lhs, id, cx);
+        } else {
+            double d = sDbl[i + 1];
+            value = ScriptRuntime.getObjectIndex(lhs, d, cx);
+        }
+        stack[i] = value;
+    }
+
+    /**
+     * Replaces the object, id and value at i with the value, which is stored
+     * without boxing into the elements of an array of numbers.
+     */
+    private static void setElem(Object[] stack, double[] sDbl, int i,
+                                Context cx)
+    {
+        Object rhs = stack[i + 2];
+        Object lhs = stack[i];
+        Object id = stack[i + 1];
+        final Object DBL_MRK = UniqueTag.DOUBLE_MARK;
+        if (rhs == DBL_MRK && id == DBL_MRK && lhs instanceof NativeArray) {
+            double d = sDbl[i + 1];
+            int index = (int)d;
+            if (index == d &&
+                ((NativeArray)lhs).setNumber(index, sDbl[i + 2]))
+            {
+                stack[i] = DBL_MRK;
+                sDbl[i] = sDbl[i + 2];
+                return;
+            }
+        }
+        if (rhs == DBL_MRK) {
+            rhs = ScriptRuntime.wrapNumber(sDbl[i + 2]);
+        }
+        if (lhs == DBL_MRK) {
+            lhs = ScriptRuntime.wrapNumber(sDbl[i]);
+        }
+        Object value;
+        if (id != DBL_MRK) {
+            value = ScriptRuntime.setObjectElem(lhs, id, rhs, cx);
+        } else {
+            double d = sDbl[i + 1];
+            value = ScriptRuntime.setObjectIndex(lhs, d, rhs, cx);
+        }
+        stack[i] = value;
+    }
+
+    private static Object name(CallFrame frame, byte[] iCode, String name,
+                               Context cx)
+    {
+        Object value = getNameCache(frame, iCode).get(cx, frame.scope,
+                                                      frame.fnOrScript, name);
+        if (value != Scriptable.NOT_FOUND) {
+            return value;
+        }
+        return ScriptRuntime.name(cx, frame.scope, name);
+    }
+
+    private static Callable getNameFunctionAndThis(CallFrame frame,
+                                                   byte[] iCode, String name,
+                                                   Context cx)
+    {
+        Callable f = getNameCache(frame, iCode).getFunctionAndThis(
+                         cx, frame.scope, frame.fnOrScript, name);
+        if (f != null) {
+            return f;
+        }
+        return ScriptRuntime.getNameFunctionAndThis(name, cx, frame.scope);
+    }
+
+    /**
+     * Returns the inline cache of the name lookup instruction at frame.pc
+     * and moves past its operand.
+     */
+    private static NameCache getNameCache(CallFrame frame, byte[] iCode)
+    {
+        int index = getIndex(iCode, frame.pc);
+        frame.pc += 2;
+        if (index == NO_CACHE) {
+            return NameCache.UNCACHED;
+        }
+        InterpreterData idata = frame.idata;
+        NameCache[] caches = idata.itsNameCaches;
+        if (caches == null) {
+            // Racing threads may each create caches, only one set is kept
+            caches = new NameCache[idata.itsNameCacheCount];
+            idata.itsNameCaches = caches;
+        }
+        NameCache cache = caches[index];
+        if (cache == null) {
+            cache = new NameCache();
+            caches[index] = cache;
+        }
+        return cache;
+    }
+
     private static int getShort(byte[] iCode, int pc) {
         return (iCode[pc] << 8) | (iCode[pc + 1] & 0xFF);
     }
@@ -2000,6 +2259,18 @@ public class Interpreter implements Evaluator
                 pc += 2;
                 break;
               }
+              case Token.GETPROP :
+              case Token.GETPROPNOWARN :
+              case Token.SETPROP :
+              case Icode_PROP_AND_THIS :
+              case Token.NAME :
+              case Icode_NAME_AND_THIS : {
+                int cache = getIndex(iCode, pc);
+                out.println(tname + " cache " + cache);
+                pc += 2;
+                break;
+              }
+
               case Icode_VAR_INC_DEC :
               case Icode_NAME_INC_DEC :
               case Icode_PROP_INC_DEC :
@@ -2196,6 +2467,15 @@ public class Interpreter implements Evaluator
                 // line number
                 return 1 + 1 + 1 + 2;
 
+            case Token.GETPROP :
+            case Token.GETPROPNOWARN :
+            case Token.SETPROP :
+            case Icode_PROP_AND_THIS :
+            case Token.NAME :
+            case Icode_NAME_AND_THIS :
+                // inline cache index
+                return 1 + 2;
+
             case Token.CATCH_SCOPE:
                 // scope flag
                 return 1 + 1;
@@ -3015,16 +3295,12 @@ switch (op) {
         stack[stackTop] = ScriptRuntime.delete(lhs, rhs, cx);
         continue Loop;
     }
-    case Token.GETPROPNOWARN : {
-        Object lhs = stack[stackTop];
-        if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.getObjectPropNoWarn(lhs, stringReg, cx);
-        continue Loop;
-    }
+    case Token.GETPROPNOWARN :
     case Token.GETPROP : {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg, cx);
+        stack[stackTop] = getObjectProp(frame, iCode, lhs, stringReg, cx,
+                                        op == Token.GETPROP);
         continue Loop;
     }
     case Token.SETPROP : {
@@ -3033,8 +3309,8 @@ switch (op) {
         --stackTop;
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.setObjectProp(lhs, stringReg, rhs,
-                                                      cx);
+        stack[stackTop] = setObjectProp(frame, iCode, lhs, stringReg, rhs,
+                                        cx);
         continue Loop;
     }
     case Icode_PROP_INC_DEC : {
@@ -3047,40 +3323,12 @@ switch (op) {
     }
     case Token.GETELEM : {
         --stackTop;
-        Object lhs = stack[stackTop];
-        if (lhs == DBL_MRK) {
-            lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        }
-        Object value;
-        Object id = stack[stackTop + 1];
-        if (id != DBL_MRK) {
-            value = ScriptRuntime.getObjectElem(lhs, id, cx);
-        } else {
-            double d = sDbl[stackTop + 1];
-            value = ScriptRuntime.getObjectIndex(lhs, d, cx);
-        }
-        stack[stackTop] = value;
+        getElem(stack, sDbl, stackTop, cx);
         continue Loop;
     }
     case Token.SETELEM : {
         stackTop -= 2;
-        Object rhs = stack[stackTop + 2];
-        if (rhs == DBL_MRK) {
-            rhs = ScriptRuntime.wrapNumber(sDbl[stackTop + 2]);
-        }
-        Object lhs = stack[stackTop];
-        if (lhs == DBL_MRK) {
-            lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        }
-        Object value;
-        Object id = stack[stackTop + 1];
-        if (id != DBL_MRK) {
-            value = ScriptRuntime.setObjectElem(lhs, id, rhs, cx);
-        } else {
-            double d = sDbl[stackTop + 1];
-            value = ScriptRuntime.setObjectIndex(lhs, d, rhs, cx);
-        }
-        stack[stackTop] = value;
+        setElem(stack, sDbl, stackTop, cx);
         continue Loop;
     }
     case Icode_ELEM_INC_DEC: {
@@ -3131,8 +3379,7 @@ switch (op) {
     case Icode_NAME_AND_THIS :
         // stringReg: name
         ++stackTop;
-        stack[stackTop] = ScriptRuntime.getNameFunctionAndThis(stringReg,
-                                                               cx, frame.scope);
+        stack[stackTop] = getNameFunctionAndThis(frame, iCode, stringReg, cx);
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
         continue Loop;
@@ -3140,8 +3387,8 @@ switch (op) {
         Object obj = stack[stackTop];
         if (obj == DBL_MRK) obj = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         // stringReg: property
-        stack[stackTop] = ScriptRuntime.getPropFunctionAndThis(obj, stringReg,
-                                                               cx);
+        stack[stackTop] = getPropFunctionAndThis(frame, iCode, obj, stringReg,
+                                                 cx);
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
         continue Loop;
@@ -3407,7 +3654,7 @@ switch (op) {
         sDbl[stackTop] = frame.idata.itsDoubleTable[indexReg];
         continue Loop;
     case Token.NAME :
-        stack[++stackTop] = ScriptRuntime.name(cx, frame.scope, stringReg);
+        stack[++stackTop] = name(frame, iCode, stringReg, cx);
         continue Loop;
     case Icode_NAME_INC_DEC :
         stack[++stackTop] = ScriptRuntime.nameIncrDecr(frame.scope, stringReg,
@@ -4663,14 +4910,14 @@ switch (op) {
         } else {
             if (lhs instanceof Scriptable || rhs instanceof Scriptable) {
                 stack[stackTop] = ScriptRuntime.add(lhs, rhs, cx);
-            } else if (lhs instanceof String) {
-                String lstr = (String)lhs;
-                String rstr = ScriptRuntime.toString(rhs);
-                stack[stackTop] = lstr.concat(rstr);
-            } else if (rhs instanceof String) {
-                String lstr = ScriptRuntime.toString(lhs);
-                String rstr = (String)rhs;
-                stack[stackTop] = lstr.concat(rstr);
+            } else if (lhs instanceof CharSequence) {
+                CharSequence lstr = (CharSequence)lhs;
+                CharSequence rstr = ScriptRuntime.toCharSequence(rhs);
+                stack[stackTop] = ConsString.concat(lstr, rstr);
+            } else if (rhs instanceof CharSequence) {
+                CharSequence lstr = ScriptRuntime.toCharSequence(lhs);
+                CharSequence rstr = (CharSequence)rhs;
+                stack[stackTop] = ConsString.concat(lstr, rstr);
             } else {
                 double lDbl = (lhs instanceof Number)
                     ? ((Number)lhs).doubleValue() : ScriptRuntime.toNumber(lhs);
@@ -4691,13 +4938,13 @@ switch (op) {
                 rhs = tmp;
             }
             stack[stackTop] = ScriptRuntime.add(lhs, rhs, cx);
-        } else if (lhs instanceof String) {
-            String lstr = (String)lhs;
-            String rstr = ScriptRuntime.toString(d);
+        } else if (lhs instanceof CharSequence) {
+            CharSequence lstr = (CharSequence)lhs;
+            CharSequence rstr = ScriptRuntime.toString(d);
             if (leftRightOrder) {
-                stack[stackTop] = lstr.concat(rstr);
+                stack[stackTop] = ConsString.concat(lstr, rstr);
             } else {
-                stack[stackTop] = rstr.concat(lstr);
+                stack[stackTop] = ConsString.concat(rstr, lstr);
             }
         } else {
             double lDbl = (lhs instanceof Number)
@@ -104,6 +104,15 @@ final class InterpreterData implements Serializable, DebuggableScript
 
     int itsMaxCalleeArgs;
 
+    // Property access instructions have the index of their inline cache as
+    // operand, the caches are created when the instructions first run
+    int itsPropertyCacheCount;
+    transient PropertyCache[] itsPropertyCaches;
+
+    // The same for name lookups
+    int itsNameCacheCount;
+    transient NameCache[] itsNameCaches;
+
     String encodedSource;
     int encodedSourceStart;
     int encodedSourceEnd;
@@ -0,0 +1,239 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *   Norris Boyd
+ *   Igor Bukanov
+ *   Bob Jervis
+ *   Roger Lawrence
+ *   Mike McCabe
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+
+package org.mozilla.nb.javascript;
+
+/**
+ * Inline cache of a name lookup instruction of the interpreter. The cache
+ * keeps the slots the name resolved to in the scopes the instruction ran in,
+ * so looking the name up again in the same scope reads the slot instead of
+ * searching every scope up to the top-level one.
+ * <p>
+ * The activation of a function is created for each call, lookups from it
+ * are cached from its parent scope and still search the activation first.
+ * Scopes of with statements, objects of other classes and properties with
+ * getters or setters always take the generic path. Entries depend on
+ * {@link ScriptableObject#getLookupVersion()}, which changes when a scope
+ * passed by the lookup gains, loses or replaces a property.
+ */
+final class NameCache
+{
+    // Instructions running in more scopes stop caching
+    private static final int MAX_ENTRIES = 4;
+
+    /**
+     * Cache of instructions past the maximal number of caches per function,
+     * it never caches.
+     */
+    static final NameCache UNCACHED = new NameCache();
+
+    static {
+        UNCACHED.megamorphic = true;
+    }
+
+    private static final class Entry
+    {
+        final Scriptable scope;
+        final int version;
+        final ScriptableObject.Slot slot;
+        // The thisObj of calling the value by name
+        final Scriptable thisObj;
+
+        Entry(Scriptable scope, int version, ScriptableObject.Slot slot,
+              Scriptable thisObj)
+        {
+            this.scope = scope;
+            this.version = version;
+            this.slot = slot;
+            this.thisObj = thisObj;
+        }
+    }
+
+    // Replaced as a whole, threads sharing the code see complete entries.
+    // Null while empty, as caches are published to other threads by races.
+    private volatile Entry[] entries;
+    private boolean megamorphic;
+
+    /**
+     * Returns the value of name in scope, where function runs, or
+     * {@link Scriptable#NOT_FOUND} when the generic lookup has to be used.
+     */
+    Object get(Context cx, Scriptable scope, NativeFunction function,
+               String name)
+    {
+        if (isActivation(scope, function)) {
+            Object value = scope.get(name, scope);
+            if (value != Scriptable.NOT_FOUND)
+                return value;
+            scope = scope.getParentScope();
+        }
+        Entry e = find(cx, scope, name);
+        return e != null ? e.slot.value : Scriptable.NOT_FOUND;
+    }
+
+    /**
+     * Returns the function name refers to in scope, where function runs,
+     * and stores its thisObj in cx.scratchScriptable, or returns null when
+     * the generic lookup has to be used.
+     */
+    Callable getFunctionAndThis(Context cx, Scriptable scope,
+                                NativeFunction function, String name)
+    {
+        if (isActivation(scope, function)) {
+            if (scope.has(name, scope))
+                return null;
+            scope = scope.getParentScope();
+        }
+        Entry e = find(cx, scope, name);
+        if (e == null)
+            return null;
+        Object value = e.slot.value;
+        if (!(value instanceof Callable))
+            return null;
+        cx.scratchScriptable = e.thisObj;
+        return (Callable)value;
+    }
+
+    private static boolean isActivation(Scriptable scope,
+                                        NativeFunction function)
+    {
+        return scope instanceof NativeCall
+               && ((NativeCall)scope).function == function;
+    }
+
+    private Entry find(Context cx, Scriptable scope, String name)
+    {
+        // The top-level scope depends on the caller then
+        if (cx.useDynamicScope)
+            return null;
+        Entry[] entries = this.entries;
+        if (entries != null) {
+            int version = ScriptableObject.getLookupVersion();
+            for (int i = 0; i != entries.length; ++i) {
+                Entry e = entries[i];
+                if (e.scope == scope && e.version == version)
+                    return e;
+            }
+        }
+        return lookup(scope, name);
+    }
+
+    private Entry lookup(Scriptable scope, String name)
+    {
+        if (megamorphic)
+            return null;
+        int version = ScriptableObject.getLookupVersion();
+        Scriptable obj = scope;
+        for (;;) {
+            if (!isPlain(obj))
+                return null;
+            ScriptableObject level = (ScriptableObject)obj;
+            level.setLookupCached();
+            Scriptable parent = level.getParentScope();
+            ScriptableObject.Slot slot = level.querySlot(name);
+            if (slot != null) {
+                if (slot instanceof ScriptableObject.GetterSlot)
+                    return null;
+                // See ScriptRuntime.nameOrFunction
+                Scriptable thisObj = level instanceof NativeCall
+                                     ? ScriptableObject.getTopLevelScope(parent)
+                                     : level;
+                Entry e = new Entry(scope, version, slot, thisObj);
+                add(e);
+                return e;
+            }
+            // Scopes other than activations search their prototypes too
+            if (parent == null
+                || (!(level instanceof NativeCall)
+                    && level.getPrototype() != null))
+            {
+                return null;
+            }
+            obj = parent;
+        }
+    }
+
+    /**
+     * Returns true if obj keeps its named properties in slots of
+     * ScriptableObject only, where the cache can follow them.
+     */
+    private static boolean isPlain(Scriptable obj)
+    {
+        Class<?> c = obj.getClass();
+        if (c != NativeCall.class && c != NativeObject.class)
+            return false;
+        IdScriptableObject o = (IdScriptableObject)obj;
+        return !o.hasPrototypeMap() && o.getShape() == null;
+    }
+
+    private void add(Entry entry)
+    {
+        Entry[] entries = this.entries;
+        if (entries == null) {
+            this.entries = new Entry[] { entry };
+            return;
+        }
+        int n = 0;
+        Entry[] newEntries = new Entry[entries.length + 1];
+        for (int i = 0; i != entries.length; ++i) {
+            Entry e = entries[i];
+            // Entries of scopes that changed are dropped
+            if (e.version == entry.version)
+                newEntries[n++] = e;
+        }
+        if (n == MAX_ENTRIES) {
+            // Keep the entries there are
+            megamorphic = true;
+        } else {
+            newEntries[n++] = entry;
+        }
+        if (n != newEntries.length) {
+            Entry[] tmp = new Entry[n];
+            System.arraycopy(newEntries, 0, tmp, 0, n);
+            newEntries = tmp;
+        }
+        this.entries = newEntries;
+    }
+}
@@ -41,6 +41,7 @@
 package org.mozilla.nb.javascript;
 
 import java.util.Arrays;
+import java.util.Comparator;
 
 /**
  * This class implements the Array native object.
@@ -84,11 +85,16 @@ public class NativeArray extends IdScriptableObject
     {
         denseOnly = lengthArg <= maximumInitialCapacity;
         if (denseOnly) {
-            int intLength = (int) lengthArg;
-            if (intLength < DEFAULT_INITIAL_CAPACITY)
-                intLength = DEFAULT_INITIAL_CAPACITY;
-            dense = new Object[intLength];
-            Arrays.fill(dense, Scriptable.NOT_FOUND);
+            if (lengthArg == 0) {
+                // The first element decides the store
+                doubles = EMPTY_DOUBLES;
+            } else {
+                int intLength = (int) lengthArg;
+                if (intLength < DEFAULT_INITIAL_CAPACITY)
+                    intLength = DEFAULT_INITIAL_CAPACITY;
+                doubles = new double[intLength];
+                Arrays.fill(doubles, HOLE);
+            }
         }
         length = lengthArg;
     }
@@ -96,10 +102,91 @@ public class NativeArray extends IdScriptableObject
     public NativeArray(Object[] array)
     {
         denseOnly = true;
-        dense = array;
+        doubles = toDoubles(array);
+        if (doubles == null)
+            dense = array;
         length = array.length;
     }
 
+    /**
+     * Returns the numbers of array, with holes for NOT_FOUND, or null if
+     * array has elements of other types.
+     */
+    private static double[] toDoubles(Object[] array)
+    {
+        if (array.length == 0)
+            return EMPTY_DOUBLES;
+        double[] d = new double[array.length];
+        for (int i = 0; i != array.length; ++i) {
+            Object value = array[i];
+            if (value instanceof Double) {
+                d[i] = toElement(((Double)value).doubleValue());
+            } else if (value == NOT_FOUND) {
+                d[i] = HOLE;
+            } else {
+                return null;
+            }
+        }
+        return d;
+    }
+
+    // Other NaNs than HOLE are stored as one
+    private static double toElement(double value)
+    {
+        return value == value ? value : ScriptRuntime.NaN;
+    }
+
+    static boolean isHole(double element)
+    {
+        return Double.doubleToRawLongBits(element) == HOLE_BITS;
+    }
+
+    /**
+     * Moves the elements of an array of numbers to dense, where they can be
+     * values of any type from now on.
+     */
+    private void convertToObjects()
+    {
+        double[] d = doubles;
+        Object[] objects = new Object[Math.max(d.length,
+                                               DEFAULT_INITIAL_CAPACITY)];
+        for (int i = 0; i != d.length; ++i) {
+            objects[i] = isHole(d[i]) ? NOT_FOUND
+                                      : ScriptRuntime.wrapNumber(d[i]);
+        }
+        Arrays.fill(objects, d.length, objects.length, NOT_FOUND);
+        dense = objects;
+        doubles = null;
+    }
+
+    /**
+     * Returns the number at index of an array of numbers, or a hole when
+     * the element has to be looked up by the generic get.
+     */
+    final double getNumber(int index)
+    {
+        double[] d = doubles;
+        if (d != null && 0 <= index && index < d.length)
+            return d[index];
+        return HOLE;
+    }
+
+    /**
+     * Replaces the number at index of an array of numbers and returns true,
+     * or returns false when the generic put is needed.
+     */
+    final boolean setNumber(int index, double value)
+    {
+        double[] d = doubles;
+        if (d != null && 0 <= index && index < d.length && !isHole(d[index])
+            && !isSealed())
+        {
+            d[index] = toElement(value);
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public String getClassName()
     {
@@ -328,6 +415,11 @@ public class NativeArray extends IdScriptableObject
     @Override
     public Object get(int index, Scriptable start)
     {
+        double[] d = doubles;
+        if (d != null && 0 <= index && index < d.length) {
+            double value = d[index];
+            return isHole(value) ? NOT_FOUND : ScriptRuntime.wrapNumber(value);
+        }
         if (!denseOnly && isGetterOrSetter(null, index, false))
             return super.get(index, start);
         if (dense != null && 0 <= index && index < dense.length)
@@ -338,6 +430,9 @@ public class NativeArray extends IdScriptableObject
     @Override
     public boolean has(int index, Scriptable start)
     {
+        double[] d = doubles;
+        if (d != null && 0 <= index && index < d.length)
+            return !isHole(d[index]);
         if (!denseOnly && isGetterOrSetter(null, index, false))
             return super.has(index, start);
         if (dense != null && 0 <= index && index < dense.length)
@@ -372,13 +467,29 @@ public class NativeArray extends IdScriptableObject
             long index = toArrayIndex(id);
             if (index >= length) {
                 length = index + 1;
-                denseOnly = false;
+                setDenseOnly(false);
             }
         }
     }
 
     private boolean ensureCapacity(int capacity)
     {
+        if (doubles != null) {
+            int size = doubles.length;
+            if (capacity <= size)
+                return true;
+            if (capacity > MAX_PRE_GROW_SIZE) {
+                setDenseOnly(false);
+                return false;
+            }
+            capacity = Math.max(capacity, (int)(size * GROW_FACTOR));
+            capacity = Math.max(capacity, DEFAULT_INITIAL_CAPACITY);
+            double[] newDoubles = new double[capacity];
+            System.arraycopy(doubles, 0, newDoubles, 0, size);
+            Arrays.fill(newDoubles, size, capacity, HOLE);
+            doubles = newDoubles;
+            return true;
+        }
         if (capacity > dense.length) {
             if (capacity > MAX_PRE_GROW_SIZE) {
                 denseOnly = false;
@@ -397,6 +508,22 @@ public class NativeArray extends IdScriptableObject
     @Override
     public void put(int index, Scriptable start, Object value)
     {
+        if (doubles != null && start == this && !isSealed() && 0 <= index) {
+            if (value instanceof Double) {
+                // Arrays made empty grow from their initial capacity
+                int size = Math.max(doubles.length, DEFAULT_INITIAL_CAPACITY);
+                if (index < doubles.length ||
+                    (index < size * GROW_FACTOR && ensureCapacity(index+1)))
+                {
+                    doubles[index] = toElement(((Double)value).doubleValue());
+                    if (this.length <= index)
+                        this.length = (long)index + 1;
+                    return;
+                }
+            }
+            if (doubles != null)
+                convertToObjects();
+        }
         if (start == this && !isSealed() && dense != null && 0 <= index &&
             (denseOnly || !isGetterOrSetter(null, index, true)))
         {
@@ -428,7 +555,11 @@ public class NativeArray extends IdScriptableObject
     @Override
     public void delete(int index)
     {
-        if (dense != null && 0 <= index && index < dense.length &&
+        if (doubles != null && 0 <= index && index < doubles.length &&
+            !isSealed())
+        {
+            doubles[index] = HOLE;
+        } else if (dense != null && 0 <= index && index < dense.length &&
             !isSealed() && (denseOnly || !isGetterOrSetter(null, index, true)))
         {
             dense[index] = NOT_FOUND;
@@ -441,8 +572,9 @@ public class NativeArray extends IdScriptableObject
     public Object[] getIds()
     {
         Object[] superIds = super.getIds();
-        if (dense == null) { return superIds; }
-        int N = dense.length;
+        double[] d = doubles;
+        if (dense == null && d == null) { return superIds; }
+        int N = d != null ? d.length : dense.length;
         long currentLength = length;
         if (N > currentLength) {
             N = (int)currentLength;
@@ -454,7 +586,7 @@ public class NativeArray extends IdScriptableObject
         int presentCount = 0;
         for (int i = 0; i != N; ++i) {
             // Replace existing elements by their indexes
-            if (dense[i] != NOT_FOUND) {
+            if (d != null ? !isHole(d[i]) : dense[i] != NOT_FOUND) {
                 ids[presentCount] = new Integer(i);
                 ++presentCount;
             }
@@ -528,6 +660,9 @@ public class NativeArray extends IdScriptableObject
     void setDenseOnly(boolean denseOnly) {
         if (denseOnly && !this.denseOnly)
             throw new IllegalArgumentException();
+        // Other stores than dense hold dense arrays only
+        if (!denseOnly && doubles != null)
+            convertToObjects();
         this.denseOnly = denseOnly;
     }
 
@@ -547,7 +682,11 @@ public class NativeArray extends IdScriptableObject
         if (denseOnly) {
             if (longVal < length) {
                 // downcast okay because denseOnly
-                Arrays.fill(dense, (int) longVal, dense.length, NOT_FOUND);
+                if (doubles != null) {
+                    Arrays.fill(doubles, (int) longVal, doubles.length, HOLE);
+                } else {
+                    Arrays.fill(dense, (int) longVal, dense.length, NOT_FOUND);
+                }
                 length = longVal;
                 return;
             } else if (longVal < MAX_PRE_GROW_SIZE &&
@@ -557,7 +696,7 @@ public class NativeArray extends IdScriptableObject
                 length = longVal;
                 return;
             } else {
-                denseOnly = false;
+                setDenseOnly(false);
             }
         }
         if (longVal < length) {
@@ -697,8 +836,8 @@ public class NativeArray extends IdScriptableObject
                     if (toSource) {
                         result.append(ScriptRuntime.uneval(cx, scope, elem));
 
-                    } else if (elem instanceof String) {
-                        String s = (String)elem;
+                    } else if (elem instanceof CharSequence) {
+                        String s = elem.toString();
                         if (toSource) {
                             result.append('\"');
                             result.append(ScriptRuntime.escapeString(s));
@@ -756,6 +895,19 @@ public class NativeArray extends IdScriptableObject
                            : ScriptRuntime.toString(args[0]);
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            double[] d = na.doubles;
+            if (d != null) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < length; i++) {
+                    if (i != 0) {
+                        sb.append(separator);
+                    }
+                    if (i < d.length && !isHole(d[i])) {
+                        sb.append(ScriptRuntime.toString(d[i]));
+                    }
+                }
+                return sb.toString();
+            }
             if (na.denseOnly) {
                 StringBuilder sb = new StringBuilder();
                 for (int i = 0; i < length; i++) {
@@ -810,6 +962,15 @@ public class NativeArray extends IdScriptableObject
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            double[] d = na.doubles;
+            if (d != null) {
+                for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
+                    double temp = d[i];
+                    d[i] = d[j];
+                    d[j] = temp;
+                }
+                return thisObj;
+            }
             if (na.denseOnly) {
                 for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
                     Object temp = na.dense[i];
@@ -854,37 +1015,180 @@ public class NativeArray extends IdScriptableObject
             compare = null;
             cmpBuf = null;
         }
-        if (thisObj instanceof NativeArray) {
-            NativeArray na = (NativeArray) thisObj;
-            if (na.denseOnly) {
-                int ilength = (int) length;
-                heapsort(cx, scope, na.dense, ilength, compare, cmpBuf);
-                return thisObj;
-            }
-        }
 
         // Should we use the extended sort function, or the faster one?
         if (length >= Integer.MAX_VALUE) {
             heapsort_extended(cx, scope, thisObj, length, compare, cmpBuf);
-        } else {
-            int ilength = (int)length;
-            // copy the JS array into a working array, so it can be
-            // sorted cheaply.
-            Object[] working = new Object[ilength];
-            for (int i = 0; i != ilength; ++i) {
+            return thisObj;
+        }
+        int ilength = (int)length;
+        NativeArray na = null;
+        double[] d = null;
+        Object[] dense = null;
+        if (thisObj instanceof NativeArray) {
+            na = (NativeArray) thisObj;
+            d = na.doubles;
+            if (na.denseOnly)
+                dense = na.dense;
+        }
+        if (d != null && compare instanceof InterpretedFunction &&
+            sortNumbers(d, ilength,
+                Interpreter.getSubtractionOrder((InterpretedFunction)compare)))
+        {
+            return thisObj;
+        }
+
+        // copy the JS array into a working array, so it can be
+        // sorted cheaply.
+        Object[] working = new Object[ilength];
+        for (int i = 0; i != ilength; ++i) {
+            if (d != null) {
+                working[i] = i >= d.length || isHole(d[i])
+                             ? NOT_FOUND : ScriptRuntime.wrapNumber(d[i]);
+            } else if (dense != null) {
+                working[i] = i < dense.length ? dense[i] : NOT_FOUND;
+            } else {
                 working[i] = getElem(cx, thisObj, i);
             }
+        }
 
-            heapsort(cx, scope, working, ilength, compare, cmpBuf);
+        // Values are sorted, followed by undefined and then by holes
+        int count = 0, undefinedCount = 0;
+        for (int i = 0; i != ilength; ++i) {
+            Object value = working[i];
+            if (value == Undefined.instance) {
+                ++undefinedCount;
+            } else if (value != NOT_FOUND) {
+                working[count++] = value;
+            }
+        }
+        sortValues(cx, scope, working, count, compare);
+        Arrays.fill(working, count, count + undefinedCount, Undefined.instance);
+        Arrays.fill(working, count + undefinedCount, ilength, NOT_FOUND);
 
-            // copy the working array back into thisObj
+        // copy the working array back into thisObj, the compare function
+        // may have changed its store
+        if (d != null && na.doubles == d && d.length >= ilength) {
             for (int i = 0; i != ilength; ++i) {
-                setElem(cx, thisObj, i, working[i]);
+                Object value = working[i];
+                d[i] = value == NOT_FOUND ? HOLE
+                                          : ((Double)value).doubleValue();
+            }
+        } else if (dense != null && na.dense == dense && na.denseOnly &&
+                   dense.length >= ilength)
+        {
+            System.arraycopy(working, 0, dense, 0, ilength);
+        } else {
+            for (int i = 0; i != ilength; ++i) {
+                if (working[i] == NOT_FOUND) {
+                    deleteElem(thisObj, i);
+                } else {
+                    setElem(cx, thisObj, i, working[i]);
+                }
             }
         }
         return thisObj;
     }
 
+    /**
+     * Sorts the first length elements of an array of numbers by a compare
+     * function returning the difference of its arguments, in ascending order
+     * for 1 and descending for -1. Returns false, leaving the elements, when
+     * order is 0 or when NaN or -0 could make the result depend on the
+     * calls to the function.
+     */
+    private static boolean sortNumbers(double[] d, int length, int order)
+    {
+        if (order == 0 || length > d.length)
+            return false;
+        int count = 0;
+        for (int i = 0; i != length; ++i) {
+            double value = d[i];
+            if (isHole(value))
+                continue;
+            if (value != value ||
+                Double.doubleToRawLongBits(value) == NEGATIVE_ZERO_BITS)
+                return false;
+            ++count;
+        }
+        // Holes move to the end, equal numbers can not be told apart
+        double[] numbers = new double[count];
+        count = 0;
+        for (int i = 0; i != length; ++i) {
+            if (!isHole(d[i]))
+                numbers[count++] = d[i];
+        }
+        Arrays.sort(numbers);
+        for (int i = 0; i != count; ++i) {
+            d[i] = order > 0 ? numbers[i] : numbers[count - 1 - i];
+        }
+        Arrays.fill(d, count, length, HOLE);
+        return true;
+    }
+
+    /**
+     * Sorts values other than undefined, calling the compare function
+     * only when the order can not be found without it.
+     */
+    private static void sortValues(final Context cx, final Scriptable scope,
+                                   Object[] values, int count, Object compare)
+    {
+        if (count <= 1)
+            return;
+        if (compare == null) {
+            // Strings are compared by themselves, other values by their
+            // strings, which are found once for each value
+            String[] keys = null;
+            for (int i = 0; i != count; ++i) {
+                if (!(values[i] instanceof String)) {
+                    keys = new String[count];
+                    break;
+                }
+            }
+            if (keys == null) {
+                Sorting.sort(values, null, count, Sorting.STRING_ORDER);
+                return;
+            }
+            for (int i = 0; i != count; ++i) {
+                keys[i] = ScriptRuntime.toString(values[i]);
+            }
+            Sorting.sort(keys, values, count, Sorting.STRING_ORDER);
+            return;
+        }
+        if (compare instanceof InterpretedFunction) {
+            int order = Interpreter.getSubtractionOrder(
+                            (InterpretedFunction)compare);
+            if (order != 0) {
+                double[] numbers = new double[count];
+                int n = 0;
+                while (n != count && values[n] instanceof Double) {
+                    numbers[n] = ((Double)values[n]).doubleValue();
+                    ++n;
+                }
+                if (n == count && sortNumbers(numbers, count, order)) {
+                    for (int i = 0; i != count; ++i) {
+                        values[i] = ScriptRuntime.wrapNumber(numbers[i]);
+                    }
+                    return;
+                }
+            }
+        }
+        final Callable fun = ScriptRuntime.getValueFunctionAndThis(compare, cx);
+        final Scriptable funThis = ScriptRuntime.lastStoredScriptable(cx);
+        final Object[] cmpBuf = new Object[2]; // Buffer for cmp arguments
+        Sorting.sort(values, null, count, new Comparator<Object>() {
+            public int compare(Object x, Object y)
+            {
+                cmpBuf[0] = x;
+                cmpBuf[1] = y;
+                Object ret = fun.call(cx, scope, funThis, cmpBuf);
+                double d = ScriptRuntime.toNumber(ret);
+                // Like in isBigger, NaN is taken as equal
+                return d > 0 ? 1 : d < 0 ? -1 : 0;
+            }
+        });
+    }
+
     // Return true only if x > y
     private static boolean isBigger(Context cx, Scriptable scope,
                                     Object x, Object y,
@@ -933,62 +1237,9 @@ public class NativeArray extends IdScriptableObject
         }
     }
 
-/** Heapsort implementation.
+/** Heapsort that calls getElem/setElem on target to query/assign
+ * array elements, for arrays too long to be copied to a Java array.
  * See "Introduction to Algorithms" by Cormen, Leiserson, Rivest for details.
- * Adjusted for zero based indexes.
- */
-    private static void heapsort(Context cx, Scriptable scope,
-                                 Object[] array, int length,
-                                 Object cmp, Object[] cmpBuf)
-    {
-        if (length <= 1) Kit.codeBug();
-
-        // Build heap
-        for (int i = length / 2; i != 0;) {
-            --i;
-            Object pivot = array[i];
-            heapify(cx, scope, pivot, array, i, length, cmp, cmpBuf);
-        }
-
-        // Sort heap
-        for (int i = length; i != 1;) {
-            --i;
-            Object pivot = array[i];
-            array[i] = array[0];
-            heapify(cx, scope, pivot, array, 0, i, cmp, cmpBuf);
-        }
-    }
-
-/** pivot and child heaps of i should be made into heap starting at i,
- * original array[i] is never used to have less array access during sorting.
- */
-    private static void heapify(Context cx, Scriptable scope,
-                                Object pivot, Object[] array, int i, int end,
-                                Object cmp, Object[] cmpBuf)
-    {
-        for (;;) {
-            int child = i * 2 + 1;
-            if (child >= end) {
-                break;
-            }
-            Object childVal = array[child];
-            if (child + 1 < end) {
-                Object nextVal = array[child + 1];
-                if (isBigger(cx, scope, nextVal, childVal, cmp, cmpBuf)) {
-                    ++child; childVal = nextVal;
-                }
-            }
-            if (!isBigger(cx, scope, childVal, pivot, cmp, cmpBuf)) {
-                break;
-            }
-            array[i] = childVal;
-            i = child;
-        }
-        array[i] = pivot;
-    }
-
-/** Version of heapsort that call getElem/setElem on target to query/assign
- * array elements instead of Java array access
  */
     private static void heapsort_extended(Context cx, Scriptable scope,
                                           Scriptable target, long length,
@@ -1047,9 +1298,24 @@ public class NativeArray extends IdScriptableObject
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.doubles != null) {
+                for (int i = 0; i < args.length; i++) {
+                    if (!(args[i] instanceof Double)) {
+                        na.convertToObjects();
+                        break;
+                    }
+                }
+            }
             if (na.denseOnly &&
                 na.ensureCapacity((int) na.length + args.length))
             {
+                if (na.doubles != null) {
+                    for (int i = 0; i < args.length; i++) {
+                        na.doubles[(int)na.length++] =
+                            toElement(((Double)args[i]).doubleValue());
+                    }
+                    return ScriptRuntime.wrapNumber(na.length);
+                }
                 for (int i = 0; i < args.length; i++) {
                     na.dense[(int)na.length++] = args[i];
                 }
@@ -1084,6 +1350,14 @@ public class NativeArray extends IdScriptableObject
         Object result;
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            double[] d = na.doubles;
+            if (d != null && na.length > 0) {
+                na.length--;
+                double value = d[(int)na.length];
+                d[(int)na.length] = HOLE;
+                return isHole(value) ? Undefined.instance
+                                     : ScriptRuntime.wrapNumber(value);
+            }
             if (na.denseOnly && na.length > 0) {
                 na.length--;
                 result = na.dense[(int)na.length];
@@ -1115,6 +1389,15 @@ public class NativeArray extends IdScriptableObject
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            double[] d = na.doubles;
+            if (d != null && na.length > 0) {
+                na.length--;
+                double value = d[0];
+                System.arraycopy(d, 1, d, 0, (int)na.length);
+                d[(int)na.length] = HOLE;
+                return isHole(value) ? Undefined.instance
+                                     : ScriptRuntime.wrapNumber(value);
+            }
             if (na.denseOnly && na.length > 0) {
                 na.length--;
                 Object result = na.dense[0];
@@ -1156,6 +1439,8 @@ public class NativeArray extends IdScriptableObject
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.doubles != null)
+                na.convertToObjects();
             if (na.denseOnly &&
                 na.ensureCapacity((int)na.length + args.length))
             {
@@ -1199,6 +1484,8 @@ public class NativeArray extends IdScriptableObject
     	boolean denseMode = false;
         if (thisObj instanceof NativeArray) {
             na = (NativeArray) thisObj;
+            if (na.doubles != null)
+                na.convertToObjects();
             denseMode = na.denseOnly;
         }
 
@@ -1315,6 +1602,20 @@ public class NativeArray extends IdScriptableObject
         return result;
     }
 
+    // Copies the elements of a dense array to target at offset
+    private void copyDense(Object[] target, int offset)
+    {
+        if (doubles == null) {
+            System.arraycopy(dense, 0, target, offset, (int)length);
+            return;
+        }
+        for (int i = 0; i != (int)length; ++i) {
+            double value = doubles[i];
+            target[offset + i] = isHole(value) ? NOT_FOUND
+                                               : ScriptRuntime.wrapNumber(value);
+        }
+    }
+
     /*
      * See Ecma 262v3 15.4.4.4
      */
@@ -1342,16 +1643,15 @@ public class NativeArray extends IdScriptableObject
                         length++;
                     }
                 }
+                if (canUseDense && denseResult.doubles != null)
+                    denseResult.convertToObjects();
                 if (canUseDense && denseResult.ensureCapacity(length)) {
-                    System.arraycopy(denseThis.dense, 0, denseResult.dense,
-                                     0, (int) denseThis.length);
+                    denseThis.copyDense(denseResult.dense, 0);
                     int cursor = (int) denseThis.length;
                     for (int i = 0; i < args.length && canUseDense; i++) {
                         if (args[i] instanceof NativeArray) {
                             NativeArray arg = (NativeArray) args[i];
-                            System.arraycopy(arg.dense, 0,
-                                    denseResult.dense, cursor,
-                                    (int)arg.length);
+                            arg.copyDense(denseResult.dense, cursor);
                             cursor += (int)arg.length;
                         } else {
                             denseResult.dense[cursor++] = args[i];
@@ -1507,6 +1807,25 @@ public class NativeArray extends IdScriptableObject
         }
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            double[] d = na.doubles;
+            if (d != null) {
+                // Numbers are equal to numbers only, holes are NaN
+                if (!(compareTo instanceof Number))
+                    return NEGATIVE_ONE;
+                double number = ((Number)compareTo).doubleValue();
+                if (isLast) {
+                  for (int i=(int)start; i >= 0; i--) {
+                      if (d[i] == number)
+                          return Long.valueOf(i);
+                  }
+                } else {
+                  for (int i=(int)start; i < length; i++) {
+                      if (d[i] == number)
+                          return Long.valueOf(i);
+                  }
+                }
+                return NEGATIVE_ONE;
+            }
             if (na.denseOnly) {
                 if (isLast) {
                   for (int i=(int)start; i >= 0; i--) {
@@ -1722,10 +2041,26 @@ public class NativeArray extends IdScriptableObject
     private Object[] dense;
 
     /**
-     * True if all numeric properties are stored in <code>dense</code>.
+     * Storage of dense arrays that have held numbers only, dense is null
+     * while it is used. The first store of another value moves the elements
+     * to dense.
+     */
+    private double[] doubles;
+
+    /**
+     * True if all numeric properties are stored in <code>dense</code> or
+     * <code>doubles</code>.
      */
     private boolean denseOnly;
 
+    // Element of doubles without a value, a NaN arithmetic does not produce
+    private static final long HOLE_BITS = 0x7ff8000000000001L;
+    private static final double HOLE = Double.longBitsToDouble(HOLE_BITS);
+
+    private static final double[] EMPTY_DOUBLES = new double[0];
+
+    private static final long NEGATIVE_ZERO_BITS = 0x8000000000000000L;
+
     /**
      * The maximum size of <code>dense</code> that will be allocated initially.
      */
@@ -58,6 +58,19 @@ public class NativeObject extends IdScriptableObject
         obj.exportAsJSClass(MAX_PROTOTYPE_ID, scope, sealed);
     }
 
+    /**
+     * Creates an object for script code, see
+     * {@link Context#FEATURE_OBJECT_SHAPES}.
+     */
+    static NativeObject create(Context cx)
+    {
+        NativeObject obj = new NativeObject();
+        if (cx.hasFeature(Context.FEATURE_OBJECT_SHAPES)) {
+            obj.useShapes();
+        }
+        return obj;
+    }
+
     @Override
     public String getClassName()
     {
@@ -115,7 +128,7 @@ public class NativeObject extends IdScriptableObject
             if (args.length == 0 || args[0] == null
                 || args[0] == Undefined.instance)
             {
-                return new NativeObject();
+                return create(cx);
             }
             return ScriptRuntime.toObject(cx, scope, args[0]);
           }
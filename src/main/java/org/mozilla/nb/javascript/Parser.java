@@ -3328,6 +3328,10 @@ Node pn = null;
                                 if (!getterSetterProperty(elems, property,
                                                           true))
                                     break commaloop;
+                                // <netbeans>
+                                nameNodes.add(new Node.LabelledNode(s,
+                                    (Node) elems.get(elems.size()-1)));
+                                // </netbeans>
                                 break;
                             } else if (s.equals("set") &&
                                        peekToken() == Token.NAME) {
@@ -3339,6 +3343,10 @@ Node pn = null;
                                 if (!getterSetterProperty(elems, property,
                                                           false))
                                     break commaloop;
+                                // <netbeans>
+                                nameNodes.add(new Node.LabelledNode(s,
+                                    (Node) elems.get(elems.size()-1)));
+                                // </netbeans>
                                 break;
                             }
                             decompiler.addName(s);
@@ -3622,8 +3630,12 @@ Node pn = null;
             reportError("msg.bad.prop");
             return false;
         }
-        int fnIndex = f.getExistingIntProp(Node.FUNCTION_PROP);
-        FunctionNode fn = currentScriptOrFn.getFunctionNode(fnIndex);
+        // <netbeans>
+        // Function nodes are added to the AST directly, see initFunction()
+        //int fnIndex = f.getExistingIntProp(Node.FUNCTION_PROP);
+        //FunctionNode fn = currentScriptOrFn.getFunctionNode(fnIndex);
+        FunctionNode fn = (FunctionNode)f;
+        // </netbeans>
         if (fn.getFunctionName().length() != 0) {
             reportError("msg.bad.prop");
             return false;
@@ -3767,6 +3779,10 @@ Node pn = null;
                                 if (!getterSetterProperty(elems, property,
                                                           true))
                                     break commaloop;
+                                // <netbeans>
+                                nameNodes.add(new Node.LabelledNode(s,
+                                    (Node) elems.get(elems.size()-1)));
+                                // </netbeans>
                                 break;
                             } else if (s.equals("set") &&
                                        peekToken() == Token.NAME) {
@@ -3778,6 +3794,10 @@ Node pn = null;
                                 if (!getterSetterProperty(elems, property,
                                                           false))
                                     break commaloop;
+                                // <netbeans>
+                                nameNodes.add(new Node.LabelledNode(s,
+                                    (Node) elems.get(elems.size()-1)));
+                                // </netbeans>
                                 break;
                             }
                             decompiler.addName(s);
@@ -0,0 +1,294 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *   Norris Boyd
+ *   Igor Bukanov
+ *   Bob Jervis
+ *   Roger Lawrence
+ *   Mike McCabe
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.mozilla.nb.javascript;
+
+/**
+ * Inline cache of a property access instruction of the interpreter. The cache
+ * keeps the layouts of the receivers seen at the instruction with the place
+ * of the property, so accessing it again on an object with the same
+ * {@link Shape} reads or writes an array element instead of looking the
+ * name up along the prototype chain.
+ * <p>
+ * Only chains of plain objects are cached, other receivers and properties
+ * with getters or setters always take the generic path. Entries for
+ * properties of prototypes also depend on the prototype of the receiver and
+ * on {@link ScriptableObject#getLookupVersion()}.
+ */
+final class PropertyCache
+{
+    // Instructions seeing more layouts stop caching
+    private static final int MAX_ENTRIES = 4;
+
+    /**
+     * Cache of instructions past the maximal number of caches per function,
+     * it never caches.
+     */
+    static final PropertyCache UNCACHED = new PropertyCache();
+
+    static {
+        UNCACHED.megamorphic = true;
+    }
+
+    private static final class Entry
+    {
+        // Layout of the receiver, which does not have the property when
+        // prototype is set
+        final Shape shape;
+        final Scriptable prototype;
+        final int version;
+        // Where the value is: in the values of the receiver or holder at
+        // index, or in slot
+        final ScriptableObject holder;
+        final int index;
+        final ScriptableObject.Slot slot;
+        // The layout of the receiver with the property added
+        final Shape next;
+
+        Entry(Shape shape, Scriptable prototype, int version,
+              ScriptableObject holder, int index, ScriptableObject.Slot slot,
+              Shape next)
+        {
+            this.shape = shape;
+            this.prototype = prototype;
+            this.version = version;
+            this.holder = holder;
+            this.index = index;
+            this.slot = slot;
+            this.next = next;
+        }
+    }
+
+    // Replaced as a whole, threads sharing the code see complete entries.
+    // Null while empty, as caches are published to other threads by races.
+    private volatile Entry[] entries;
+    private boolean megamorphic;
+
+    /**
+     * Returns the value of the named property of obj or
+     * {@link Scriptable#NOT_FOUND} when the generic lookup has to be used.
+     */
+    Object get(Object obj, String name)
+    {
+        if (!(obj instanceof ScriptableObject))
+            return Scriptable.NOT_FOUND;
+        ScriptableObject receiver = (ScriptableObject)obj;
+        Shape shape = receiver.getShape();
+        if (shape == null)
+            return Scriptable.NOT_FOUND;
+        Entry[] entries = this.entries;
+        int n = entries == null ? 0 : entries.length;
+        for (int i = 0; i != n; ++i) {
+            Entry e = entries[i];
+            if (e.shape == shape && e.next == null) {
+                if (e.prototype == null)
+                    return valueAt(receiver, e.index);
+                if (e.prototype == receiver.getPrototype()
+                    && e.version == ScriptableObject.getLookupVersion())
+                {
+                    return e.slot != null ? e.slot.value
+                                          : valueAt(e.holder, e.index);
+                }
+            }
+        }
+        return lookup(receiver, shape, name);
+    }
+
+    /**
+     * Sets the named property of obj or returns false when the generic
+     * path has to be used.
+     */
+    boolean put(Object obj, String name, Object value)
+    {
+        if (!(obj instanceof ScriptableObject))
+            return false;
+        ScriptableObject receiver = (ScriptableObject)obj;
+        Shape shape = receiver.getShape();
+        if (shape == null)
+            return false;
+        Entry[] entries = this.entries;
+        int n = entries == null ? 0 : entries.length;
+        for (int i = 0; i != n; ++i) {
+            Entry e = entries[i];
+            if (e.shape != shape)
+                continue;
+            if (e.next == null) {
+                if (e.prototype == null) {
+                    Object[] values = receiver.getShapeValues();
+                    if (values != null && e.index < values.length) {
+                        values[e.index] = value;
+                        return true;
+                    }
+                    return false;
+                }
+            } else if (e.prototype == receiver.getPrototype()
+                       && e.version == ScriptableObject.getLookupVersion())
+            {
+                return receiver.addShapeProperty(shape, e.next, value);
+            }
+        }
+        return store(receiver, shape, name, value);
+    }
+
+    private static Object valueAt(ScriptableObject obj, int index)
+    {
+        Object[] values = obj.getShapeValues();
+        // The object may have left shapes in another thread
+        if (values == null || index >= values.length)
+            return Scriptable.NOT_FOUND;
+        return values[index];
+    }
+
+    private Object lookup(ScriptableObject receiver, Shape shape, String name)
+    {
+        if (megamorphic)
+            return Scriptable.NOT_FOUND;
+        int index = shape.indexOf(name);
+        if (index >= 0) {
+            add(new Entry(shape, null, 0, null, index, null, null));
+            return valueAt(receiver, index);
+        }
+        int version = ScriptableObject.getLookupVersion();
+        Scriptable prototype = receiver.getPrototype();
+        for (Scriptable obj = prototype; obj != null; obj = obj.getPrototype()) {
+            if (!isPlain(obj, name))
+                return Scriptable.NOT_FOUND;
+            ScriptableObject holder = (ScriptableObject)obj;
+            holder.setLookupCached();
+            Shape holderShape = holder.getShape();
+            if (holderShape != null) {
+                index = holderShape.indexOf(name);
+                if (index >= 0) {
+                    add(new Entry(shape, prototype, version, holder, index,
+                                  null, null));
+                    return valueAt(holder, index);
+                }
+            } else {
+                ScriptableObject.Slot slot = holder.querySlot(name);
+                if (slot != null) {
+                    if (slot instanceof ScriptableObject.GetterSlot)
+                        return Scriptable.NOT_FOUND;
+                    add(new Entry(shape, prototype, version, holder, 0, slot,
+                                  null));
+                    return slot.value;
+                }
+            }
+        }
+        return Scriptable.NOT_FOUND;
+    }
+
+    private boolean store(ScriptableObject receiver, Shape shape, String name,
+                          Object value)
+    {
+        if (megamorphic)
+            return false;
+        int index = shape.indexOf(name);
+        if (index >= 0) {
+            add(new Entry(shape, null, 0, null, index, null, null));
+            return false;
+        }
+        // Adding the property is cached when no prototype has it, setters
+        // and read-only properties of prototypes would apply instead
+        int version = ScriptableObject.getLookupVersion();
+        Scriptable prototype = receiver.getPrototype();
+        for (Scriptable obj = prototype; obj != null; obj = obj.getPrototype()) {
+            if (!isPlain(obj, name))
+                return false;
+            ScriptableObject holder = (ScriptableObject)obj;
+            holder.setLookupCached();
+            Shape holderShape = holder.getShape();
+            if (holderShape != null ? holderShape.indexOf(name) >= 0
+                                    : holder.querySlot(name) != null)
+            {
+                return false;
+            }
+        }
+        Shape next = shape.addProperty(name);
+        if (next == null)
+            return false;
+        add(new Entry(shape, prototype, version, null, 0, null, next));
+        return receiver.addShapeProperty(shape, next, value);
+    }
+
+    /**
+     * Returns true if obj keeps its named properties in shapes or slots of
+     * ScriptableObject only, where the cache can follow them.
+     */
+    private static boolean isPlain(Scriptable obj, String name)
+    {
+        if (obj.getClass() != NativeObject.class)
+            return false;
+        NativeObject o = (NativeObject)obj;
+        return !o.hasPrototypeMap() || o.findPrototypeId(name) == 0;
+    }
+
+    private void add(Entry entry)
+    {
+        Entry[] entries = this.entries;
+        if (entries == null) {
+            this.entries = new Entry[] { entry };
+            return;
+        }
+        int version = ScriptableObject.getLookupVersion();
+        int n = 0;
+        Entry[] newEntries = new Entry[entries.length + 1];
+        for (int i = 0; i != entries.length; ++i) {
+            Entry e = entries[i];
+            // Entries of prototypes that changed are dropped
+            if (e.prototype == null || e.version == version)
+                newEntries[n++] = e;
+        }
+        if (n == MAX_ENTRIES) {
+            // Keep the entries there are
+            megamorphic = true;
+        } else {
+            newEntries[n++] = entry;
+        }
+        if (n != newEntries.length) {
+            Entry[] tmp = new Entry[n];
+            System.arraycopy(newEntries, 0, tmp, 0, n);
+            newEntries = tmp;
+        }
+        this.entries = newEntries;
+    }
+}
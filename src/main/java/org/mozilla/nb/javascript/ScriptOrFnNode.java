@@ -91,12 +91,6 @@ public class ScriptOrFnNode extends Node.Scope {
     }
 
     public final int addFunction(FunctionNode fnNode) {
-        // <netbeans>
-        if (true) {
-            // I'm adding the function nodes directly
-            return -1;
-        }
-        // </netbeans>
         if (fnNode == null) Kit.codeBug();
         if (functions == null) { functions = new ObjArray(); }
         functions.add(fnNode);
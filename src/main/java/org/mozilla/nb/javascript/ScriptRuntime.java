@@ -285,8 +285,8 @@ public class ScriptRuntime {
                 return ((Boolean) val).booleanValue();
             if (val == null || val == Undefined.instance)
                 return false;
-            if (val instanceof String)
-                return ((String) val).length() != 0;
+            if (val instanceof CharSequence)
+                return ((CharSequence) val).length() != 0;
             if (val instanceof Number) {
                 double d = ((Number) val).doubleValue();
                 return (d == d && d != 0.0);
@@ -326,8 +326,8 @@ public class ScriptRuntime {
                 return +0.0;
             if (val == Undefined.instance)
                 return NaN;
-            if (val instanceof String)
-                return toNumber((String) val);
+            if (val instanceof CharSequence)
+                return toNumber(val.toString());
             if (val instanceof Boolean)
                 return ((Boolean) val).booleanValue() ? 1 : +0.0;
             if (val instanceof Scriptable) {
@@ -517,6 +517,10 @@ public class ScriptRuntime {
      * See ECMA 9.3.1
      */
     public static double toNumber(String s) {
+        double value = decimalToNumber(s);
+        if (value == value) {
+            return value;
+        }
         int len = s.length();
         int start = 0;
         char startChar;
@@ -587,6 +591,66 @@ public class ScriptRuntime {
         }
     }
 
+    // Powers of ten that doubles represent exactly
+    private static final double[] exactPowersOfTen = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Fast path of toNumber for plain decimals like "-12" or "3.25",
+     * which are most strings scripts convert. Returns NaN for strings of
+     * other forms and for digits the computation would round, which the
+     * general conversion then handles.
+     * <p>
+     * The digits are read into a long without making a substring. When
+     * they fit the 53 bits of a double, dividing by an exact power of ten
+     * rounds once and gives the correct result.
+     */
+    private static double decimalToNumber(String s) {
+        int len = s.length();
+        int i = 0;
+        boolean negative = false;
+        if (len != 0) {
+            char c = s.charAt(0);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i = 1;
+            }
+        }
+        long digits = 0;
+        int digitCount = 0;
+        int fractionDigits = -1;
+        for (; i < len; i++) {
+            char c = s.charAt(i);
+            if ('0' <= c && c <= '9') {
+                if (digits >= (1L << 53) / 10) {
+                    return NaN;
+                }
+                digits = digits * 10 + (c - '0');
+                ++digitCount;
+                if (fractionDigits >= 0) {
+                    ++fractionDigits;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return NaN;
+            }
+        }
+        if (digitCount == 0) {
+            return NaN;
+        }
+        double value = digits;
+        if (fractionDigits > 0) {
+            if (fractionDigits >= exactPowersOfTen.length) {
+                return NaN;
+            }
+            value /= exactPowersOfTen[fractionDigits];
+        }
+        return negative ? -value : value;
+    }
+
     /**
      * Helper function for builtin objects that use the varargs form.
      * ECMA function formal arguments are undefined if not supplied;
@@ -711,8 +775,8 @@ public class ScriptRuntime {
             if (val == Undefined.instance) {
                 return "undefined";
             }
-            if (val instanceof String) {
-                return (String)val;
+            if (val instanceof CharSequence) {
+                return val.toString();
             }
             if (val instanceof Number) {
                 // XXX should we just teach NativeNumber.stringValue()
@@ -765,6 +829,11 @@ public class ScriptRuntime {
         if (base != 10) {
             return DToA.JS_dtobasestr(base, d);
         } else {
+            // DToA is exact but slow, it converts what FastDtoa cannot
+            String fast = FastDtoa.numberToString(d);
+            if (fast != null) {
+                return fast;
+            }
             StringBuffer result = new StringBuffer();
             DToA.JS_dtostr(result, DToA.DTOSTR_STANDARD, 0, d);
             return result.toString();
@@ -780,8 +849,8 @@ public class ScriptRuntime {
         if (value == Undefined.instance) {
             return "undefined";
         }
-        if (value instanceof String) {
-            String escaped = escapeString((String)value);
+        if (value instanceof CharSequence) {
+            String escaped = escapeString(value.toString());
             StringBuffer sb = new StringBuffer(escaped.length() + 2);
             sb.append('\"');
             sb.append(escaped);
@@ -930,7 +999,7 @@ public class ScriptRuntime {
         if (val == Undefined.instance) {
             throw typeError0("msg.undef.to.object");
         }
-        String className = val instanceof String ? "String" :
+        String className = val instanceof CharSequence ? "String" :
                            val instanceof Number ? "Number" :
                            val instanceof Boolean ? "Boolean" :
                            null;
@@ -2392,7 +2461,7 @@ public class ScriptRuntime {
         if (args.length < 1)
             return Undefined.instance;
         Object x = args[0];
-        if (!(x instanceof String)) {
+        if (!(x instanceof CharSequence)) {
             if (cx.hasFeature(Context.FEATURE_STRICT_MODE) ||
                 cx.hasFeature(Context.FEATURE_STRICT_EVAL))
             {
@@ -2425,7 +2494,7 @@ public class ScriptRuntime {
 
         // Compile with explicit interpreter instance to force interpreter
         // mode.
-        Script script = cx.compileString((String)x, evaluator,
+        Script script = cx.compileString(x.toString(), evaluator,
                                          reporter, sourceName, 1, null);
         evaluator.setEvalScriptFlag(script);
         Callable c = (Callable)script;
@@ -2452,7 +2521,7 @@ public class ScriptRuntime {
                 return "xml";
             return (value instanceof Callable) ? "function" : "object";
         }
-        if (value instanceof String)
+        if (value instanceof CharSequence)
             return "string";
         if (value instanceof Number)
             return "number";
@@ -2507,13 +2576,25 @@ public class ScriptRuntime {
             val1 = ((Scriptable) val1).getDefaultValue(null);
         if (val2 instanceof Scriptable)
             val2 = ((Scriptable) val2).getDefaultValue(null);
-        if (!(val1 instanceof String) && !(val2 instanceof String))
+        if (!(val1 instanceof CharSequence) && !(val2 instanceof CharSequence))
             if ((val1 instanceof Number) && (val2 instanceof Number))
                 return wrapNumber(((Number)val1).doubleValue() +
                                   ((Number)val2).doubleValue());
             else
                 return wrapNumber(toNumber(val1) + toNumber(val2));
-        return toString(val1).concat(toString(val2));
+        return ConsString.concat(toCharSequence(val1), toCharSequence(val2));
+    }
+
+    /**
+     * Converts the value to a string like toString, but leaves strings
+     * concatenated by {@link #add(Object, Object, Context)} unflattened.
+     */
+    public static CharSequence toCharSequence(Object val)
+    {
+        if (val instanceof ConsString) {
+            return (CharSequence)val;
+        }
+        return toString(val);
     }
 
     public static String add(String val1, Object val2) {
@@ -2704,8 +2785,8 @@ public class ScriptRuntime {
             return false;
         } else if (x instanceof Number) {
             return eqNumber(((Number)x).doubleValue(), y);
-        } else if (x instanceof String) {
-            return eqString((String)x, y);
+        } else if (x instanceof CharSequence) {
+            return eqString((CharSequence)x, y);
         } else if (x instanceof Boolean) {
             boolean b = ((Boolean)x).booleanValue();
             if (y instanceof Boolean) {
@@ -2757,8 +2838,8 @@ public class ScriptRuntime {
                 return eqNumber(d, x);
             } else if (y instanceof Number) {
                 return eqNumber(((Number)y).doubleValue(), x);
-            } else if (y instanceof String) {
-                return eqString((String)y, x);
+            } else if (y instanceof CharSequence) {
+                return eqString((CharSequence)y, x);
             }
             // covers the case when y == Undefined.instance as well
             return false;
@@ -2769,7 +2850,7 @@ public class ScriptRuntime {
     }
     
     private static boolean isPrimitive(Object obj) {
-        return (obj instanceof Number) || (obj instanceof String) ||
+        return (obj instanceof Number) || (obj instanceof CharSequence) ||
                (obj instanceof Boolean);
     }
 
@@ -2780,7 +2861,7 @@ public class ScriptRuntime {
                 return false;
             } else if (y instanceof Number) {
                 return x == ((Number)y).doubleValue();
-            } else if (y instanceof String) {
+            } else if (y instanceof CharSequence) {
                 return x == toNumber(y);
             } else if (y instanceof Boolean) {
                 return x == (((Boolean)y).booleanValue() ? 1.0 : +0.0);
@@ -2800,20 +2881,22 @@ public class ScriptRuntime {
         }
     }
 
-    private static boolean eqString(String x, Object y)
+    private static boolean eqString(CharSequence x, Object y)
     {
         for (;;) {
             if (y == null || y == Undefined.instance) {
                 return false;
-            } else if (y instanceof String) {
-                return x.equals(y);
+            } else if (y instanceof CharSequence) {
+                return eqString(x, (CharSequence)y);
             } else if (y instanceof Number) {
-                return toNumber(x) == ((Number)y).doubleValue();
+                return toNumber(x.toString()) == ((Number)y).doubleValue();
             } else if (y instanceof Boolean) {
-                return toNumber(x) == (((Boolean)y).booleanValue() ? 1.0 : 0.0);
+                return toNumber(x.toString()) ==
+                       (((Boolean)y).booleanValue() ? 1.0 : 0.0);
             } else if (y instanceof Scriptable) {
                 if (y instanceof ScriptableObject) {
-                    Object test = ((ScriptableObject)y).equivalentValues(x);
+                    Object test = ((ScriptableObject)y).equivalentValues(
+                                      x.toString());
                     if (test != Scriptable.NOT_FOUND) {
                         return ((Boolean)test).booleanValue();
                     }
@@ -2826,6 +2909,13 @@ public class ScriptRuntime {
             }
         }
     }
+
+    private static boolean eqString(CharSequence x, CharSequence y)
+    {
+        // Strings of different lengths differ without being flattened
+        return x.length() == y.length() && x.toString().equals(y.toString());
+    }
+
     public static boolean shallowEq(Object x, Object y)
     {
         if (x == y) {
@@ -2842,9 +2932,9 @@ public class ScriptRuntime {
             if (y instanceof Number) {
                 return ((Number)x).doubleValue() == ((Number)y).doubleValue();
             }
-        } else if (x instanceof String) {
-            if (y instanceof String) {
-                return x.equals(y);
+        } else if (x instanceof CharSequence) {
+            if (y instanceof CharSequence) {
+                return eqString((CharSequence)x, (CharSequence)y);
             }
         } else if (x instanceof Boolean) {
             if (y instanceof Boolean) {
@@ -2932,8 +3022,8 @@ public class ScriptRuntime {
                 val1 = ((Scriptable) val1).getDefaultValue(NumberClass);
             if (val2 instanceof Scriptable)
                 val2 = ((Scriptable) val2).getDefaultValue(NumberClass);
-            if (val1 instanceof String && val2 instanceof String) {
-                return ((String)val1).compareTo((String)val2) < 0;
+            if (val1 instanceof CharSequence && val2 instanceof CharSequence) {
+                return val1.toString().compareTo(val2.toString()) < 0;
             }
             d1 = toNumber(val1);
             d2 = toNumber(val2);
@@ -2952,8 +3042,8 @@ public class ScriptRuntime {
                 val1 = ((Scriptable) val1).getDefaultValue(NumberClass);
             if (val2 instanceof Scriptable)
                 val2 = ((Scriptable) val2).getDefaultValue(NumberClass);
-            if (val1 instanceof String && val2 instanceof String) {
-                return ((String)val1).compareTo((String)val2) <= 0;
+            if (val1 instanceof CharSequence && val2 instanceof CharSequence) {
+                return val1.toString().compareTo(val2.toString()) <= 0;
             }
             d1 = toNumber(val1);
             d2 = toNumber(val2);
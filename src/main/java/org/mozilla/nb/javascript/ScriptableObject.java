@@ -49,6 +49,7 @@ import java.lang.reflect.*;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
 import org.mozilla.nb.javascript.debug.DebuggableObject;
 
@@ -147,6 +148,23 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     // cache; may be removed for smaller memory footprint
     private transient Slot lastAccess = REMOVED;
 
+    // Incremented before and after slots are moved to a larger table, a
+    // lookup without lock that misses while it changes searches again with
+    // the lock
+    private transient volatile int tableChanges;
+
+    // While shape is set the properties are the values of this array in
+    // the order of the shape and the slot table is empty, see useShapes
+    private transient Shape shape;
+    private transient Object[] shapeValues;
+
+    // Set when caches depend on the properties of this object as a prototype
+    // or scope, then adding, removing or replacing them, or changing the
+    // prototype or parent scope of the object, invalidates those caches
+    private transient volatile boolean lookupCached;
+
+    private static final AtomicInteger lookupVersion = new AtomicInteger();
+
     private volatile Map<Object,Object> associatedValues;
 
     private static final int SLOT_QUERY = 1;
@@ -155,7 +173,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     private static final int SLOT_MODIFY_GETTER_SETTER = 4;
     private static final int SLOT_MODIFY_CONST = 5;
 
-    private static class Slot implements Serializable
+    static class Slot implements Serializable
     {
         private static final long serialVersionUID = -6090581677123995491L;
         String name; // This can change due to caching
@@ -187,7 +205,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
             return attributes;
         }
 
-        final synchronized void setAttributes(int value)
+        final void setAttributes(int value)
         {
             checkValidAttributes(value);
             attributes = (short)value;
@@ -204,7 +222,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
 
     }
 
-    private static final class GetterSlot extends Slot
+    static final class GetterSlot extends Slot
     {
         static final long serialVersionUID = -4900574849788797588L;
 
@@ -256,6 +274,9 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public boolean has(String name, Scriptable start)
     {
+        Shape s = shape;
+        if (s != null && s.indexOf(name) >= 0)
+            return true;
         return null != getSlot(name, 0, SLOT_QUERY);
     }
 
@@ -632,6 +653,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     public void setPrototype(Scriptable m)
     {
         prototypeObject = m;
+        lookupChanged();
     }
 
     /**
@@ -648,6 +670,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     public void setParentScope(Scriptable m)
     {
         parentScopeObject = m;
+        lookupChanged();
     }
 
     /**
@@ -1556,6 +1579,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      * @since 1.4R3
      */
     public synchronized void sealObject() {
+        convertToSlots();
         if (count >= 0) {
             // Make sure all LazilyLoadedCtors are initialized before sealing.
             Slot slot = firstAdded;
@@ -1996,6 +2020,16 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
 
     private Object getImpl(String name, int index, Scriptable start)
     {
+        Shape s = shape;
+        if (s != null && name != null) {
+            int i = s.indexOf(name);
+            if (i < 0)
+                return Scriptable.NOT_FOUND;
+            Object[] values = shapeValues;
+            // Another thread may have converted the object meanwhile
+            if (values != null && i < values.length)
+                return values[i];
+        }
         Slot slot = getSlot(name, index, SLOT_QUERY);
         if (slot == null) {
             return Scriptable.NOT_FOUND;
@@ -2051,6 +2085,20 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     private boolean putImpl(String name, int index, Scriptable start,
                             Object value, int constFlag)
     {
+        Shape s = shape;
+        if (s != null && name != null && constFlag == EMPTY) {
+            // Plain properties are set on start only
+            if (this != start)
+                return false;
+            int i = s.indexOf(name);
+            Object[] values = shapeValues;
+            if (i >= 0 && values != null && i < values.length) {
+                values[i] = value;
+                return true;
+            }
+            if (i < 0 && putShapeProperty(name, value))
+                return true;
+        }
         Slot slot;
         if (this != start) {
             slot = getSlot(name, index, SLOT_QUERY);
@@ -2138,6 +2186,11 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     private Slot getSlot(String name, int index, int accessType)
     {
+        // Sealed objects are read by many threads, lookups in them write
+        // nothing to the object
+        if (count < 0)
+            return accessSlot(name, index, accessType);
+
         Slot slot;
 
         // Query last access cache and check that it was not deleted.
@@ -2174,6 +2227,18 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
 
     private Slot accessSlot(String name, int index, int accessType)
     {
+        Shape s = shape;
+        if (s != null) {
+            if ((accessType == SLOT_QUERY || accessType == SLOT_REMOVE) &&
+                (name == null || s.indexOf(name) < 0))
+            {
+                return null;
+            }
+            // Slots are needed for attributes, getters, setters, indexes
+            // and removal, the object keeps them from now on
+            convertToSlots();
+        }
+
         int indexOrHash = (name != null ? name.hashCode() : index);
 
         if (accessType == SLOT_QUERY ||
@@ -2183,6 +2248,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         {
             // Check the hashtable without using synchronization
 
+            int changes = tableChanges;
             Slot[] slotsLocalRef = slots; // Get stable local reference
             if (slotsLocalRef == null) {
                 if (accessType == SLOT_QUERY)
@@ -2201,7 +2267,8 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                                 // This will avoid calling String.equals when
                                 // slot is accessed with same string object
                                 // next time.
-                                slot.name = name;
+                                if (count >= 0)
+                                    slot.name = name;
                                 break;
                             }
                         }
@@ -2211,6 +2278,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                     }
                     slot = slot.next;
                 }
+                if (slot == null &&
+                    ((changes & 1) != 0 || changes != tableChanges))
+                {
+                    // The slots were being moved to another table
+                    slot = findSlot(name, indexOrHash);
+                }
                 if (accessType == SLOT_QUERY) {
                     return slot;
                 } else if (accessType == SLOT_MODIFY) {
@@ -2287,6 +2360,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                             if (slot == lastAccess) {
                                 lastAccess = REMOVED;
                             }
+                            lookupChanged();
                             slot = newSlot;
                         } else if (accessType == SLOT_MODIFY_CONST) {
                             return null;
@@ -2297,8 +2371,10 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                     // Check if the table is not too full before inserting.
                     if (4 * (count + 1) > 3 * slotsLocalRef.length) {
                         slotsLocalRef = new Slot[slotsLocalRef.length * 2 + 1];
+                        ++tableChanges;
                         copyTable(slots, slotsLocalRef, count);
                         slots = slotsLocalRef;
+                        ++tableChanges;
                         insertPos = getSlotIndex(slotsLocalRef.length,
                                 indexOrHash);
                     }
@@ -2310,6 +2386,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                 if (accessType == SLOT_MODIFY_CONST)
                     newSlot.setAttributes(CONST);
                 ++count;
+                lookupChanged();
                 // add new slot to linked list
                 if (lastAdded != null)
                     lastAdded.orderedNext = newSlot;
@@ -2356,6 +2433,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                         if (slot == lastAccess) {
                             lastAccess = REMOVED;
                         }
+                        lookupChanged();
                     }
                 }
             }
@@ -2366,6 +2444,167 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         }
     }
 
+    private synchronized Slot findSlot(String name, int indexOrHash)
+    {
+        Slot[] slotsLocalRef = slots;
+        if (slotsLocalRef == null)
+            return null;
+        int slotIndex = getSlotIndex(slotsLocalRef.length, indexOrHash);
+        Slot slot = slotsLocalRef[slotIndex];
+        while (slot != null) {
+            if (slot.indexOrHash == indexOrHash &&
+                (slot.name == name ||
+                 (name != null && name.equals(slot.name))))
+            {
+                break;
+            }
+            slot = slot.next;
+        }
+        return slot;
+    }
+
+    /**
+     * Makes the object keep its plain named properties in an array laid out
+     * by a {@link Shape} shared with objects given the same properties in
+     * the same order. Has no effect unless the object has no properties yet.
+     * The object returns to the slot table when it gets a property of
+     * another kind, a property is deleted or the object is sealed.
+     */
+    final synchronized void useShapes()
+    {
+        if (count == 0 && shape == null) {
+            shape = Shape.EMPTY;
+            shapeValues = ScriptRuntime.emptyArgs;
+        }
+    }
+
+    /**
+     * Adds a property to the shape or returns false when the object is no
+     * longer using shapes.
+     */
+    private synchronized boolean putShapeProperty(String name, Object value)
+    {
+        Shape s = shape;
+        if (s == null)
+            return false;
+        int i = s.indexOf(name);
+        if (i >= 0) {
+            // Added by another thread
+            shapeValues[i] = value;
+            return true;
+        }
+        Shape next = s.addProperty(name);
+        if (next == null) {
+            convertToSlots();
+            return false;
+        }
+        return addShapeProperty(s, next, value);
+    }
+
+    /**
+     * Moves the object from shape to next, which adds a property with the
+     * given value, or returns false when the object does not have shape.
+     */
+    final synchronized boolean addShapeProperty(Shape shape, Shape next,
+                                                Object value)
+    {
+        if (this.shape != shape)
+            return false;
+        Object[] values = shapeValues;
+        if (shape.size == values.length) {
+            Object[] newValues = new Object[shape.size < 2 ? 2
+                                                           : shape.size * 2];
+            System.arraycopy(values, 0, newValues, 0, shape.size);
+            values = newValues;
+        }
+        values[shape.size] = value;
+        shapeValues = values;
+        this.shape = next;
+        lookupChanged();
+        return true;
+    }
+
+    final Shape getShape()
+    {
+        return shape;
+    }
+
+    final Object[] getShapeValues()
+    {
+        return shapeValues;
+    }
+
+    /**
+     * Returns the slot of a named property without converting the object
+     * from shapes, or null.
+     */
+    final Slot querySlot(String name)
+    {
+        if (shape != null)
+            return null;
+        return getSlot(name, 0, SLOT_QUERY);
+    }
+
+    /**
+     * Marks the object as a prototype or scope caches depend on.
+     */
+    final void setLookupCached()
+    {
+        lookupCached = true;
+    }
+
+    /**
+     * Returns a number that changes whenever properties of an object marked
+     * by {@link #setLookupCached()} are added, removed or replaced, or its
+     * prototype or parent scope changes.
+     */
+    static int getLookupVersion()
+    {
+        return lookupVersion.get();
+    }
+
+    private void lookupChanged()
+    {
+        if (lookupCached) {
+            lookupVersion.incrementAndGet();
+        }
+    }
+
+    private synchronized void convertToSlots()
+    {
+        Shape s = shape;
+        if (s == null)
+            return;
+        Object[] values = shapeValues;
+        int size = s.size;
+        if (size != 0) {
+            // The table is filled before it is published, so the properties
+            // stay visible to readers without locks
+            Slot[] table = new Slot[size * 2 + 3];
+            Slot previous = null;
+            for (int i = 0; i != size; ++i) {
+                String name = s.getName(i);
+                Slot slot = new Slot(name, name.hashCode(), 0);
+                slot.value = values[i];
+                addKnownAbsentSlot(table, slot,
+                                   getSlotIndex(table.length,
+                                                slot.indexOrHash));
+                if (previous == null) {
+                    firstAdded = slot;
+                } else {
+                    previous.orderedNext = slot;
+                }
+                previous = slot;
+            }
+            lastAdded = previous;
+            slots = table;
+            count = size;
+        }
+        shape = null;
+        shapeValues = null;
+        lookupChanged();
+    }
+
     private static int getSlotIndex(int tableSize, int indexOrHash)
     {
         return (indexOrHash & 0x7fffffff) % tableSize;
@@ -2413,6 +2652,10 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     }
 
     Object[] getIds(boolean getAll) {
+        Shape shape = this.shape;
+        if (shape != null)
+            return shape.size == 0 ? ScriptRuntime.emptyArgs
+                                   : shape.getNames();
         Slot[] s = slots;
         Object[] a = ScriptRuntime.emptyArgs;
         if (s == null)
@@ -2451,6 +2694,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     private synchronized void writeObject(ObjectOutputStream out)
         throws IOException
     {
+        convertToSlots();
         out.defaultWriteObject();
         int objectsCount = count;
         if (objectsCount < 0) {
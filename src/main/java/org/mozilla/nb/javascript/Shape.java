@@ -0,0 +1,179 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *   Norris Boyd
+ *   Igor Bukanov
+ *   Bob Jervis
+ *   Roger Lawrence
+ *   Mike McCabe
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.mozilla.nb.javascript;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Layout of the properties of objects that keep their values in an array
+ * instead of the slot table of ScriptableObject. Objects given the same
+ * properties in the same order share the shape, the shapes form a tree of
+ * transitions from {@link #EMPTY} where each child adds one property.
+ * <p>
+ * A shape only describes plain properties: named, without attributes and
+ * getters or setters. Transitions are held weakly, shapes are collected with
+ * the last object using them or one of their children.
+ *
+ * @see ScriptableObject
+ */
+final class Shape
+{
+    static final Shape EMPTY = new Shape(null, null, new String[0],
+                                         new int[0]);
+
+    // Objects with more properties are used as dictionaries, keep those in
+    // the slot table
+    static final int MAX_PROPERTIES = 32;
+
+    private static final int MAX_TRANSITIONS = 64;
+
+    final int size;
+
+    private final Shape parent;
+
+    // Names and hashes of the properties by index, children share the
+    // arrays of their parent when they are not yet used past its size
+    private final String[] names;
+    private final int[] hashes;
+    private boolean extended;
+
+    // The first transition is read without locking, the others are in the map
+    private volatile WeakReference<Shape> transition;
+    private Map<String,WeakReference<Shape>> transitions;
+
+    private Shape(Shape parent, String name, String[] names, int[] hashes)
+    {
+        this.parent = parent;
+        this.size = parent == null ? 0 : parent.size + 1;
+        this.names = names;
+        this.hashes = hashes;
+        if (name != null) {
+            names[size - 1] = name;
+            hashes[size - 1] = name.hashCode();
+        }
+    }
+
+    /**
+     * Returns the index of the named property or -1.
+     */
+    int indexOf(String name)
+    {
+        String[] names = this.names;
+        int[] hashes = this.hashes;
+        int hash = name.hashCode();
+        for (int i = size; --i >= 0;) {
+            String s = names[i];
+            if (s == name || (hashes[i] == hash && s.equals(name)))
+                return i;
+        }
+        return -1;
+    }
+
+    String getName(int index)
+    {
+        return names[index];
+    }
+
+    Object[] getNames()
+    {
+        Object[] result = new Object[size];
+        System.arraycopy(names, 0, result, 0, size);
+        return result;
+    }
+
+    /**
+     * Returns the shape with the given property added or null when the
+     * object should keep its properties in a slot table instead.
+     */
+    Shape addProperty(String name)
+    {
+        WeakReference<Shape> ref = transition;
+        if (ref != null) {
+            Shape next = ref.get();
+            if (next != null && next.names[size].equals(name))
+                return next;
+        }
+        if (size == MAX_PROPERTIES)
+            return null;
+        synchronized (this) {
+            ref = transition;
+            Shape next = ref != null ? ref.get() : null;
+            if (next == null) {
+                next = newChild(name);
+                transition = new WeakReference<Shape>(next);
+                return next;
+            }
+            if (next.names[size].equals(name))
+                return next;
+            if (transitions == null)
+                transitions = new HashMap<String,WeakReference<Shape>>();
+            ref = transitions.get(name);
+            next = ref != null ? ref.get() : null;
+            if (next == null) {
+                if (ref == null && transitions.size() == MAX_TRANSITIONS)
+                    return null;
+                next = newChild(name);
+                transitions.put(name, new WeakReference<Shape>(next));
+            }
+            return next;
+        }
+    }
+
+    // Must be inside synchronized (this)
+    private Shape newChild(String name)
+    {
+        if (!extended && size < names.length) {
+            extended = true;
+            return new Shape(this, name, names, hashes);
+        }
+        int capacity = Math.min(Math.max(4, size * 2), MAX_PROPERTIES);
+        String[] newNames = new String[capacity];
+        int[] newHashes = new int[capacity];
+        System.arraycopy(names, 0, newNames, 0, size);
+        System.arraycopy(hashes, 0, newHashes, 0, size);
+        return new Shape(this, name, newNames, newHashes);
+    }
+}
@@ -0,0 +1,162 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *   Norris Boyd
+ *   Igor Bukanov
+ *   Bob Jervis
+ *   Roger Lawrence
+ *   Mike McCabe
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+package org.mozilla.nb.javascript;
+
+import java.util.Comparator;
+
+/**
+ * Stable merge sort for Array.prototype.sort. Short runs are sorted by binary
+ * insertion and halves already in order are not merged, so sorted and almost
+ * sorted input takes few comparisons, which matters when they call script
+ * functions.
+ * <p>
+ * Unlike java.util.Arrays, which may throw when it detects an inconsistent
+ * comparator, any comparator leaves a permutation of the input.
+ */
+final class Sorting
+{
+    // Runs of up to this length are sorted by insertion
+    private static final int INSERTION_LENGTH = 32;
+
+    /**
+     * Orders strings by their UTF-16 code units, the default order of
+     * Array.prototype.sort.
+     */
+    static final Comparator<Object> STRING_ORDER = new Comparator<Object>() {
+        public int compare(Object x, Object y)
+        {
+            return ((String)x).compareTo((String)y);
+        }
+    };
+
+    private Sorting()
+    {
+    }
+
+    /**
+     * Sorts the first length keys, moving the values at the same indexes
+     * along with them unless values is null.
+     */
+    static void sort(Object[] keys, Object[] values, int length,
+                     Comparator<Object> order)
+    {
+        if (length <= INSERTION_LENGTH) {
+            insertionSort(keys, values, 0, length, order);
+            return;
+        }
+        Object[] keyBuf = new Object[(length + 1) / 2];
+        Object[] valueBuf = values == null ? null : new Object[keyBuf.length];
+        mergeSort(keys, values, keyBuf, valueBuf, 0, length, order);
+    }
+
+    private static void mergeSort(Object[] keys, Object[] values,
+                                  Object[] keyBuf, Object[] valueBuf,
+                                  int start, int end, Comparator<Object> order)
+    {
+        if (end - start <= INSERTION_LENGTH) {
+            insertionSort(keys, values, start, end, order);
+            return;
+        }
+        int middle = (start + end) >>> 1;
+        mergeSort(keys, values, keyBuf, valueBuf, start, middle, order);
+        mergeSort(keys, values, keyBuf, valueBuf, middle, end, order);
+        if (order.compare(keys[middle - 1], keys[middle]) <= 0) {
+            return;
+        }
+        // The left half is moved aside and merged back with the right one
+        int leftLength = middle - start;
+        System.arraycopy(keys, start, keyBuf, 0, leftLength);
+        if (values != null) {
+            System.arraycopy(values, start, valueBuf, 0, leftLength);
+        }
+        int left = 0, right = middle, target = start;
+        while (left < leftLength && right < end) {
+            if (order.compare(keyBuf[left], keys[right]) > 0) {
+                if (values != null) {
+                    values[target] = values[right];
+                }
+                keys[target++] = keys[right++];
+            } else {
+                if (values != null) {
+                    values[target] = valueBuf[left];
+                }
+                keys[target++] = keyBuf[left++];
+            }
+        }
+        System.arraycopy(keyBuf, left, keys, target, leftLength - left);
+        if (values != null) {
+            System.arraycopy(valueBuf, left, values, target, leftLength - left);
+        }
+    }
+
+    private static void insertionSort(Object[] keys, Object[] values,
+                                      int start, int end,
+                                      Comparator<Object> order)
+    {
+        for (int i = start + 1; i < end; ++i) {
+            Object key = keys[i];
+            if (order.compare(keys[i - 1], key) <= 0) {
+                continue;
+            }
+            // Behind the last key not greater than key
+            int low = start, high = i - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (order.compare(keys[middle], key) > 0) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            System.arraycopy(keys, low, keys, low + 1, i - low);
+            keys[low] = key;
+            if (values != null) {
+                Object value = values[i];
+                System.arraycopy(values, low, values, low + 1, i - low);
+                values[low] = value;
+            }
+        }
+    }
+}
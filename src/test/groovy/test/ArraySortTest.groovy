@@ -0,0 +1,83 @@
+package test
+
+import spock.lang.*
+import org.mozilla.nb.javascript.Context
+
+class ArraySortTest extends spock.lang.Specification {
+
+    def "arrays are sorted like the specification orders them"() {
+        expect:
+        NbRhinoExecutionTest.eval(source) == result
+
+        where:
+        source                                                                                     | result
+        // Default order of strings
+        '[3, 1, 10, 2, 21].sort().join()'                                                          | '1,10,2,21,3'
+        '["b", "a", "B", "\u00e9", "aa"].sort().join()'                                            | 'B,a,aa,b,\u00e9'
+        '[true, "s", 5, null, {toString: function() { return "o" }}].sort().join()'                | '5,,o,s,true'     
+        // Undefined and holes go to the end
+        'var a = [3, undefined, 1, , 2]; a.sort(); [a.length, a.join(), 3 in a, 4 in a].join(";")' | '5;1,2,3,,;true;false'
+        'var a = ["b", , "a"]; a.sort(function(x, y) { return x < y ? -1 : 1 }); [a.join(), 2 in a].join()' | 'a,b,,false'
+        // Compare functions, with fast paths for differences of numbers
+        '[3, 1, 10, 2].sort(function(a, b) { return a - b }).join()'                               | '1,2,3,10'
+        '[3, 1, 10, 2].sort(function(a, b) { return b - a }).join()'                               | '10,3,2,1'
+        '[3, , 1, 2].sort(function(a, b) { return a - b }).join()'                                 | '1,2,3,'
+        '[3, "1", 10, 2].sort(function(a, b) { return a - b }).join()'                             | '1,2,3,10'
+        'var a = [0, -0, 1, -0]; a.sort(function(a, b) { return a - b }); a.map(function(x) { return 1 / x }).join()' | 'Infinity,-Infinity,-Infinity,1'
+        '[2, NaN, 1].sort(function(a, b) { return a - b }).length'                                 | '3'
+        'var n = 0; [3, 1, 2].sort(function(a, b) { n++; return a - b + 0 }); n > 0'               | 'true'
+        // Stability
+        'var a = []; for (var i = 0; i < 100; i++) a.push({k: i % 3, i: i}); a.sort(function(x, y) { return x.k - y.k }); var ok = true; for (var i = 1; i < 100; i++) if (a[i - 1].k == a[i].k && a[i - 1].i > a[i].i) ok = false; ok' | 'true'
+        'var a = []; for (var i = 0; i < 100; i++) a.push(i % 10 + "-" + i); a.sort(function(x, y) { return x.charAt(0) < y.charAt(0) ? -1 : x.charAt(0) > y.charAt(0) ? 1 : 0 }); a.slice(0, 3).join()' | '0-0,0-10,0-20'
+        // Inconsistent or failing compare functions
+        'var a = []; for (var i = 0; i < 200; i++) a.push(i); var s = 1; a.sort(function() { s = s * 69069 % 65536; return s % 3 - 1 }); var t = 0; for (var i = 0; i < 200; i++) t += a[i]; t' | '19900'
+        'var a = [3, 1, 2]; try { a.sort(function() { throw "x" }) } catch (e) {} a.join()'       | '3,1,2'
+        'try { [2, 1].sort(5) } catch (e) { e instanceof TypeError }'                              | 'true'
+        // Array-like objects and arrays changed while sorted
+        'var o = {0: "c", 1: "a", 2: "b", length: 3}; Array.prototype.sort.call(o); [o[0], o[1], o[2]].join()' | 'a,b,c'
+        'var a = [3, 1, 2]; a.sort(function(x, y) { a[5] = "z"; return x - y }); a.join()'        | '1,2,3,,,z'
+    }
+
+    // Benchmark, run with -Dbenchmarks=true
+    @IgnoreIf({ !Boolean.getBoolean('benchmarks') })
+    def "sorting large arrays"() {
+        given:
+        def cx = Context.enter()
+        cx.optimizationLevel = -1
+        def scope = cx.initStandardObjects()
+        cx.evaluateString(scope, '''
+            var seed = 1
+            function random() { seed = (seed * 1103515245 + 12345) % 2147483648; return seed }
+            function numbers(n) { var a = []; for (var i = 0; i < n; i++) a.push(random() / 1000); return a }
+            function strings(n) { var a = []; for (var i = 0; i < n; i++) a.push("s" + random()); return a }
+            function sorted(a, f) { for (var i = 1; i < a.length; i++) if (f(a[i - 1], a[i]) > 0) return false; return true }
+            function byValue(x, y) { return x < y ? -1 : x > y ? 1 : 0 }
+        ''', 'test', 1, null)
+        def run = { String setup, String sort ->
+            cx.evaluateString(scope, "var a = $setup", 'test', 1, null)
+            long start = System.nanoTime()
+            cx.evaluateString(scope, sort, 'test', 1, null)
+            long time = System.nanoTime() - start
+            assert cx.evaluateString(scope, 'sorted(a, a.key)', 'test', 1, null)
+            time
+        }
+
+        when:
+        def rows = [
+            ['numbers', 'numbers(1000000); a.key = function(x, y) { return x - y }', 'a.sort(function(x, y) { return x - y })'],
+            ['numbers', 'numbers(1000000); a.key = function(x, y) { return byValue(String(x), String(y)) }', 'a.sort()'],
+            ['strings', 'strings(1000000); a.key = byValue', 'a.sort()'],
+            ['sorted strings', 'strings(1000000).sort(); a.key = byValue', 'a.sort()'],
+            ['numbers', 'numbers(100000); a.key = byValue', 'a.sort(byValue)'],
+        ].collect { name, setup, sort -> [name, setup.substring(setup.indexOf('(') + 1, setup.indexOf(')')), sort, run(setup, sort)] }
+
+        then:
+        println String.format('%-16s %9s %-42s %10s', 'elements', 'length', 'sort', 'ms')
+        rows.each { name, length, sort, time ->
+            println String.format('%-16s %9s %-42s %10.1f', name, length, sort, time / 1e6)
+        }
+
+        cleanup:
+        Context.exit()
+    }
+}
@@ -0,0 +1,49 @@
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+
+// coffee-script.js comes with the IDE module, run with it on the test classpath
+@IgnoreIf({ CompilerTest.classLoader.getResource('coffeescript/lang/resources/coffee-script.js') == null })
+class CompilerTest extends spock.lang.Specification {
+
+    def "sources are compiled to known JavaScript"() {
+        when:
+        def result = CoffeeScriptNbRhinoCompiler.get().compile(code, true)
+
+        then:
+        result.error == null
+        result.js == js
+
+        where:
+        code                                          | js
+        'square = (x) -> x * x\nalert square 3\n'     | 'var square;\n\nsquare = function(x) {\n  return x * x;\n};\n\nalert(square(3));\n'
+        'name = "world"\ns = "hello #{name}, #{1 + 2}"\n' | 'var name, s;\n\nname = "world";\n\ns = "hello " + name + ", " + (1 + 2);\n'
+        'xs = (x * 2 for x in [1..5] when x % 2)\n'   | 'var x, xs;\n\nxs = (function() {\n  var i, results;\n  results = [];\n  for (x = i = 1; i <= 5; x = ++i) {\n    if (x % 2) {\n      results.push(x * 2);\n    }\n  }\n  return results;\n})();\n'
+    }
+
+    def "classes are compiled with their helpers"() {
+        when:
+        def js = CoffeeScriptNbRhinoCompiler.get().compile('class A extends B\n  constructor: (@x) ->\n    super()\n  m: => @x\n', false).js
+
+        then:
+        js.startsWith('(function() {\n  var A,\n    bind = function(fn, me)')
+        js.contains('  A = (function(superClass) {\n    extend(A, superClass);\n\n    function A(x) {\n      this.x = x;\n')
+        js.endsWith('}).call(this);\n')
+    }
+
+    def "syntax errors are reported with their line"() {
+        when:
+        def error = CoffeeScriptNbRhinoCompiler.get().compile(code, true).error
+
+        then:
+        error.line == line
+        error.message == message
+
+        where:
+        code                          | line | message
+        'a = 1\nb = (2\n'             | 2    | 'missing )'
+        'f = ->\n  return 1\n    2\n' | 3    | 'unexpected indentation'
+        "x = 'a\n"                    | 1    | "missing '"
+    }
+}
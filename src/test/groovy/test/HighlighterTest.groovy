@@ -0,0 +1,24 @@
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+import static coffeescript.lang.CoffeeScriptHighlighter.Format.*
+
+class HighlighterTest extends spock.lang.Specification {
+
+    def "html highlighting"() {
+        expect:
+        new CoffeeScriptHighlighter(HTML).highlight(code) == html
+
+        where:
+        code | html
+        'if a < 1' | '<span class="keyword">if</span> <span class="identifier">a</span> <span class="operator">&lt;</span> <span class="number">1</span>'
+        '"x#{@y}"' | '<span class="string">&quot;x#{</span><span class="embedded"><span class="field">@y</span></span><span class="string">}&quot;</span>'
+        '/// a #{b} # c\n///' | '<span class="regexp">/// a #{</span><span class="embedded"><span class="identifier">b</span></span><span class="regexp">} </span><span class="comment"># c\n</span><span class="regexp">///</span>'
+    }
+
+    def "ansi highlighting"() {
+        expect:
+        new CoffeeScriptHighlighter(ANSI).highlight('x = 1 # one') == 'x = \u001B[36m1\u001B[0m \u001B[90m# one\u001B[0m'
+    }
+}
@@ -0,0 +1,45 @@
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+
+class IdentifierIndexTest extends spock.lang.Specification {
+
+    def usages(index, name) {
+        def usages = index.find(name)
+        (0..<usages.size()).collect { [usages.getFile(it), usages.getOffset(it)] } as Set
+    }
+
+    def "identifiers and fields are found in every file"() {
+        given:
+        def index = new CoffeeScriptIdentifierIndex()
+        index.update('a.coffee', 'foo = 1\nbar foo')
+        index.update('b.coffee', 'class A\n  m: -> @foo + "#{foo}"')
+
+        expect:
+        usages(index, 'foo') == [['a.coffee', 0], ['a.coffee', 12], ['b.coffee', 16], ['b.coffee', 26]] as Set
+        usages(index, 'bar') == [['a.coffee', 8]] as Set
+        usages(index, 'missing').isEmpty()
+        index.fileCount == 2
+        index.postingCount == 7
+    }
+
+    def "updates replace the postings of a file"() {
+        given:
+        def index = new CoffeeScriptIdentifierIndex()
+        index.update('a.coffee', 'x = y')
+        index.update('b.coffee', 'y = x')
+
+        when:
+        index.update('a.coffee', 'z = ' + 'x + ' * 200 + 'x')
+        index.remove('b.coffee')
+        index.update('c.coffee', 'y')
+
+        then:
+        usages(index, 'x').size() == 201
+        usages(index, 'x').every { it[0] == 'a.coffee' }
+        usages(index, 'y') == [['c.coffee', 0]] as Set
+        index.fileCount == 2
+        index.postingCount == 203
+    }
+}
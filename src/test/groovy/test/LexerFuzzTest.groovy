@@ -0,0 +1,223 @@
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+import static coffeescript.lang.CoffeeScriptTokenId.*
+
+class LexerFuzzTest extends spock.lang.Specification {
+
+    static final String[] FRAGMENTS = [
+        'a', 'foo', '@bar', 'class', 'if', 'then', 'else', 'for', 'own', 'of', 'in', 'and', 'is', 'not',
+        '1', '0x1F', '1.5e3', '.5', '-', '+', '*', '/', '//', '///', '=', '==', '->', '=>', '.', '..', '?.',
+        ':', '::', ',', ';', '(', ')', '[', ']', '{', '}', '"', "'", '"""', "'''", '#{', '#', '###',
+        '`', '\\', ' ', '  ', '\t', '\n', '\n  ', '\n    ', '\r\n', '\r', '/[', '\u00e9', '\u2028'
+    ]
+
+    static String generate(Random random, int length) {
+        def sb = new StringBuilder()
+        while (sb.length() < length) {
+            sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)])
+        }
+        sb.toString()
+    }
+
+    static final String[] STATEMENTS = [
+        'value = (item) -> item.name?.length ? 0',
+        '@tokens.push {type: "IDENT", value: "#{name}-#{index + 1}"}',
+        'return no unless /^[a-z_$][\\w$]*$/i.test name',
+        "for own key, val of options when key isnt 'id' then result[key] = val",
+        'matches = ///\n      ^ ( \\d+ ) # digits\n      \\.? #{suffix}\n    ///g',
+        'text = """\n      Hello #{user.name}\n      Total: #{(x * 2 for x in [1..10]).join ", "}\n    """',
+        '###\n    Block comment\n    ###',
+        "callback = => @emit 'done', (err ? null), 0x1F + 1.5e3 / count",
+        'list[i..j] = [a, b, c] if i < j and not done',
+        'js = `function() { return this; }`',
+        "switch kind\n      when 'a', 'b' then 1\n      else 2"
+    ]
+
+    static String program(Random random, int length) {
+        def sb = new StringBuilder()
+        int n = 0
+        while (sb.length() < length) {
+            sb.append("class Class${n++} extends Base\n")
+            (1 + random.nextInt(6)).times { m ->
+                sb.append("  method${m}: (a, @b) ->\n")
+                (1 + random.nextInt(8)).times {
+                    sb.append('    ').append(STATEMENTS[random.nextInt(STATEMENTS.length)]).append('\n')
+                }
+                sb.append('\n')
+            }
+        }
+        sb.toString()
+    }
+
+    static List lex(String code) {
+        def input = new CoffeeScriptLexerStringInput(code)
+        def lexer = new CoffeeScriptLexer(input)
+        def tokens = []
+        def id
+        while ((id = lexer.nextToken()) != null) {
+            tokens << [id, input.offset, input.readLength()]
+            if (tokens.size() > 2 * code.length() + 16) {
+                throw new AssertionError("lexer does not terminate on ${code.inspect()}")
+            }
+        }
+        tokens
+    }
+
+    static List lexEmbedded(lexer, input) {
+        def tokens = []
+        def id
+        while ((id = lexer.nextToken()) != null) {
+            tokens << [id, input.offset, input.readLength()]
+        }
+        tokens
+    }
+
+    // Messages are built only on failure, Spock evaluates those of asserts eagerly
+    static void assertCovers(List tokens, int start, int end, String code) {
+        int offset = start
+        for (token in tokens) {
+            if (token[1] != offset) {
+                throw new AssertionError("gap or overlap at $offset in ${code.inspect()}")
+            }
+            if (token[2] == 0 && !(token[0] in [OUTDENT, INDENT])) {
+                throw new AssertionError("empty ${token[0]} at $offset in ${code.inspect()}")
+            }
+            offset += token[2]
+        }
+        if (offset != end) {
+            throw new AssertionError("characters after $offset not covered in ${code.inspect()}")
+        }
+    }
+
+    static void assertLexed(String code) {
+        def tokens = lex(code)
+        assertCovers(tokens, 0, code.length(), code)
+        for (token in tokens.findAll { it[0] in [STRING, HEREGEX] }) {
+            int start = token[1], end = token[1] + token[2]
+            def input = new CoffeeScriptLexerStringInput(code, start, end)
+            def lexer = token[0] == STRING ? new CoffeeScriptStringLexer(input) : new CoffeeScriptRegexpLexer(input)
+            assertCovers(lexEmbedded(lexer, input), start, end, code)
+        }
+    }
+
+    static void assertRelexed(Random random) {
+        String code = generate(random, 2000 + random.nextInt(4000))
+        def stream = CoffeeScriptTokenStream.lex(code)
+        int offset = random.nextInt(code.length())
+        int removed = Math.min(random.nextInt(8), code.length() - offset)
+        String inserted = generate(random, random.nextInt(8))
+        String edited = code.substring(0, offset) + inserted + code.substring(offset + removed)
+        assert stream.relex(edited, offset, removed, inserted.length()) == CoffeeScriptTokenStream.lex(edited)
+    }
+
+    @Timeout(120)
+    def "random input is covered by tokens"() {
+        given:
+        def random = new Random(seed)
+
+        when:
+        1000.times {
+            assertLexed(random.nextBoolean() ? generate(random, random.nextInt(400)) : program(random, random.nextInt(400)))
+        }
+
+        then:
+        notThrown(AssertionError)
+
+        where:
+        seed << [1, 2, 3]
+    }
+
+    @Timeout(120)
+    def "relexing random edits gives the tokens of the edited text"() {
+        given:
+        def random = new Random(7)
+
+        when:
+        200.times {
+            assertRelexed(random)
+        }
+
+        then:
+        notThrown(AssertionError)
+    }
+
+    // Input counting the characters the lexer reads, rescans included
+    static class CountingInput extends CoffeeScriptLexerStringInput {
+
+        long reads
+
+        CountingInput(String text) {
+            super(text)
+        }
+
+        int read() {
+            reads++
+            super.read()
+        }
+    }
+
+    @Timeout(300)
+    def "lexing reads grow linearly with the input"() {
+        given:
+        def reads = { String code ->
+            def input = new CountingInput(code)
+            def lexer = new CoffeeScriptLexer(input)
+            while (lexer.nextToken() != null) {
+            }
+            input.reads
+        }
+        def repeat = { String text, int length -> (text * (length.intdiv(text.length()) + 1)).substring(0, length) }
+
+        when:
+        long small = reads('x = ' + repeat(pattern, 20000))
+        long large = reads('x = ' + repeat(pattern, 160000))
+
+        then:
+        // Eight times the input, quadratic rescans would read 64 times more
+        large < small * 9
+
+        where:
+        pattern << ['(/[a ', '/[', 'a / b ', '"""a ', '"#{', '"#{"', '\'a ', '###a ', '///a ', '`a ', '\\',
+            'a\n  b\n', '(a) / b ', '1.2.', '#{#{', '{[(', '"#{a}"']
+    }
+
+    // Benchmark, run with -Dbenchmarks=true
+    @IgnoreIf({ !Boolean.getBoolean('benchmarks') })
+    def "throughput per token id"() {
+        given:
+        String corpus = System.getProperty('coffeescript.corpus')
+        String code = corpus ? new File(corpus).getText('UTF-8') : program(new Random(42), 1 << 20)
+        def counts = new long[CoffeeScriptTokenId.values().length]
+        def chars = new long[counts.length]
+        def nanos = new long[counts.length]
+
+        when:
+        def input = new CoffeeScriptLexerStringInput(code)
+        def lexer = new CoffeeScriptLexer(input)
+        long start = System.nanoTime()
+        def id
+        while (true) {
+            long before = System.nanoTime()
+            if ((id = lexer.nextToken()) == null) {
+                break
+            }
+            nanos[id.ordinal()] += System.nanoTime() - before
+            counts[id.ordinal()]++
+            chars[id.ordinal()] += input.readLength()
+        }
+        long total = System.nanoTime() - start
+
+        then:
+        println String.format('%-14s %10s %10s %12s %10s', 'token', 'count', 'chars', 'tokens/s', 'MB/s')
+        CoffeeScriptTokenId.values().findAll { counts[it.ordinal()] > 0 }.each {
+            int i = it.ordinal()
+            println String.format('%-14s %10d %10d %12.0f %10.1f', it, counts[i], chars[i],
+                counts[i] * 1e9 / Math.max(nanos[i], 1), chars[i] * 1e3 / Math.max(nanos[i], 1))
+        }
+        println String.format('%-14s %10d %10d %12.0f %10.1f', 'total', counts.toList().sum(), code.length(),
+            counts.toList().sum() * 1e9 / total, code.length() * 1e3 / total)
+        chars.toList().sum() == code.length()
+    }
+}
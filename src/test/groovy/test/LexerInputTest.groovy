@@ -0,0 +1,60 @@
+
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+import java.nio.CharBuffer
+
+class LexerInputTest extends spock.lang.Specification {
+
+    static final String CODE = 'class A\n  m: (x) -> "😀 #{x} ü" # ☃\n𝒳 = /a[/]b/g\n'
+
+    def "char buffer and mapped inputs produce the same tokens as the string input"() {
+        given:
+        File file = File.createTempFile("lexer", ".coffee")
+        file.deleteOnExit()
+        file.setText(CODE, "UTF-8")
+
+        expect:
+        def expected = tokenize(new CoffeeScriptLexerStringInput(CODE))
+        tokenize(new CoffeeScriptLexerCharBufferInput(CODE.toCharArray())) == expected
+        tokenize(new CoffeeScriptLexerCharBufferInput(CharBuffer.wrap(CODE))) == expected
+        tokenize(CoffeeScriptLexerMappedInput.map(file)) == expected
+    }
+
+    def "reader input produces the same tokens with any window size"() {
+        expect:
+        tokenize(new CoffeeScriptLexerReaderInput(new StringReader(CODE + '@class\n'), window)) ==
+            tokenize(new CoffeeScriptLexerStringInput(CODE + '@class\n'))
+
+        where:
+        window << [1, 8, 8192]
+    }
+
+    def "surrogate pairs are read as two units"() {
+        given:
+        CoffeeScriptLexerInput input = new CoffeeScriptLexerMappedInput(java.nio.ByteBuffer.wrap("a😀b".getBytes("UTF-8")))
+
+        expect:
+        (1..5).collect { input.read() } == [0x61, 0xD83D, 0xDE00, 0x62, CoffeeScriptLexerInput.EOF]
+
+        when:
+        input.backup(3)
+
+        then:
+        input.readLength() == 2
+        input.readText() == "a\uD83D"
+        input.read() == 0xDE00
+    }
+
+    def tokenize(CoffeeScriptLexerInput input) {
+        CoffeeScriptLexer lexer = new CoffeeScriptLexer(input);
+        def tokens = []
+        CoffeeScriptTokenId token;
+        while((token = lexer.nextToken()) != null) {
+            tokens <<  [token, input.readText(), input.getOffset()]
+        }
+        return tokens
+    }
+
+}
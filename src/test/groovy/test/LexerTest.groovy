@@ -26,20 +26,48 @@ class LexerTest extends spock.lang.Specification {
         
         where:
         string | tokens
-//FIX        "-4" | [[NUMBER, "-4", 0]]
+        "-4" | [[NUMBER, "-4", 0]]
         "0x4" | [[NUMBER, "0x4", 0]]
         "0x0b0" | [[NUMBER, "0x0b0", 0]]
         "0x0B1" | [[NUMBER, "0x0B1", 0]]
         "0xE1" | [[NUMBER, "0xE1", 0]]
-//FIX        ".25 + .75" | [[NUMBER, ".25", 0], [WHITESPACE, " ", 1], [NONUNARY_OP, "+", 2], [WHITESPACE, " ", 3], [NUMBER, ".75", 4]]
+        ".25 + .75" | [[NUMBER, ".25", 0], [WHITESPACE, " ", 3], [NONUNARY_OP, "+", 4], [WHITESPACE, " ", 5], [NUMBER, ".75", 6]]
         "@field" | [[FIELD, "@field", 0]]
         "@ field" | [[AT, "@", 0], [WHITESPACE, " ", 1], [IDENTIFIER, "field", 2]]
         "1+2=3" | [[NUMBER, "1", 0], [NONUNARY_OP, "+", 1], [NUMBER, "2", 2], [NONUNARY_OP, "=", 3], [NUMBER, "3", 4]]
         "1.12345" | [[NUMBER, "1.12345", 0]]
         /"Test#{denis}Xyz"/ | [[STRING, /"Test#{denis}Xyz"/, 0]]
         /'Test#{denis}Xyz'/ | [[SIMPLE_STRING, /'Test#{denis}Xyz'/, 0]]
+        "1-2" | [[NUMBER, "1", 0], [NONUNARY_OP, "-", 1], [NUMBER, "2", 2]]
+        "@x-1" | [[FIELD, "@x", 0], [NONUNARY_OP, "-", 2], [NUMBER, "1", 3]]
+        "'a'-1" | [[SIMPLE_STRING, "'a'", 0], [NONUNARY_OP, "-", 3], [NUMBER, "1", 4]]
+        "`a`-1" | [[JSTOKEN, "`a`", 0], [NONUNARY_OP, "-", 3], [NUMBER, "1", 4]]
+        "'a' -1" | [[SIMPLE_STRING, "'a'", 0], [WHITESPACE, " ", 3], [NONUNARY_OP, "-", 4], [NUMBER, "1", 5]]
+        "f -1" | [[IDENTIFIER, "f", 0], [WHITESPACE, " ", 1], [NUMBER, "-1", 2]]
+        "1..2" | [[NUMBER, "1", 0], [DOT, ".", 1], [DOT, ".", 2], [NUMBER, "2", 3]]
+        "0b101" | [[NUMBER, "0b101", 0]]
+        "1e-3" | [[NUMBER, "1e-3", 0]]
+        "a.and" | [[IDENTIFIER, "a", 0], [DOT, ".", 1], [IDENTIFIER, "and", 2]]
+        "a and b" | [[IDENTIFIER, "a", 0], [WHITESPACE, " ", 1], [ANY_KEYWORD, "and", 2], [WHITESPACE, " ", 5], [IDENTIFIER, "b", 6]]
+        "for own" | [[FOR, "for", 0], [WHITESPACE, " ", 3], [ANY_KEYWORD, "own", 4]]
+        "@class" | [[AT, "@", 0], [ANY_KEYWORD, "class", 1]]
+        "@::" | [[AT, "@", 0], [DOUBLE_COLON, "::", 1]]
+        "(/[/]/g)" | [[LPAREN, "(", 0], [REGEX, "/[/]/g", 1], [RPAREN, ")", 7]]
+        "(/ a/)" | [[LPAREN, "(", 0], [DIV, "/", 1], [WHITESPACE, " ", 2], [IDENTIFIER, "a", 3], [DIV, "/", 4], [RPAREN, ")", 5]]
+        "a >>>= 1" | [[IDENTIFIER, "a", 0], [WHITESPACE, " ", 1], [NONUNARY_OP, ">>>=", 2], [WHITESPACE, " ", 6], [NUMBER, "1", 7]]
     }
     
+    def "one outdent per closed block"() {
+        expect:
+        tokenize(string).findAll { it[0] == INDENT || it[0] == OUTDENT } == tokens
+
+        where:
+        string | tokens
+        "a\n  b\n    c\nd" | [[INDENT, "\n  ", 1], [INDENT, "\n    ", 5], [OUTDENT, "\n", 11], [OUTDENT, "", 12]]
+        "a\n  b\n    c" | [[INDENT, "\n  ", 1], [INDENT, "\n    ", 5]] + [[OUTDENT, "", 11]] * 2
+        "a\n  b\n      c\n    d\ne" | [[INDENT, "\n  ", 1], [INDENT, "\n      ", 5], [OUTDENT, "\n", 19], [OUTDENT, "", 20]]
+    }
+
     def tokenize(String i) {
         CoffeeScriptLexerInput input = new CoffeeScriptLexerStringInput(i);
         CoffeeScriptLexer lexer = new CoffeeScriptLexer(input);
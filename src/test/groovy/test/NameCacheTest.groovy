@@ -0,0 +1,30 @@
+package test
+
+import spock.lang.*
+
+class NameCacheTest extends spock.lang.Specification {
+
+    def "cached name lookups see changes of scopes"() {
+        expect:
+        ObjectShapesTest.eval(source, true) == result
+        ObjectShapesTest.eval(source, false) == result
+
+        where:
+        source                                                                                          | result
+        // Globals changed, created, deleted and replaced by getters
+        'var x = 1; function g() { return x } var r = [g(), g()]; x = 2; r.push(g()); r.join()'        | '1,1,2'
+        'function g() { try { return x } catch (e) { return "none" } } var r = [g(), g()]; this.x = 3; r.push(g()); r.join()' | 'none,none,3'
+        'x = 1; function g() { try { return x } catch (e) { return "gone" } } var r = [g(), g()]; delete x; r.push(g()); r.join()' | '1,1,gone'
+        'x = 1; function g() { return x } g(); g(); this.__defineGetter__("x", function() { return 9 }); [g(), g()].join()' | '9,9'
+        // Scopes of functions, with statements and catch clauses
+        'var x = "global"; function f() { function g() { return x } var r = [g(), g()]; eval("var x = \'local\'"); r.push(g()); return r.join() } f()' | 'global,global,local'
+        'var x = 1; function g(o) { with (o) { return x } } [g({}), g({x: 2}), g({}), g({x: 3})].join()' | '1,2,1,3'
+        'var e = "outer"; function g(t) { try { if (t) throw "inner"; return e } catch (e) { return e } } [g(0), g(1), g(0)].join()' | 'outer,inner,outer'
+        'function mk(v) { return function() { return v } } var s = 0; for (var i = 0; i < 10; i++) { var f = mk(i); s += f() + f() } s' | '90'
+        'var x = 1; function f(x) { var g = function() {}; return x } [f(2), f(3), f(4)].join()'    | '2,3,4'
+        // Calls by name and their thisObj
+        'var self = this; function top() { return this === self } function f() { var g = function() {}; return top() } [f(), f()].join()' | 'true,true'
+        'var self = this; function f() { var top = function() { return this === self }; function h() { return top() } return h() && h() } f()' | 'true'
+        'function fact(n) { var k = function() {}; return n < 2 ? 1 : n * fact(n - 1) } fact(5)'      | '120'
+    }
+}
@@ -0,0 +1,36 @@
+package test
+
+import spock.lang.*
+import org.mozilla.nb.javascript.Context
+
+class NbRhinoExecutionTest extends spock.lang.Specification {
+
+    static eval(String source) {
+        def cx = Context.enter()
+        try {
+            cx.optimizationLevel = -1
+            Context.toString(cx.evaluateString(cx.initStandardObjects(), source, 'test', 1, null))
+        } finally {
+            Context.exit()
+        }
+    }
+
+    def "the IDE tree of the fork is executed"() {
+        expect:
+        eval(source) == result
+
+        where:
+        source                                                                                | result
+        'function f(a, b) { return a * b } f(3, 4)'                                           | '12'
+        'var f = function fact(n) { return n < 2 ? 1 : n * fact(n - 1) }; f(5)'               | '120'
+        'function counter() { var c = 0; return function() { return ++c } } var k = counter(); k(); k()' | '2'
+        'var o = {a: 1, "b": 2, 3: 4, f: function() { return this.a }}; o.a + o.b + o[3] + o.f()' | '8'
+        'var o = {get x() { return this.y * 2 }, y: 1, set z(v) { this.y = v }}; o.z = 5; o.x' | '10'
+        'var r = []; for (var i = 0; i < 5; i++) switch (i) { case 1: r.push("a"); break; case 2: case 3: r.push("b"); default: r.push("d") } r.join("")' | 'dabdbdd'
+        'switch (1) { case 2: "no" } "empty"'                                                | 'empty'
+        'var s = ""; try { throw new Error("x") } catch (e) { s += e.message } finally { s += "f" } s' | 'xf'
+        'var x; function t() { try { return 1 } finally { x = 2 } } t() + x'                  | '3'
+        'function u() { try { null.x } catch (e) { return function() { return e instanceof TypeError } } } u()()' | 'true'
+        'outer: for (var i = 0; i < 3; i++) { switch (i) { case 1: continue outer } } i'     | '3'
+    }
+}
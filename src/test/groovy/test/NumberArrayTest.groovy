@@ -0,0 +1,105 @@
+package test
+
+import spock.lang.*
+import org.mozilla.nb.javascript.Context
+
+class NumberArrayTest extends spock.lang.Specification {
+
+    def "arrays of numbers behave like arrays of objects"() {
+        expect:
+        NbRhinoExecutionTest.eval(source) == result
+
+        where:
+        source                                                                                     | result
+        // Stores of other values move the elements to objects
+        'var a = [1, 2, 3]; a[1] = "b"; a[3] = 4; a.join()'                                        | '1,b,3,4'
+        'var a = []; a[0] = 1.5; a[1] = null; a[2] = 2; a.join("|")'                               | '1.5||2'
+        'var a = [1, 2]; a.push(3, "x", 4); a.join() + a.length'                                   | '1,2,3,x,45'
+        // Holes, deletes, sparse stores and the length
+        'var a = [1, , 3]; [a.length, 1 in a, typeof a[1], a.join()].join(";")'                   | '3;false;undefined;1,,3'
+        'var a = [1, 2, 3]; delete a[0]; var r = []; for (var k in a) r.push(k); r.join()'         | '1,2'
+        'var a = new Array(5); a[2] = 7; [a.length, a.join()].join(";")'                           | '5;,,7,,'
+        'var a = [1, 2]; a[1000000] = 3; [a.length, a[1], a[1000000], a[999]].join()'              | '1000001,2,3,'
+        'var a = [1, 2, 3, 4]; a.length = 2; a[3] = 5; [a.length, a.join()].join(";")'             | '4;1,2,,5'
+        'var a = [1, 2, 3]; a.length = 5; [a.length, 4 in a].join()'                               | '5,false'
+        // NaN, negative zero and their lookups
+        'var a = [NaN, -0, 0]; [a.indexOf(NaN), a.indexOf(0), a.lastIndexOf(-0), 1 / a[1]].join()' | '-1,1,2,-Infinity'
+        'var a = [1, "1", 1]; [a.indexOf("1"), a.lastIndexOf(1), [1, 2].indexOf("1")].join()'     | '1,2,-1'
+        // Functions of the array prototype
+        'var a = [3, 1, 10, 2]; a.sort(); a.join()'                                                | '1,10,2,3'
+        'var a = [3, 1, 10, , 2]; a.sort(function(x, y) { return x - y }); a.join() + a.length'    | '1,2,3,10,5'
+        'var a = [1, 2, 3]; a.reverse(); [a.pop(), a.shift(), a.join(), a.length].join(";")'       | '1;3;2;1'
+        'var a = [, 1]; [a.shift(), a.pop(), a.length].join()'                                     | ',1,0'
+        'var a = [1, 2, 3]; a.unshift(0); a.splice(1, 1, "x"); a.join()'                           | '0,x,2,3'
+        '[1, 2].concat([3, , 5], ["a"], 6).join()'                                                 | '1,2,3,,5,a,6'
+        'var a = [1, 2, 3]; var b = a.slice(1); b[0] = 9; [a.join(), b.join()].join(";")'          | '1,2,3;9,3'
+        // Properties that are not elements
+        'var a = [1, 2]; a.x = 3; a[-1] = 4; a["1"] = 5; [a.x, a[-1], a.join()].join(";")'         | '3;4;1,5'
+        'var a = [1, 2]; a.__defineGetter__(0, function() { return "g" }); a[1] += 1; a.join()'    | 'g,3'
+        'Array.prototype[1] = "p"; var a = [1, , 3]; var r = a[1]; delete Array.prototype[1]; r'   | 'p'
+        // Elements read and written by the interpreter
+        'var a = [1, 2, 3]; for (var i = 0; i < 3; i++) a[i] = a[i] * 2 + 0.5; a.join()'            | '2.5,4.5,6.5'
+        'var a = [1, 2]; a[0] = {}; a[1]++; a[0] = a[1]; a.join()'                                 | '3,3'
+        'var a = [0.1, 0.2]; a[1] += a[0]; (a[1] - 0.3 < 1e-9) + "," + a[2]'                       | 'true,undefined'
+    }
+
+    def "sealed arrays of numbers are not changed"() {
+        given:
+        def cx = Context.enter()
+        cx.optimizationLevel = -1
+        def scope = cx.initStandardObjects()
+        def array = cx.evaluateString(scope, '[1, 2, 3]', 'test', 1, null)
+        array.sealObject()
+        scope.put('a', scope, array)
+
+        when:
+        cx.evaluateString(scope, 'a[0] = 5', 'test', 1, null)
+
+        then:
+        thrown(Exception)
+        Context.toString(cx.evaluateString(scope, 'a.join()', 'test', 1, null)) == '1,2,3'
+
+        cleanup:
+        Context.exit()
+    }
+
+    // Benchmark, run with -Dbenchmarks=true
+    @IgnoreIf({ !Boolean.getBoolean('benchmarks') })
+    def "elements of arrays of numbers are read and written without boxing"() {
+        given:
+        def source = '''
+            function fill(a, n) { for (var i = 0; i < n; i++) a[i] = i * 0.5 }
+            function sum(a, n) { var s = 0; for (var r = 0; r < 10; r++) for (var i = 0; i < n; i++) s += a[i]; return s }
+            var numbers = [], objects = ["x"]
+        '''
+        def cx = Context.enter()
+        cx.optimizationLevel = -1
+        def scope = cx.initStandardObjects()
+        cx.evaluateString(scope, source, 'test', 1, null)
+        def numbers = cx.compileString('fill(numbers, 100000); sum(numbers, 100000)', 'test', 1, null)
+        def objects = cx.compileString('fill(objects, 100000); sum(objects, 100000)', 'test', 1, null)
+        def times = [[], []]
+        def results = [null, null]
+
+        when:
+        // Alternated, so both run as long after the JIT compiled the loop
+        10.times {
+            [numbers, objects].eachWithIndex { script, i ->
+                long start = System.nanoTime()
+                results[i] = script.exec(cx, scope)
+                times[i] << System.nanoTime() - start
+            }
+        }
+
+        then:
+        println String.format('%-10s %12s %14s', 'store', 'ms', 'elements/s')
+        ['double[]', 'Object[]'].eachWithIndex { store, i ->
+            long best = times[i].min()
+            println String.format('%-10s %12.1f %14.0f', store, best / 1e6, 1.1e6 * 1e9 / best)
+        }
+        results[0] == results[1]
+
+        cleanup:
+        Context.exit()
+    }
+}
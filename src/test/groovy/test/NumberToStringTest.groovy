@@ -0,0 +1,87 @@
+package test
+
+import spock.lang.*
+import org.mozilla.nb.javascript.ScriptRuntime
+
+class NumberToStringTest extends spock.lang.Specification {
+
+    // The exact conversion, which ScriptRuntime uses when the fast one fails
+    static String exact(double d) {
+        def method = Class.forName('org.mozilla.nb.javascript.DToA').getDeclaredMethod('JS_dtostr', StringBuffer, int, int, double)
+        method.accessible = true
+        def buffer = new StringBuffer()
+        method.invoke(null, buffer, 0, 0, d)
+        buffer.toString()
+    }
+
+    static double randomNumber(Random random, int i) {
+        switch (i % 3) {
+            case 0: return Double.longBitsToDouble(random.nextLong())
+            case 1: return random.nextInt(1000000) / Math.pow(10, random.nextInt(12))
+            default: return random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)
+        }
+    }
+
+    def "numbers are converted to their shortest strings"() {
+        expect:
+        NbRhinoExecutionTest.eval(source) == result
+
+        where:
+        source                                             | result
+        '[0, -0, 1, -1, 100, 9007199254740992].join()'     | '0,0,1,-1,100,9007199254740992'
+        '[0.1, 0.1 + 0.2, 1 / 3, -2.5, 4.35].join()'       | '0.1,0.30000000000000004,0.3333333333333333,-2.5,4.35'
+        '[123456789012345680000, 1e21, 1e23, 2e300].join()' | '123456789012345680000,1e+21,1e+23,2e+300'
+        '[0.000001, 1e-7, 1.5e-7, 1e-300].join()'          | '0.000001,1e-7,1.5e-7,1e-300'
+        '[5e-324, 1.7976931348623157e308].join()'          | '5e-324,1.7976931348623157e+308'
+        '[NaN, Infinity, -Infinity, (255).toString(16)].join()' | 'NaN,Infinity,-Infinity,ff'
+    }
+
+    def "random numbers are converted like the exact algorithm does"() {
+        given:
+        def random = new Random(1)
+        def mismatches = []
+
+        when:
+        300000.times { i ->
+            double d = randomNumber(random, i)
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return
+            }
+            String s = ScriptRuntime.numberToString(d, 10)
+            // DToA garbles the first digit of some subnormal numbers
+            if (Double.parseDouble(s) != d || Math.abs(d) >= Double.MIN_NORMAL && s != exact(d)) {
+                mismatches << d
+            }
+        }
+
+        then:
+        mismatches == []
+    }
+
+    // Benchmark, run with -Dbenchmarks=true
+    @IgnoreIf({ !Boolean.getBoolean('benchmarks') })
+    def "converting numbers to strings"() {
+        given:
+        def random = new Random(1)
+        double[] numbers = (0..<1000000).collect { i -> i % 2 == 0 ? random.nextDouble() * 1000 : random.nextInt(100000) / 100.0 }
+        def times = [[], []]
+
+        when:
+        5.times {
+            [{ d -> ScriptRuntime.numberToString(d, 10) }, { d -> exact(d) }].eachWithIndex { convert, i ->
+                long start = System.nanoTime()
+                for (int j = 0; j < 100000; j++) {
+                    convert(numbers[j])
+                }
+                times[i] << System.nanoTime() - start
+            }
+        }
+
+        then:
+        println String.format('%-16s %10s %14s', 'conversion', 'ms', 'numbers/s')
+        ['numberToString', 'DToA'].eachWithIndex { name, i ->
+            def best = times[i].min()
+            println String.format('%-16s %10.1f %14.0f', name, best / 1e6, 1e5 * 1e9 / best)
+        }
+    }
+}
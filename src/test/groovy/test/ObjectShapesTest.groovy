@@ -0,0 +1,103 @@
+package test
+
+import spock.lang.*
+import org.mozilla.nb.javascript.Context
+import org.mozilla.nb.javascript.ContextFactory
+
+class ObjectShapesTest extends spock.lang.Specification {
+
+    static eval(String source, boolean shapes) {
+        def factory = new ContextFactory() {
+            protected boolean hasFeature(Context cx, int featureIndex) {
+                featureIndex == Context.FEATURE_OBJECT_SHAPES ? shapes : super.hasFeature(cx, featureIndex)
+            }
+        }
+        def cx = factory.enterContext()
+        try {
+            cx.optimizationLevel = -1
+            Context.toString(cx.evaluateString(cx.initStandardObjects(), source, 'test', 1, null))
+        } finally {
+            Context.exit()
+        }
+    }
+
+    def "objects with shapes behave like objects with slot tables"() {
+        expect:
+        eval(source, true) == result
+        eval(source, false) == result
+
+        where:
+        source                                                                                    | result
+        'var o = {a: 1, b: 2}; o.c = 3; o.a = 4; o.a + o.b + o.c'                                 | '9'
+        'var o = {a: 1}; o.b = 2; o.c = 3; var r = []; for (var k in o) r.push(k); r.join()'      | 'a,b,c'
+        'var o = {a: 1, b: 2, c: 3}; delete o.a; o.a = 4; var r = []; for (var k in o) r.push(k + o[k]); r.join()' | 'b2,c3,a4'
+        'var o = {a: 1}; delete o.x; o.b = 2; [o.a, o.b, "x" in o].join()'                       | '1,2,false'
+        'var o = {a: 1}; o.__defineGetter__("b", function() { return this.a + 1 }); o.a = 5; o.b' | '6'
+        'var o = {a: 1}; o[0] = 2; o.b = 3; var r = []; for (var k in o) r.push(k); r.join() + o[0]' | 'a,0,b2'
+        'var o = {a: 1}; [o.hasOwnProperty("a"), o.hasOwnProperty("toString"), o.propertyIsEnumerable("a")].join()' | 'true,false,true'
+        'function A(x) { this.x = x } A.prototype.y = 2; var a = new A(1), b = new A(3); a.y = 5; [a.x, a.y, b.x, b.y].join()' | '1,5,3,2'
+        'var o = {}; for (var i = 0; i < 100; i++) o["p" + i] = i; var s = 0; for (var k in o) s += o[k]; s + o.p99' | '5049'
+        'function P() { this.a = 1; this.b = 2 } var p = new P(), q = new P(); q.c = 3; delete p.a; [p.a, p.b, q.a, q.c].join()' | ',2,1,3'
+        'var o = {a: undefined}; ["a" in o, typeof o.a, o.b === undefined].join()'               | 'true,undefined,true'
+    }
+
+    static final String BENCHMARK = """
+        function Node(a, b) { this.type = 'Op'; this.first = a; this.second = b; this.flip = false }
+        var keep;
+        function make(n) {
+            keep = [];
+            for (var i = 0; i < n; i++) keep.push(i & 1 ? new Node(i, null) : {type: 'Literal', value: i, a: 1, b: 2});
+        }
+        function access(n) {
+            var o = new Node(1, 2), p = {type: 'Literal', value: 3, a: 1, b: 2}, s = 0;
+            for (var i = 0; i < n; i++) { s += o.first + o.second + p.value + p.b; o.first = i & 7; p.value = i & 3 }
+            return s;
+        }
+    """
+
+    static long usedMemory() {
+        4.times { System.gc() }
+        Runtime.runtime.totalMemory() - Runtime.runtime.freeMemory()
+    }
+
+    static benchmark(boolean shapes, int objects, int accesses) {
+        def factory = new ContextFactory() {
+            protected boolean hasFeature(Context cx, int featureIndex) {
+                featureIndex == Context.FEATURE_OBJECT_SHAPES ? shapes : super.hasFeature(cx, featureIndex)
+            }
+        }
+        def cx = factory.enterContext()
+        try {
+            cx.optimizationLevel = -1
+            def scope = cx.initStandardObjects()
+            cx.evaluateString(scope, BENCHMARK, 'benchmark', 1, null)
+            def make = scope.get('make', scope)
+            def access = scope.get('access', scope)
+            make.call(cx, scope, scope, [objects] as Object[])
+            long bytes = usedMemory()
+            make.call(cx, scope, scope, [0] as Object[])
+            bytes -= usedMemory()
+            3.times { access.call(cx, scope, scope, [accesses] as Object[]) }
+            long start = System.nanoTime()
+            def sum = access.call(cx, scope, scope, [accesses] as Object[])
+            long nanos = System.nanoTime() - start
+            [bytes / objects, nanos / accesses, sum]
+        } finally {
+            Context.exit()
+        }
+    }
+
+    // Benchmark, run with -Dbenchmarks=true
+    @IgnoreIf({ !Boolean.getBoolean('benchmarks') })
+    def "memory per object and property access time"() {
+        when:
+        def slots = benchmark(false, 100000, 200000)
+        def shapes = benchmark(true, 100000, 200000)
+
+        then:
+        println String.format('%-8s %16s %22s', 'layout', 'bytes per object', 'ns per 4 gets, 2 puts')
+        println String.format('%-8s %16.1f %22.1f', 'slots', slots[0], slots[1])
+        println String.format('%-8s %16.1f %22.1f', 'shapes', shapes[0], shapes[1])
+        slots[2] == shapes[2]
+    }
+}
@@ -0,0 +1,76 @@
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+import static coffeescript.lang.CoffeeScriptOutline.Kind.*
+
+class OutlineTest extends spock.lang.Specification {
+
+    def symbols(String code) {
+        def outline = CoffeeScriptOutline.extract(code)
+        (0..<outline.symbolCount).collect { i ->
+            def parent = outline.getParent(i)
+            [outline.getKind(i), outline.getName(i), parent < 0 ? null : outline.getName(parent)]
+        }
+    }
+
+    def "classes, methods and fields"() {
+        expect:
+        symbols('''\
+class Animal extends Base
+  @count: 0
+  constructor: (@name, legs) ->
+    @legs = legs
+    @name = legs
+  move: (meters) =>
+    helper = -> 1
+  'quoted': -> 0
+''') == [
+            [CLASS, 'Animal', null],
+            [FIELD, 'count', 'Animal'],
+            [METHOD, 'constructor', 'Animal'],
+            [FIELD, 'name', 'Animal'],
+            [FIELD, 'legs', 'Animal'],
+            [METHOD, 'move', 'Animal'],
+            [METHOD, 'quoted', 'Animal']
+        ]
+    }
+
+    def "top-level assignments and exports"() {
+        expect:
+        symbols('''\
+VERSION = '1.0'
+square = (x) -> x * x
+Dog = class extends Animal
+  bark: -> 'woof'
+Animal::sleep = -> true
+run = ->
+  local = 1
+module.exports =
+  create: (name) -> new Dog name
+  version: VERSION
+exports.square = square
+''') == [
+            [VARIABLE, 'VERSION', null],
+            [FUNCTION, 'square', null],
+            [CLASS, 'Dog', null],
+            [METHOD, 'bark', 'Dog'],
+            [METHOD, 'Animal::sleep', null],
+            [FUNCTION, 'run', null],
+            [EXPORT, 'module.exports', null],
+            [METHOD, 'create', 'module.exports'],
+            [EXPORT, 'exports.square', null]
+        ]
+    }
+
+    def "declaration offsets"() {
+        given:
+        String code = 'a = 1\nclass B\n  c: ->'
+        def outline = CoffeeScriptOutline.extract(code)
+
+        expect:
+        outline.getOffset(1) == code.indexOf('class')
+        outline.getNameOffset(1) == code.indexOf('B')
+        outline.getNameLength(2) == 1
+    }
+}
@@ -0,0 +1,41 @@
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+import java.util.concurrent.Executors
+
+class ParallelLexerTest extends spock.lang.Specification {
+
+    def "parallel lexing matches sequential lexing"() {
+        given:
+        def executor = Executors.newFixedThreadPool(4)
+        // Column 0 lines inside heredocs, block comments and heregexes
+        // are rejected when the chunks are stitched
+        String unit = 'class A\n  m: ->\n    s = """\nx = 1\n(a)\n    """\n    ###\nb = 2\n    ###\n' +
+            '    r = ///\nc#{d}\n    ///\n    f 1,\n-1\n'
+        String code = unit * (CoffeeScriptParallelLexer.MIN_CHUNK_LENGTH * 8 / unit.length())
+
+        expect:
+        new CoffeeScriptParallelLexer(executor, 4).lex(code) == CoffeeScriptTokenStream.lex(code)
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "relexing a parallel lexed stream gives the tokens of the edited text"() {
+        given:
+        def executor = Executors.newFixedThreadPool(4)
+        String unit = 'class A\n  m: ->\n    s = """\nx = 1\n(a)\n    """\n    f 1,\n-1\n'
+        String code = unit * (CoffeeScriptParallelLexer.MIN_CHUNK_LENGTH * 8 / unit.length())
+        def stream = new CoffeeScriptParallelLexer(executor, 4).lex(code)
+        def offset = code.length().intdiv(2)
+        String edited = code.substring(0, offset) + 'b' + code.substring(offset)
+
+        expect:
+        stream.@checkpointCount > 0
+        stream.relex(edited, offset, 0, 1) == CoffeeScriptTokenStream.lex(edited)
+
+        cleanup:
+        executor.shutdown()
+    }
+}
@@ -0,0 +1,30 @@
+package test
+
+import spock.lang.*
+
+class PropertyCacheTest extends spock.lang.Specification {
+
+    def "cached property accesses see changes of objects and prototypes"() {
+        expect:
+        ObjectShapesTest.eval(source, true) == result
+        ObjectShapesTest.eval(source, false) == result
+
+        where:
+        source                                                                                          | result
+        // Own properties, several layouts at one site, more layouts than cached
+        'function g(o) { return o.x } var r = []; for (var i = 0; i < 3; i++) { r.push(g({x: i})); r.push(g({y: 0, x: -i})) } r.join()' | '0,0,1,-1,2,-2'
+        'function g(o) { return o.x } var s = 0; for (var i = 0; i < 20; i++) { var o = {}; o["p" + (i % 7)] = 0; o.x = i; s += g(o) } s' | '190'
+        // Prototype properties, changed, shadowed, deleted and replaced by getters
+        'function A() {} A.prototype.x = 1; function g(o) { return o.x } var a = new A(), r = [g(a), g(a)]; A.prototype.x = 2; r.push(g(a)); a.x = 3; r.push(g(a), g(new A())); delete A.prototype.x; r.push(g(new A())); r.join()' | '1,1,2,3,2,'
+        'function A() {} A.prototype.x = 1; function g(o) { return o.x } var a = new A(); g(a); g(a); A.prototype.__defineGetter__("x", function() { return 5 }); g(a)' | '5'
+        'function A() { this.a = 0 } A.prototype.x = 1; function B() { this.a = 0 } B.prototype.x = 2; function g(o) { return o.x } [g(new A()), g(new B()), g(new A()), g(new B())].join()' | '1,2,1,2'
+        'function A() {} A.prototype.x = 1; function g(o) { return o.x } var a = new A(); g(a); a.__proto__ = {x: 7}; g(a)' | '7'
+        'var base = {x: 1}, mid = {}; mid.__proto__ = base; function A() {} A.prototype = mid; function g(o) { return o.x } var a = new A(); g(a); g(a); mid.x = 4; g(a)' | '4'
+        // Method calls
+        'function A() {} A.prototype.f = function() { return this.v }; function call(o) { return o.f() } var a = new A(); a.v = 1; var r = [call(a)]; A.prototype.f = function() { return -this.v }; r.push(call(a)); r.join()' | '1,-1'
+        // Stores, adding properties and prototype setters
+        'function P(v) { this.v = v } function g(o, v) { o.v = v; return o.v } var p = new P(1); [g(p, 2), g(p, 3), g(new P(0), 4)].join()' | '2,3,4'
+        'function A() {} function init(o) { o.x = 1; return o } init(new A()); init(new A()); A.prototype.__defineSetter__("x", function(v) { this.y = v }); var a = init(new A()); [a.hasOwnProperty("x"), a.y].join()' | 'false,1'
+        'function A() {} function init(o) { o.x = 1; o.y = 2; return o } var a = init(new A()), b = init(new A()); var r = []; for (var k in b) r.push(k); r.join()' | 'x,y'
+    }
+}
@@ -0,0 +1,122 @@
+package test
+
+import spock.lang.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import org.mozilla.nb.javascript.Context
+import org.mozilla.nb.javascript.NativeObject
+import org.mozilla.nb.javascript.Scriptable
+import org.mozilla.nb.javascript.ScriptableObject
+
+class SealedScopeTest extends spock.lang.Specification {
+
+    static final String READS = 'var s = 0; for (var i = 0; i < n; i++) { s += Math.abs(-i) + [i].length + String.fromCharCode(65).length; ' +
+        'if (typeof Array.prototype.push != "function" || Object.prototype.toString.call([]) != "[object Array]") s = NaN } s'
+
+    static Scriptable sealedScope() {
+        def cx = Context.enter()
+        try {
+            cx.initStandardObjects(null, true)
+        } finally {
+            Context.exit()
+        }
+    }
+
+    // Runs the script in each thread with a scope of its own on top of shared,
+    // returns the results and the time taken
+    static List run(Scriptable shared, String source, int threads, int n) {
+        def cx = Context.enter()
+        def script
+        try {
+            cx.optimizationLevel = -1
+            script = cx.compileString(source, 'reads', 1, null)
+        } finally {
+            Context.exit()
+        }
+        def results = new Object[threads]
+        def start = new CountDownLatch(1)
+        def workers = (0..<threads).collect { t ->
+            Thread.start {
+                def tcx = Context.enter()
+                try {
+                    tcx.optimizationLevel = -1
+                    def scope = tcx.newObject(shared)
+                    scope.prototype = shared
+                    scope.parentScope = null
+                    scope.put('n', scope, n)
+                    start.await()
+                    results[t] = Context.toString(script.exec(tcx, scope))
+                } catch (Throwable e) {
+                    results[t] = e
+                } finally {
+                    Context.exit()
+                }
+            }
+        }
+        long time = System.nanoTime()
+        start.countDown()
+        workers*.join()
+        [results.toList(), System.nanoTime() - time]
+    }
+
+    def "threads read a shared sealed scope"() {
+        when:
+        def shared = sealedScope()
+        def (results, time) = run(shared, READS, 4, 2000)
+
+        then:
+        results == ['2003000'] * 4
+    }
+
+    def "lookups without lock find slots while the table grows"() {
+        given:
+        def obj = new NativeObject()
+        10.times { obj.put("k$it".toString(), obj, it) }
+        def misses = new AtomicInteger()
+        def done = new AtomicBoolean()
+
+        when:
+        def readers = (0..<2).collect {
+            Thread.start {
+                while (!done.get()) {
+                    for (int i = 0; i < 10; i++) {
+                        if (!ScriptableObject.hasProperty(obj, "k$i".toString())) {
+                            misses.incrementAndGet()
+                        }
+                    }
+                }
+            }
+        }
+        for (int i = 10; i < 200000; i++) {
+            obj.put("k$i".toString(), obj, i)
+        }
+        done.set(true)
+        readers*.join()
+
+        then:
+        misses.get() == 0
+    }
+
+    // Benchmark, run with -Dbenchmarks=true
+    @IgnoreIf({ !Boolean.getBoolean('benchmarks') })
+    def "reads of a shared sealed scope per thread count"() {
+        given:
+        def shared = sealedScope()
+        int n = 50000
+        2.times { run(shared, READS, 2, n) }
+
+        when:
+        def rows = [1, 2, 4].collect { threads ->
+            def (results, time) = run(shared, READS, threads, n)
+            [threads, results, time]
+        }
+
+        then:
+        println String.format('%8s %12s %14s', 'threads', 'ms', 'iterations/s')
+        rows.each { row ->
+            println String.format('%8d %12.1f %14.0f', row[0], row[2] / 1e6, row[0] * n * 1e9 / row[2])
+        }
+        rows.every { row -> row[1] == [String.valueOf((n * (n - 1L)).intdiv(2) + 2L * n)] * row[0] }
+    }
+}
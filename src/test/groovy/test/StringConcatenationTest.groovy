@@ -0,0 +1,95 @@
+package test
+
+import spock.lang.*
+import org.mozilla.nb.javascript.Context
+import org.mozilla.nb.javascript.Function
+import org.mozilla.nb.javascript.ScriptableObject
+
+class StringConcatenationTest extends spock.lang.Specification {
+
+    // Long enough for the concatenations to be kept unflattened
+    static final String LONG = 'var p = "' + 'x' * 70 + '"; '
+
+    def "concatenated strings behave like strings"() {
+        expect:
+        NbRhinoExecutionTest.eval(LONG + source) == result
+
+        where:
+        source                                                                                      | result
+        // Types and conversions
+        'var s = p + "a"; [typeof s, s.length, s.charAt(70), s.charCodeAt(0), s.slice(-2)].join()' | 'string,71,a,120,xa'
+        'var s = p + 1; [s.length, s.indexOf("1"), !!s, s.toUpperCase().charAt(0)].join()'       | '71,70,true,X'
+        '[Number(p.replace(/x/g, "1") + "2") > 1e70, isNaN(p + p), parseInt("12" + p)].join()'   | 'true,true,12'
+        'var s = p + "a"; [String(s) === s, new String(s) == s, typeof new String(s), s.toString() === s].join()' | 'true,true,object,true'
+        // Comparisons
+        'var a = p + "a", b = p + "a"; [a == b, a === b, a === p + "b", a < p + "b", a >= b].join()' | 'true,true,false,true,true'
+        'var s = p + "a"; switch (s) { case p + "a": "match"; break; default: "none" }'              | 'match'
+        'var a = [p, p + "a", p + "b"]; [a.indexOf(p + "b"), a.lastIndexOf(p + "a")].join()'        | '2,1'
+        '[p + "b", p + "c", p + "a"].sort().map(function(s) { return s.charAt(70) }).join("")'     | 'abc'
+        // Property names, eval and functions taking strings
+        'var o = {}; o[p + "k"] = 1; [o[p + "k"], (p + "k") in o, o.hasOwnProperty(p + "k")].join()' | '1,true,true'
+        'eval("var v = 1; /*" + p + "*/ v + 1")'                                                    | '2'
+        'var re = new RegExp("^" + p + "$"); [re.test(p), (p + "y").replace(/x+/, "z")].join()'     | 'true,zy'
+        'new Date("Thu, 01 Jan 1970 00:00:00 GMT" + "                                        ").getTime()' | '0'
+        // String.prototype.concat
+        'var s = p.concat("a", 1, null); [s.length, s.slice(70)].join()'                           | '76,a1null'
+        'var s = ""; for (var i = 0; i < 100; i++) s = s.concat(p); s.length'                       | '7000'
+        // Nesting deeper than the Java stack
+        'var s = ""; for (var i = 0; i < 200000; i++) s += "ab"; [s.length, s.charAt(399999)].join()' | '400000,b'
+        'var s = ""; for (var i = 0; i < 200000; i++) s = "ab" + s; [s.length, s.charAt(0)].join()' | '400000,a'
+        'var a = p, b = p; for (var i = 0; i < 16; i++) { a = a + b; b = a + b } [a.length, b.length].join()' | '246720460,399202090'
+    }
+
+    def "concatenated strings reach Java as strings"() {
+        given:
+        def cx = Context.enter()
+        cx.optimizationLevel = -1
+        def scope = cx.initStandardObjects()
+        cx.evaluateString(scope, LONG + 'function f() { return p + "a" }', 'test', 1, null)
+        def f = (Function) ScriptableObject.getProperty(scope, 'f')
+
+        when:
+        def value = f.call(cx, scope, scope, new Object[0])
+
+        then:
+        Context.toString(value) == 'x' * 70 + 'a'
+        Context.jsToJava(value, String) == 'x' * 70 + 'a'
+        Context.jsToJava(value, Object) instanceof String
+        Context.jsToJava(value, CharSequence) instanceof String
+
+        cleanup:
+        Context.exit()
+    }
+
+    // Benchmark, run with -Dbenchmarks=true
+    @IgnoreIf({ !Boolean.getBoolean('benchmarks') })
+    def "building a large string by concatenation"() {
+        given:
+        def cx = Context.enter()
+        cx.optimizationLevel = -1
+        def scope = cx.initStandardObjects()
+        // 10 MB of characters in parts of 10 characters
+        def script = cx.compileString('''
+            var s = ""
+            for (var i = 0; i < 1000000; i++) s += "0123456789"
+            s.length + s.charAt(9999999)
+        ''', 'test', 1, null)
+
+        when:
+        def results = []
+        def times = (1..3).collect {
+            long start = System.nanoTime()
+            results << Context.toString(script.exec(cx, scope))
+            System.nanoTime() - start
+        }
+
+        then:
+        println String.format('%-10s %10s %10s', 'length', 'ms', 'MB/s')
+        def best = times.min()
+        println String.format('%-10d %10.1f %10.1f', 10000000, best / 1e6, 10e6 / best * 1e3)
+        results == ['100000009'] * 3
+
+        cleanup:
+        Context.exit()
+    }
+}
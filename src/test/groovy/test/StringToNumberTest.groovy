@@ -0,0 +1,72 @@
+package test
+
+import spock.lang.*
+import org.mozilla.nb.javascript.ScriptRuntime
+
+class StringToNumberTest extends spock.lang.Specification {
+
+    def "strings are converted to numbers"() {
+        expect:
+        NbRhinoExecutionTest.eval(source) == result
+
+        where:
+        source                                                             | result
+        // Plain decimals
+        '[Number("0"), Number("42"), +"-17", "3.25" * 1, Number("+8")].join()' | '0,42,-17,3.25,8'
+        '[1 / Number("-0"), Number("007"), Number("1."), Number(".5")].join()' | '-Infinity,7,1,0.5'
+        '[Number("0.1") + Number("0.2"), Number("9007199254740993")].join()' | '0.30000000000000004,9007199254740992'
+        '[Number("123456789.123456789"), Number("0.0000000000000000000000001")].join()' | '123456789.12345679,1e-25'
+        // Other forms
+        '[Number(""), Number("  12  "), Number("1e3"), Number("0x1F"), Number("-Infinity")].join()' | '0,12,1000,31,-Infinity'
+        '[Number("."), Number("-"), Number("1.2.3"), Number("12px"), Number("--1")].join()'   | 'NaN,NaN,NaN,NaN,NaN'
+    }
+
+    def "random decimals are converted like Java parses them"() {
+        given:
+        def random = new Random(1)
+        def mismatches = []
+
+        when:
+        300000.times {
+            def digits = Long.toString((random.nextLong() & Long.MAX_VALUE) >>> random.nextInt(63))
+            int point = random.nextInt(digits.length() + 1)
+            def s = (random.nextBoolean() ? '-' : '') + digits.substring(0, point) + (point < digits.length() ? '.' : '') + digits.substring(point)
+            if (ScriptRuntime.toNumber(s) != Double.parseDouble(s)) {
+                mismatches << s
+            }
+        }
+
+        then:
+        mismatches == []
+    }
+
+    // Benchmark, run with -Dbenchmarks=true
+    @IgnoreIf({ !Boolean.getBoolean('benchmarks') })
+    def "converting strings to numbers"() {
+        given:
+        def random = new Random(1)
+        String[] strings = (0..<100000).collect { i -> i % 2 == 0 ? String.valueOf(random.nextInt(1000000)) : String.valueOf(random.nextInt(100000) / 100.0) }
+        def times = [[], []]
+
+        when:
+        5.times {
+            long start = System.nanoTime()
+            for (int j = 0; j < strings.length; j++) {
+                ScriptRuntime.toNumber(strings[j])
+            }
+            times[0] << System.nanoTime() - start
+            start = System.nanoTime()
+            for (int j = 0; j < strings.length; j++) {
+                Double.parseDouble(strings[j])
+            }
+            times[1] << System.nanoTime() - start
+        }
+
+        then:
+        println String.format('%-16s %10s %14s', 'conversion', 'ms', 'strings/s')
+        ['toNumber', 'parseDouble'].eachWithIndex { name, i ->
+            def best = times[i].min()
+            println String.format('%-16s %10.1f %14.0f', name, best / 1e6, 1e5 * 1e9 / best)
+        }
+    }
+}
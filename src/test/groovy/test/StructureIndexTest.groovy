@@ -0,0 +1,82 @@
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+import static coffeescript.lang.CoffeeScriptTokenId.*
+
+class StructureIndexTest extends spock.lang.Specification {
+
+    def "matching brackets and blocks"() {
+        given:
+        String code = 'f = (a, [b]) ->\n  {c: a}\nd'
+        def stream = CoffeeScriptTokenStream.lex(code)
+        def structure = stream.structureIndex
+        def find = { id, from = 0 -> (from..<stream.size()).find { stream.getId(it) == id } }
+
+        expect:
+        structure.getPartner(find(LPAREN)) == find(RPAREN)
+        structure.getPartner(find(RPAREN)) == find(LPAREN)
+        structure.getPartner(find(LBRACKET)) == find(RBRACKET)
+        structure.getPartner(find(LBRACE)) == find(RBRACE)
+        structure.getPartner(find(INDENT)) == find(OUTDENT)
+        structure.getEnclosing(find(LBRACKET)) == find(LPAREN)
+        structure.getEnclosing(find(RBRACKET)) == find(LPAREN)
+        structure.getEnclosing(find(LBRACE)) == find(INDENT)
+        structure.getEnclosing(find(LPAREN)) == -1
+        structure.getPartner(find(IDENTIFIER)) == -1
+    }
+
+    def "stray closing token does not break other pairs"() {
+        given:
+        def stream = CoffeeScriptTokenStream.lex('(a])')
+        def structure = stream.structureIndex
+
+        expect:
+        structure.getPartner(0) == 3
+        structure.getPartner(2) == -1
+    }
+
+    def "interpolation boundaries"() {
+        given:
+        String code = 'a = "x#{b + "#{c}"}y"\nr = ///#{d}///'
+        def structure = CoffeeScriptTokenStream.lex(code).structureIndex
+        int outer = code.indexOf('#{'), inner = code.indexOf('#{', outer + 1), regex = code.indexOf('#{', inner + 1)
+
+        expect:
+        structure.interpolationCount == 3
+        structure.getInterpolationPartner(outer) == code.indexOf('}y')
+        structure.getInterpolationPartner(code.indexOf('}y')) == outer
+        structure.getInterpolationPartner(inner) == code.indexOf('}"}')
+        structure.getInterpolationPartner(regex) == code.indexOf('}///')
+        structure.getInterpolationPartner(0) == -1
+    }
+
+    def "relexing an edit gives the tokens of the edited text"() {
+        given:
+        String block = 'f = (a) ->\n  if a\n    "x#{a}" + [1, 2]\n  ###\n  c\n  ###\n'
+        String code = block * 200
+        def stream = CoffeeScriptTokenStream.lex(code)
+
+        expect:
+        for (edit in edits) {
+            int offset = edit[0] < 0 ? code.length() + edit[0] : edit[0]
+            String edited = code.substring(0, offset) + edit[2] + code.substring(offset + edit[1])
+            def relexed = stream.relex(edited, offset, edit[1], edit[2].length())
+            def full = CoffeeScriptTokenStream.lex(edited)
+            assert relexed == full
+            assert relexed.lineIndex == full.lineIndex
+            assert relexed.structureIndex == full.structureIndex
+            assert (0..<full.size()).every { relexed.structureIndex.getPartner(it) == full.structureIndex.getPartner(it) }
+            // Edits of the edited stream still converge
+            def again = relexed.relex(code, offset, edit[2].length(), edit[1])
+            assert again == stream
+        }
+
+        and:
+        CoffeeScriptTokenStream.lex('').relex('(a)', 0, 0, 3) == CoffeeScriptTokenStream.lex('(a)')
+
+        where:
+        edits = [[5000, 1, 'b'], [5000, 0, '\n'], [3000, 0, '"'], [3000, 0, '###'], [100, 4, ''],
+            [6000, 0, '  '], [0, 0, 'x\n'], [-3, 3, ''], [4000, 0, 'g = (\n']]
+    }
+}
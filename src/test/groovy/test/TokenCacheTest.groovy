@@ -0,0 +1,76 @@
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+
+class TokenCacheTest extends spock.lang.Specification {
+
+    static final String CODE = 'class A\n  m: (x) ->\n    "#{x}" if x\n  n: /a/g\n'
+
+    def "cached streams match the lexer"() {
+        given:
+        CoffeeScriptTokenCache cache = new CoffeeScriptTokenCache(1 << 20)
+        def expected = CoffeeScriptTokenStream.lex(CODE)
+
+        expect:
+        cache.get(CODE) == expected
+        cache.get(new String(CODE.toCharArray())).is(cache.get(CODE))
+        cache.size() == 1
+    }
+
+    def "streams are evicted beyond the size bound"() {
+        given:
+        int streamSize = CoffeeScriptTokenStream.lex(CODE).serializedSize()
+        CoffeeScriptTokenCache cache = new CoffeeScriptTokenCache(streamSize * 2)
+
+        when:
+        cache.get(CODE)
+        cache.get(CODE + ' ')
+        cache.get(CODE + '  ')
+
+        then:
+        cache.size() == 2
+    }
+
+    def "streams are read back from the disk store"() {
+        given:
+        File directory = File.createTempFile("tokens", "")
+        directory.delete()
+
+        when:
+        new CoffeeScriptTokenCache(1 << 20, directory).get(CODE)
+        def stream = new CoffeeScriptTokenCache(1 << 20, directory).get(CODE)
+
+        then:
+        directory.list().length == 1
+        stream == CoffeeScriptTokenStream.lex(CODE)
+        stream.getId(stream.tokenAt(CODE.indexOf('/a/'))) == CoffeeScriptTokenId.REGEX
+
+        cleanup:
+        directory.deleteDir()
+    }
+
+    def "corrupted counts in the disk store are ignored"() {
+        given:
+        File directory = File.createTempFile("tokens", "")
+        directory.delete()
+        new CoffeeScriptTokenCache(1 << 20, directory).get(CODE)
+        File file = directory.listFiles()[0]
+        RandomAccessFile raf = new RandomAccessFile(file, "rw")
+        raf.seek(4) // After the magic number
+        raf.writeInt(Integer.MAX_VALUE)
+        raf.close()
+        def buffer = java.nio.ByteBuffer.wrap(file.bytes)
+        buffer.position(4)
+
+        when:
+        CoffeeScriptTokenStream.readFrom(buffer)
+
+        then:
+        thrown(IllegalArgumentException)
+        new CoffeeScriptTokenCache(1 << 20, directory).get(CODE) == CoffeeScriptTokenStream.lex(CODE)
+
+        cleanup:
+        directory.deleteDir()
+    }
+}
@@ -0,0 +1,36 @@
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+import static coffeescript.lang.CoffeeScriptTokenId.*
+
+class TokenStreamTest extends spock.lang.Specification {
+
+    def "line index is recorded while lexing"() {
+        given:
+        String code = 'a = """\nx\r\ny"""\r\nb\rc\n'
+        def stream = CoffeeScriptTokenStream.lex(code)
+        def lines = stream.lineIndex
+
+        expect:
+        lines.lineCount == 6
+        (0..<6).collect { lines.getLineStart(it) } == [0, 8, 11, 17, 19, 21]
+        lines.getLine(0) == 0
+        lines.getLine(9) == 1
+        lines.getLine(code.indexOf('b')) == 3
+        lines.getColumn(code.indexOf('y')) == 0
+        lines.getLine(code.length()) == 5
+    }
+
+    def "tokens of a line"() {
+        given:
+        def stream = CoffeeScriptTokenStream.lex('if a\n  b 1\nc')
+        def tokens = { line -> (stream.getFirstToken(line)..<stream.getFirstToken(line + 1)).collect { stream.getId(it) } }
+
+        expect:
+        stream.getFirstToken(0) == 0
+        tokens(0) == [IF, WHITESPACE, IDENTIFIER]
+        tokens(1) == [INDENT, IDENTIFIER, WHITESPACE, NUMBER, OUTDENT]
+        stream.getId(stream.getFirstToken(2)) == IDENTIFIER
+    }
+}
@@ -0,0 +1,36 @@
+package test
+
+import spock.lang.*
+import coffeescript.lang.*
+
+class TokenTreeTest extends spock.lang.Specification {
+
+    def "flattened tokens cover embedded languages"() {
+        expect:
+        flatten(code) == tokens
+
+        where:
+        code | tokens
+        '"a#{b}c"' | [['STRING', '"a#{'], ['IDENTIFIER', 'b'], ['STRING', '}c"']]
+        '`f(1)`' | [['JSTOKEN', '`'], ['IDENTIFIER', 'f'], ['SEPARATOR', '('], ['NUMBER', '1'], ['SEPARATOR', ')'], ['JSTOKEN', '`']]
+        '`var x`' | [['JSTOKEN', '`'], ['KEYWORD', 'var'], ['WHITESPACE', ' '], ['IDENTIFIER', 'x'], ['JSTOKEN', '`']]
+        '///a#{"#{b}"}///' | [['REGEXP', '///a#{'], ['STRING', '"#{'], ['IDENTIFIER', 'b'], ['STRING', '}"'], ['REGEXP', '}///']]
+        "'a#{b}'" | [['SIMPLE_STRING', "'a#{b}'"]]
+    }
+
+    def "embedded regions keep their parent"() {
+        given:
+        def tree = new CoffeeScriptTokenTree('x = "#{y}"')
+        def string = tree.tokens.last()
+
+        expect:
+        string.embedding
+        string.children*.category == ['string', 'embedded', 'string']
+        string.children[1].children[0].text == 'y'
+        string.children[1].children[0].parent.parent.is(string)
+    }
+
+    def flatten(String code) {
+        new CoffeeScriptTokenTree(code).flatten().collect { [it.id.name(), it.text] }
+    }
+}